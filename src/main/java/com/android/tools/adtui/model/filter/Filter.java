@@ -82,6 +82,37 @@ public final class Filter {
         return myPattern == null || myPattern.matcher(string).matches();
     }
 
+    /**
+     * Returns true if every string matched by this filter is also matched by {@code previous}, e.g. when the user types one more
+     * character of a filter string. Only plain (non-regex) filters with the same case sensitivity are recognized as refinements.
+     */
+    public boolean isRefinementOf(@NotNull Filter previous) {
+        if (previous.isEmpty()) {
+            return true;
+        }
+        if (isEmpty() || myIsRegex || previous.myIsRegex || myIsMatchCase != previous.myIsMatchCase) {
+            return false;
+        }
+        if (myIsMatchCase) {
+            return myFilterString.contains(previous.myFilterString);
+        }
+        return toAsciiLowerCase(myFilterString).contains(toAsciiLowerCase(previous.myFilterString));
+    }
+
+    /**
+     * Lower cases only the US-ASCII letters of a string, which are the only ones folded by case insensitive filters.
+     */
+    @NotNull
+    public static String toAsciiLowerCase(@NotNull String string) {
+        char[] chars = string.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] = (char)(chars[i] + ('a' - 'A'));
+            }
+        }
+        return new String(chars);
+    }
+
     @Nullable
     private Pattern createFilterPattern() {
         int flags = myIsMatchCase ? 0 : Pattern.CASE_INSENSITIVE;
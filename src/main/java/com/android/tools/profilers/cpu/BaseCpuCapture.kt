@@ -18,13 +18,25 @@ package com.android.tools.profilers.cpu
 import com.android.tools.adtui.model.DefaultTimeline
 import com.android.tools.adtui.model.Range
 import com.android.tools.adtui.model.Timeline
+import com.android.tools.adtui.model.filter.Filter
 import com.android.tools.perflib.vmtrace.ClockType
 import com.android.tools.profiler.proto.Cpu.CpuTraceType
+import com.android.tools.profilers.cpu.capturedetails.AggregatedCallTree
+import com.android.tools.profilers.cpu.capturedetails.BottomUpCallTree
+import com.android.tools.profilers.cpu.capturedetails.CaptureNodeIntervalIndex
+import com.android.tools.profilers.cpu.capturedetails.LevelOfDetailIndex
+import com.android.tools.profilers.cpu.capturedetails.MethodIndex
+import com.android.tools.profilers.cpu.capturedetails.MethodStatistics
+import com.android.tools.profilers.cpu.capturedetails.ModelTable
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
 import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel
 import com.android.tools.profilers.cpu.nodemodel.NativeNodeModel
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel
 import com.android.tools.profilers.cpu.nodemodel.SyscallModel
 import com.google.common.annotations.VisibleForTesting
+import java.util.BitSet
+import java.util.function.Function
+import java.util.stream.Collectors
 
 open class BaseCpuCapture @JvmOverloads constructor(/**
                                                      * ID of the trace used to generate the capture.
@@ -44,7 +56,21 @@ open class BaseCpuCapture @JvmOverloads constructor(/**
                                                     private val dualClockMessage: String?,
                                                     range: Range,
                                                     captureTrees: Map<CpuThreadInfo, CaptureNode>,
-                                                    private val tags: Set<String> = setOf()) : CpuCapture {
+                                                    private var tags: Set<String> = setOf(),
+                                                    /**
+                                                     * Time spent in each tag per thread id, if the parser accumulated it.
+                                                     */
+                                                    private var tagBreakdowns: Map<Int, TagBreakdown> = mapOf(),
+                                                    /**
+                                                     * Samples of each function by leaf instruction address, if the parser recorded them.
+                                                     */
+                                                    private var instructionHistograms: InstructionHistograms =
+                                                        InstructionHistograms.EMPTY,
+                                                    /**
+                                                     * Table of the dense ids the parser assigned to the models, if it did, see
+                                                     * [CaptureNodeModel.getDenseId].
+                                                     */
+                                                    private val modelTable: ModelTable = ModelTable()) : CpuCapture {
     @VisibleForTesting
     constructor(traceId: Long,
                 type: CpuTraceType,
@@ -61,6 +87,192 @@ open class BaseCpuCapture @JvmOverloads constructor(/**
         private set
     private val unabbreviatedTrees: Map<CaptureNode, List<CaptureNode>>
 
+    /**
+     * The children of each thread root for a set of collapsed tags. The view of the empty set holds the unabbreviated trees.
+     *
+     * Collapsed trees share the subtrees without anything to collapse with the unabbreviated trees, see
+     * [CaptureNode.abbreviatedSharingSubtreesBy], and share the clones whose abbreviation didn't change with the view they were built
+     * from. A node has a single parent, the one of the tree owning it, so the shared nodes are attached to their parents in this view
+     * while it's shown.
+     */
+    private class CollapsedView(val trees: Map<CaptureNode, List<CaptureNode>>,
+                                val sharedNodes: List<SharedNode>,
+                                /**
+                                 * The abbreviation of each unabbreviated node with something collapsed by its position in [ThreadNodes],
+                                 * whether its clone is still part of the trees or was merged into another one, reused by the views built
+                                 * from this one. Null once the clones may have a stale clock type.
+                                 */
+                                var abbreviatedRuns: Map<CaptureNode, Array<AbbreviatedRun?>>?,
+                                /**
+                                 * The clock type of the nodes, or null if it may differ between them.
+                                 */
+                                var clockType: ClockType?) {
+        fun show() = sharedNodes.forEach { it.node.attachSharedSubtree(it.parent) }
+        fun hide() = sharedNodes.forEach { it.node.attachSharedSubtree(it.ownerParent) }
+
+        fun updateClockType(clockType: ClockType) {
+            trees.values.flatten().forEach { subtree -> subtree.descendantsStream.forEach { it.clockType = clockType } }
+            this.clockType = clockType
+        }
+    }
+
+    /**
+     * A node of a collapsed view below a clone, owned by the unabbreviated trees or by another view. It's attached to [ownerParent]
+     * whenever this view is hidden.
+     */
+    private class SharedNode(val node: CaptureNode, val parent: CaptureNode, val ownerParent: CaptureNode)
+
+    /**
+     * The unabbreviated nodes of a thread by pre-order position, the root first, so views can keep a value per node in an array and
+     * tell which subtrees carry a tag with binary searches.
+     */
+    private class ThreadNodes(root: CaptureNode, children: List<CaptureNode>) {
+        /**
+         * The position following the subtree of the node at each position.
+         */
+        val subtreeEnds: IntArray
+
+        /**
+         * The positions of the nodes carrying each tag, ascending.
+         */
+        private val tagPositions: Map<String, IntArray>
+
+        init {
+            val ends = arrayListOf(0)
+            val positions = HashMap<String, MutableList<Int>>()
+            fun flatten(node: CaptureNode) {
+                val position = ends.size
+                ends.add(0)
+                node.data.tag?.let { positions.getOrPut(it) { ArrayList() }.add(position) }
+                node.children.forEach(::flatten)
+                ends[position] = ends.size
+            }
+            root.data.tag?.let { positions.getOrPut(it) { ArrayList() }.add(0) }
+            children.forEach(::flatten)
+            ends[0] = ends.size
+            subtreeEnds = ends.toIntArray()
+            tagPositions = positions.mapValues { it.value.toIntArray() }
+        }
+
+        val size
+            get() = subtreeEnds.size
+
+        /**
+         * The positions of the nodes carrying each of the tags, ascending.
+         */
+        fun positionsOf(tags: Set<String>) = tags.mapNotNull(tagPositions::get)
+    }
+
+    /**
+     * Hands out the abbreviations of the view a thread's tree is collapsed from again, for the siblings without a toggled tag. The
+     * siblings are found by position, tracked along [CaptureNode.abbreviatedSharingSubtreesBy] walking the children of a node right
+     * after being told to abbreviate the node again.
+     */
+    private class ThreadAbbreviationCache(private val thread: ThreadNodes,
+                                          private val runs: Array<AbbreviatedRun?>,
+                                          root: CaptureNode,
+                                          toggledTags: Set<String>,
+                                          private val collapsedTags: Set<String>) : AbbreviationCache {
+        private class Siblings(val nodes: List<CaptureNode>, firstPosition: Int) {
+            val positions = IntArray(nodes.size + 1).also { it[0] = firstPosition }
+            var knownPositions = 1
+        }
+
+        private val toggledTagPositions = thread.positionsOf(toggledTags)
+
+        /**
+         * The children of the nodes being abbreviated again, the deepest last.
+         */
+        private val walkedSiblings = arrayListOf(Siblings(root.children, 1))
+
+        private fun positionOf(siblings: List<CaptureNode>, index: Int): Int {
+            while (walkedSiblings.last().nodes !== siblings) walkedSiblings.removeAt(walkedSiblings.size - 1)
+            return walkedSiblings.last().run {
+                while (knownPositions <= index) {
+                    positions[knownPositions] = thread.subtreeEnds[positions[knownPositions - 1]]
+                    knownPositions++
+                }
+                positions[index]
+            }
+        }
+
+        /**
+         * Whether any node in [from, to) carries a toggled tag.
+         */
+        private fun carriesToggledTag(from: Int, to: Int) = toggledTagPositions.any { positions ->
+            val i = positions.binarySearch(from).let { if (it < 0) -it - 1 else it }
+            i < positions.size && positions[i] < to
+        }
+
+        override fun find(siblings: List<CaptureNode>, index: Int, parentData: CaptureNodeModel?): AbbreviatedRun? {
+            val node = siblings[index]
+            val position = positionOf(siblings, index)
+            val run = runs[position]
+            val reused = when {
+                // Nodes without an abbreviation that are collapsed were merged into another node.
+                run == null ->
+                    if (node.data.tag in collapsedTags || carriesToggledTag(position, thread.subtreeEnds[position])) null
+                    else AbbreviatedRun(node, 1)
+                carriesToggledTag(position, positionOf(siblings, index + run.siblingCount)) -> null.also { runs[position] = null }
+                run.node.parent == null && run.node.data !== parentData -> null
+                else -> run
+            }
+            if (reused == null && node.childCount > 0) walkedSiblings.add(Siblings(node.children, position + 1))
+            return reused
+        }
+
+        override fun record(siblings: List<CaptureNode>, index: Int, run: AbbreviatedRun) {
+            runs[positionOf(siblings, index)] = run
+        }
+    }
+
+    private val unabbreviatedView: CollapsedView
+    private var currentView: CollapsedView
+
+    /**
+     * Recently used views with some tags collapsed, so switching back and forth between tag sets doesn't rebuild the trees.
+     */
+    private val collapsedViews = object : LinkedHashMap<Set<String>, CollapsedView>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Set<String>, CollapsedView>) = size > COLLAPSED_VIEW_CACHE_SIZE
+    }
+
+    /**
+     * The unabbreviated nodes of each thread, to tell which subtrees carry a tag. A subtree without any node carrying a tag toggled
+     * between two views looks the same in both of them.
+     */
+    private var threadNodesLazy = lazy { unabbreviatedTrees.mapValues { (root, children) -> ThreadNodes(root, children) } }
+    private val threadNodes: Map<CaptureNode, ThreadNodes>
+        get() = threadNodesLazy.value
+
+    /**
+     * Tag breakdowns of the unabbreviated trees, which are reported whatever tags are collapsed, see [TagBreakdown]. Threads the
+     * parser didn't provide one for are walked on first use.
+     */
+    private var threadTagBreakdownsLazy = lazy { computeThreadTagBreakdowns() }
+    private val threadTagBreakdowns: Map<Int, TagBreakdown>
+        get() = threadTagBreakdownsLazy.value
+    private var captureTagBreakdownLazy = lazy { TagBreakdown.merge(threadTagBreakdowns.values) }
+
+    /**
+     * Index over the current capture trees, built on first use and dropped whenever the trees change.
+     */
+    private var methodNameIndex: MethodNameIndex? = null
+
+    /**
+     * Call trees and interval indices built so far, dropped like [methodNameIndex] and also when the clock type changes. They share
+     * [modelTable], so model keys are comparable across them.
+     */
+    private val threadCallTrees = HashMap<Int, AggregatedCallTree>()
+    private var processCallTree: AggregatedCallTree? = null
+    private val threadBottomUpTrees = HashMap<Int, BottomUpCallTree>()
+    private var processBottomUpTree: BottomUpCallTree? = null
+    private val intervalIndices = HashMap<Int, CaptureNodeIntervalIndex>()
+    private val levelOfDetailIndices = HashMap<Int, LevelOfDetailIndex>()
+    private var methodStatistics: MethodStatistics? = null
+    private var methodIndex: MethodIndex? = null
+    private val threadGroups = HashMap<ThreadGrouping, List<ThreadGroupInfo>>()
+    private val groupCallTrees = HashMap<ThreadGroupInfo, AggregatedCallTree>()
+
     init {
         availableThreads = captureTrees.keys
         threadIdToNode = captureTrees.mapKeys { it.key.id }
@@ -68,6 +280,12 @@ open class BaseCpuCapture @JvmOverloads constructor(/**
         mainThreadId = (availableThreads.find { it.isMainThread } ?: captureTrees.maxByOrNull { it.value.duration }?.key)?.id ?: NO_THREAD_ID
         clockType = threadIdToNode[mainThreadId]?.clockType ?: ClockType.GLOBAL
         unabbreviatedTrees = threadIdToNode.values.associateWith { it.children.toList() }
+        unabbreviatedView = CollapsedView(unabbreviatedTrees, emptyList(), emptyMap(), clockType)
+        currentView = unabbreviatedView
+    }
+
+    private fun computeThreadTagBreakdowns() = threadIdToNode.mapValues { (threadId, root) ->
+        tagBreakdowns[threadId] ?: TagBreakdown.of(unabbreviatedTrees.getValue(root))
     }
 
     companion object {
@@ -75,6 +293,11 @@ open class BaseCpuCapture @JvmOverloads constructor(/**
          * A placeholder thread ID when main thread doesn't exist.
          */
         const val NO_THREAD_ID = -1
+
+        /**
+         * Number of views with collapsed tags kept around, besides the unabbreviated one.
+         */
+        private const val COLLAPSED_VIEW_CACHE_SIZE = 8
     }
 
     /**
@@ -97,38 +320,261 @@ open class BaseCpuCapture @JvmOverloads constructor(/**
         // Avoid traversing the capture trees if there is no change.
         if (this.clockType != clockType) {
             this.clockType = clockType
-            for (tree in captureNodes) {
-                tree.descendantsStream.forEach { it.clockType = clockType }
+            captureNodes.forEach { it.clockType = clockType }
+            currentView.updateClockType(clockType)
+            // The hidden views share nodes with the current one, so their clock type isn't known anymore. Neither is the one of the
+            // clones which are only kept for reuse.
+            collapsedViews.values.forEach { view ->
+                if (view !== currentView) view.clockType = null
+                view.abbreviatedRuns = null
             }
+            if (unabbreviatedView !== currentView) unabbreviatedView.clockType = null
+            synchronized(this) { dropCallTrees() }
         }
     }
 
+    @Synchronized
+    override fun getMethodNameIndex() = methodNameIndex ?: MethodNameIndex(captureNodes).also { methodNameIndex = it }
+
+    /**
+     * Filters through [getMethodNameIndex], so the filter is evaluated once per distinct name and the trees are marked with a
+     * linear pass over their flattened nodes. Refinements of the last filter are evaluated against the names it matched, see
+     * [MethodNameIndex.applyFilter].
+     */
+    override fun applyFilter(filter: Filter) = getMethodNameIndex().applyFilter(filter)
+
+    @Synchronized
+    override fun getAggregatedCallTree(threadId: Int) = threadIdToNode[threadId]?.let { root ->
+        threadCallTrees.getOrPut(threadId) { AggregatedCallTree.forThread(root, modelTable) }
+    }
+
+    @Synchronized
+    override fun getAggregatedCallTree() =
+        processCallTree ?: AggregatedCallTree.forThreads(captureNodes, modelTable).also { processCallTree = it }
+
+    /**
+     * Groups are cached per grouping, so the same [ThreadGroupInfo]s come back and their call trees are cached too.
+     */
+    @Synchronized
+    override fun getThreadGroups(grouping: ThreadGrouping) = threadGroups.getOrPut(grouping) { grouping.group(availableThreads) }
+
+    override fun getAggregatedCallTrees(groups: List<ThreadGroupInfo>): Map<ThreadGroupInfo, AggregatedCallTree> {
+        val cached = synchronized(this) { groups.filter(groupCallTrees::containsKey).associateWith(groupCallTrees::getValue) }
+        val built = groups.filterNot(cached::containsKey).parallelStream().collect(Collectors.toMap(Function.identity()) { group ->
+            AggregatedCallTree(group.threads.mapNotNull { threadIdToNode[it.id] }, SingleNameModel(group.name), modelTable)
+        })
+        synchronized(this) { groupCallTrees.putAll(built) }
+        return cached + built
+    }
+
+    @Synchronized
+    override fun getBottomUpCallTree(threadId: Int) = threadIdToNode[threadId]?.let { root ->
+        threadBottomUpTrees.getOrPut(threadId) { BottomUpCallTree.forThread(root, modelTable) }
+    }
+
+    @Synchronized
+    override fun getBottomUpCallTree() =
+        processBottomUpTree ?: BottomUpCallTree.forThreads(captureNodes, modelTable).also { processBottomUpTree = it }
+
+    @Synchronized
+    override fun getIntervalIndex(threadId: Int) =
+        threadIdToNode[threadId]?.let { root -> intervalIndices.getOrPut(threadId) { CaptureNodeIntervalIndex(root) } }
+
+    @Synchronized
+    override fun getLevelOfDetailIndex(threadId: Int) =
+        getIntervalIndex(threadId)?.let { index -> levelOfDetailIndices.getOrPut(threadId) { LevelOfDetailIndex(index) } }
+
+    override fun getAggregatedCallTree(threadId: Int, range: Range) = getIntervalIndex(threadId)?.let { index ->
+        AggregatedCallTree.forRange(listOf(index), range.min.toLong(), range.max.toLong(), index.root.data, modelTable)
+    }
+
+    override fun getAggregatedCallTree(range: Range) =
+        AggregatedCallTree.forRange(threadIdToNode.keys.map { getIntervalIndex(it)!! }, range.min.toLong(), range.max.toLong(),
+                                    modelTable = modelTable)
+
+    @Synchronized
+    override fun getMethodStatistics() =
+        methodStatistics ?: MethodStatistics(captureNodes, modelTable).also { methodStatistics = it }
+
+    @Synchronized
+    override fun getMethodIndex() = methodIndex ?: MethodIndex(captureNodes, modelTable).also { methodIndex = it }
+
+    private fun dropCallTrees() {
+        threadCallTrees.clear()
+        processCallTree = null
+        threadBottomUpTrees.clear()
+        processBottomUpTree = null
+        intervalIndices.clear()
+        levelOfDetailIndices.clear()
+        methodStatistics = null
+        methodIndex = null
+        groupCallTrees.clear()
+    }
+
     override fun isDualClock() = dualClock
     override fun getDualClockDisabledMessage() = dualClockMessage
     override fun getType() = type
 
     override fun collapseNodesWithTags(tagsToCollapse: Set<String>) {
         if (tagsToCollapse != tagsCollapsed) {
-            fun collapse(node: CaptureNode) = when (node.data.tag) {
-                !in tagsToCollapse -> null
-                else -> when (node.data) {
-                    is JavaMethodModel -> OpaqueJavaMethodModel
-                    is SyscallModel -> OpaqueSyscallModel
-                    else -> OpaqueNativeNodeModel
-                }
+            // Shared subtrees go back to their unabbreviated parents first, building a new view relies on it.
+            currentView.hide()
+            val view = when {
+                tagsToCollapse.isEmpty() -> unabbreviatedView
+                else -> collapsedViews.getOrPut(tagsToCollapse) { buildCollapsedView(tagsToCollapse) }
             }
-            fun isOpaqueModel(data: CaptureNodeModel) =
-                data === OpaqueJavaMethodModel || data === OpaqueSyscallModel || data === OpaqueNativeNodeModel
-            fun hideFromPaths(children: List<CaptureNode>) = children.map { it.abbreviatedBy(::collapse, ::isOpaqueModel) }
-
-            unabbreviatedTrees.forEach { (root, unabbreviartedChildren) ->
+            view.trees.forEach { (root, children) ->
                 root.clearChildren()
-                root.addChildren(if (tagsToCollapse.isEmpty()) unabbreviartedChildren else hideFromPaths(unabbreviartedChildren))
+                root.addChildren(children)
             }
+            view.show()
+            // Nodes of a cached view keep the clock type they had when the view was last shown.
+            if (view.clockType != clockType) view.updateClockType(clockType)
+            currentView = view
             tagsCollapsed = tagsToCollapse
+            synchronized(this) {
+                methodNameIndex = null
+                dropCallTrees()
+            }
         }
     }
 
+    /**
+     * Builds the trees with the given tags collapsed from the hidden current view. Only the nodes on the way to a tag toggled since the
+     * current view are abbreviated again. The abbreviations of the other nodes are taken from the current view as they are, whether
+     * they're collapsed or not. Expanding a tag most nodes carry rather rebuilds the view from the unabbreviated trees.
+     */
+    private fun buildCollapsedView(tagsToCollapse: Set<String>): CollapsedView {
+        fun collapse(node: CaptureNode) = when (node.data.tag) {
+            !in tagsToCollapse -> null
+            else -> when {
+                node in unabbreviatedTrees -> null
+                node.data is JavaMethodModel -> OpaqueJavaMethodModel
+                node.data is SyscallModel -> OpaqueSyscallModel
+                else -> OpaqueNativeNodeModel
+            }
+        }
+        fun isOpaqueModel(data: CaptureNodeModel) =
+            data === OpaqueJavaMethodModel || data === OpaqueSyscallModel || data === OpaqueNativeNodeModel
+
+        fun taggedNodeCount(tags: Set<String>) = threadNodes.values.sumOf { thread -> thread.positionsOf(tags).sumOf { it.size } }
+        // Builds from whichever of the current and the unabbreviated view has fewer nodes carrying a toggled tag. Clones from before a
+        // clock change aren't reused though.
+        val tagsToggledFromCurrent = (tagsToCollapse - tagsCollapsed) + (tagsCollapsed - tagsToCollapse)
+        val (baseView, toggledTags) =
+            if (currentView.abbreviatedRuns != null && taggedNodeCount(tagsToggledFromCurrent) < taggedNodeCount(tagsToCollapse))
+                currentView to tagsToggledFromCurrent
+            else unabbreviatedView to tagsToCollapse
+
+        val sharedNodes = ArrayList<SharedNode>()
+        // Nodes shared with another tree point into it, and so may their descendants if they're clones of another view.
+        fun collectSharedNodes(clone: CaptureNode): Unit = clone.children.forEach { child ->
+            if (child.parent !== clone) sharedNodes.add(SharedNode(child, clone, child.parent!!))
+            if (child.isClone) collectSharedNodes(child)
+        }
+        val abbreviatedRuns = HashMap<CaptureNode, Array<AbbreviatedRun?>>()
+        val trees = unabbreviatedTrees.mapValues { (root, unabbreviatedChildren) ->
+            // The roots are abbreviated like any other node, from their unabbreviated children.
+            root.clearChildren()
+            root.addChildren(unabbreviatedChildren)
+            val thread = threadNodes.getValue(root)
+            val runs = baseView.abbreviatedRuns?.get(root)?.copyOf() ?: arrayOfNulls(thread.size)
+            abbreviatedRuns[root] = runs
+            val cache = ThreadAbbreviationCache(thread, runs, root, toggledTags, tagsToCollapse)
+            val abbreviatedRoot = root.abbreviatedSharingSubtreesBy(::collapse, ::isOpaqueModel, cache)
+            // The top-level nodes are attached to the root whenever the view is shown.
+            abbreviatedRoot.children.forEach { if (it.isClone) collectSharedNodes(it) }
+            abbreviatedRoot.children.toList()
+        }
+        return CollapsedView(trees, sharedNodes, abbreviatedRuns, clockType).also { view ->
+            // Clones take the clock type of the unabbreviated nodes, which is stale if the clock changed while they were hidden.
+            if (unabbreviatedView.clockType != clockType) view.updateClockType(clockType)
+        }
+    }
+
+    /**
+     * Replaces the models of the unabbreviated trees, shown while they're replaced. The thread roots are kept, and so are the nodes,
+     * so the topology and timings of the trees don't change. Everything derived from the models is dropped or rebuilt: the collapsed
+     * views, tags, tag breakdowns, instruction histograms, indices and call trees. The collapsed tags that still exist are collapsed
+     * again afterwards.
+     */
+    override fun replaceModels(replacement: ModelReplacement): Int {
+        val previouslyCollapsed = tagsCollapsed
+        collapseNodesWithTags(emptySet())
+
+        // The replacement is prepared with one model per key. It's then queried for each node, as the replacement of a model can depend
+        // on its call site, e.g. the address of a function without symbol.
+        val seenKeys = BitSet()
+        val distinctModels = ArrayList<CaptureNodeModel>()
+        forEachUnabbreviatedNode { node ->
+            val key = modelTable.keyOf(node.data)
+            if (!seenKeys.get(key)) {
+                seenKeys.set(key)
+                distinctModels.add(node.data)
+            }
+        }
+        replacement.prepare(distinctModels)
+
+        // The histograms follow the first replacement of their function. Every model has a key by now, so the functions are matched by
+        // key, and only the ids of the few functions with a histogram are built.
+        val histogramKeys = BitSet()
+        instructionHistograms.functionIds.forEach { id -> modelTable.findKey(id).let { if (it >= 0) histogramKeys.set(it) } }
+        val newIds = HashMap<String, String>()
+        val usedTags = LinkedHashSet<String>()
+        var replacedCount = 0
+        forEachUnabbreviatedNode { node ->
+            val model = node.data
+            val newModel = replacement.replace(model) ?: model
+            if (newModel !== model) {
+                if (!histogramKeys.isEmpty) {
+                    val key = modelTable.keyOf(model)
+                    if (histogramKeys.get(key)) {
+                        histogramKeys.clear(key)
+                        newIds[model.id] = newModel.id
+                    }
+                }
+                node.data = newModel
+                replacedCount++
+            }
+            newModel.tag?.let(usedTags::add)
+        }
+        if (replacedCount > 0) {
+            // Known tags keep their order, new ones come last.
+            tags = LinkedHashSet<String>().apply {
+                tags.filterTo(this, usedTags::contains)
+                addAll(usedTags)
+            }
+            collapsedViews.clear()
+            tagBreakdowns = mapOf()
+            threadNodesLazy = lazy { unabbreviatedTrees.mapValues { (root, children) -> ThreadNodes(root, children) } }
+            threadTagBreakdownsLazy = lazy { computeThreadTagBreakdowns() }
+            captureTagBreakdownLazy = lazy { TagBreakdown.merge(threadTagBreakdowns.values) }
+            instructionHistograms = instructionHistograms.renamed(newIds)
+            captureNodes.forEach { it.forgetFilters() }
+            synchronized(this) {
+                methodNameIndex = null
+                dropCallTrees()
+            }
+        }
+        collapseNodesWithTags(previouslyCollapsed.filterTo(HashSet(), tags::contains))
+        return replacedCount
+    }
+
+    private fun forEachUnabbreviatedNode(action: (CaptureNode) -> Unit) {
+        fun visit(node: CaptureNode) {
+            action(node)
+            node.children.forEach(::visit)
+        }
+        unabbreviatedTrees.values.forEach { subtrees -> subtrees.forEach(::visit) }
+    }
+
+    override fun getTagBreakdown(threadId: Int) = threadTagBreakdowns[threadId]
+    override fun getTagBreakdown() = captureTagBreakdownLazy.value
+
+    override fun getInstructionHistograms() = instructionHistograms
+
+    override fun getModelTable() = modelTable
+
     override fun getTags() = tags
     override fun getCollapsedTags() = tagsCollapsed
 
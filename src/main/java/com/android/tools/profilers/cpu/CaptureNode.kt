@@ -24,14 +24,21 @@ import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
 import com.google.common.annotations.VisibleForTesting
 import java.util.PriorityQueue
 import java.util.function.Predicate
+import java.util.stream.Collectors
 import java.util.stream.Stream
-import kotlin.reflect.KMutableProperty1
 
-open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : HNode<CaptureNode> {
+open class CaptureNode(data: CaptureNodeModel, var clockType: ClockType) : HNode<CaptureNode> {
 
     @VisibleForTesting
     constructor(data: CaptureNodeModel) : this(data, ClockType.GLOBAL) {}
 
+    /**
+     * The model of the method or function this node is a call of. Only replaced by its capture when it's re-symbolized, see
+     * [BaseCpuCapture.replaceModels], which also calls [forgetFilters] since the last filter results may not hold anymore.
+     */
+    var data: CaptureNodeModel = data
+        internal set
+
     /**
      * Start time with GLOBAL clock.
      */
@@ -51,6 +58,17 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
      * End time with THREAD clock.
      */
     var endThread = 0L
+
+    /**
+     * Number of samples whose call chain ended at this node, i.e. the samples attributed to its self time.
+     */
+    var selfSampleCount = 0L
+
+    /**
+     * Number of samples whose call chain contains this node.
+     */
+    var sampleCount = 0L
+
     @JvmField
     protected val childrenList = mutableListOf<CaptureNode>()
 
@@ -64,6 +82,13 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
      */
     var filterType = FilterType.MATCH
 
+    /**
+     * The last filter applied to this node and its result. A refinement of that filter only needs to revisit the nodes it didn't
+     * mark as [FilterType.UNMATCH]. Reset whenever the children of this node change or a descendant is filtered on its own.
+     */
+    private var lastFilter: Filter? = null
+    private var lastFilterResult: FilterResult? = null
+
     /**
      * The shortest distance from the root.
      */
@@ -90,10 +115,20 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
     open fun addChild(node: CaptureNode) {
         childrenList.add(node)
         node.parent = this
+        forgetAncestorFilters()
     }
 
     fun addChildren(nodes: Collection<CaptureNode>) = nodes.forEach(::addChild)
-    fun clearChildren() = childrenList.clear()
+    fun clearChildren() {
+        childrenList.clear()
+        forgetAncestorFilters()
+    }
+
+    /**
+     * Forgets the last filter applied to this node and its ancestors, whose results don't hold anymore once this subtree changed or
+     * was filtered on its own.
+     */
+    private fun forgetAncestorFilters() = generateSequence(this) { it.parent }.forEach { it.lastFilter = null }
 
     override fun getChildCount() = childrenList.size
     override fun getChildAt(index: Int) = childrenList[index]
@@ -127,6 +162,12 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
      */
     fun threadGlobalRatio(): Double = (endThread - startThread).toDouble() / (endGlobal - startGlobal)
 
+    /**
+     * Time spent in this node but not in any of its children, measured with the current [clockType].
+     */
+    val selfDuration: Long
+        get() = duration - childrenList.sumOf { it.duration }
+
     fun setDepth(depth: Int) {
         this.depth = depth
     }
@@ -139,14 +180,21 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
      * @param comparator to compare nodes by
      * @return up to top k nodes from all descendants, in descending order
      */
-    fun getTopKNodes(k: Int, filter: Predicate<CaptureNode>, comparator: Comparator<CaptureNode>): List<CaptureNode> {
-        // Put all matched nodes in a priority queue capped at size n, so the queue always contain the n longest running ones.
+    fun getTopKNodes(k: Int, filter: Predicate<CaptureNode>, comparator: Comparator<CaptureNode>): List<CaptureNode> =
+        collectTopKNodes(k, filter, comparator).sortedWith(comparator.reversed())
+
+    /**
+     * Collects the top k nodes of this subtree into a min-heap ordered by the given comparator, so its head is always the
+     * weakest candidate and most nodes are rejected with a single comparison.
+     */
+    private fun collectTopKNodes(k: Int, filter: Predicate<CaptureNode>, comparator: Comparator<CaptureNode>): PriorityQueue<CaptureNode> {
         val candidates = PriorityQueue(k + 1, comparator)
-        descendantsStream.filter(filter).forEach { node ->
-            candidates.offer(node)
-            if (candidates.size > k) candidates.poll()
+        fun visit(node: CaptureNode) {
+            if (filter.test(node)) candidates.offerBounded(node, k, comparator)
+            node.childrenList.forEach(::visit)
         }
-        return candidates.sortedWith(comparator.reversed())
+        if (k > 0) visit(this)
+        return candidates
     }
 
     /**
@@ -155,20 +203,63 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
      * @param filter filter to apply. An empty matches all nodes.
      * @return filter result, e.g. number of matches.
      */
-    fun applyFilter(filter: Filter) = computeFilter(filter).also { aspectModelPlaceHolder?.changed(Aspect.FILTER_APPLIED) }
+    fun applyFilter(filter: Filter) = applyFilter(ModelFilterMatcher(filter))
+
+    /**
+     * Apply a filter to this node and its children, reusing the matches already known by the given [matcher].
+     */
+    fun applyFilter(matcher: ModelFilterMatcher) = computeFilter(matcher).also { fireFilterApplied() }
+
+    internal fun fireFilterApplied() {
+        aspectModelPlaceHolder?.changed(Aspect.FILTER_APPLIED)
+    }
+
+    /**
+     * Records a filter applied to this whole subtree without going through [applyFilter], e.g. by a [MethodNameIndex], so that
+     * later refinements of it can still be computed incrementally.
+     */
+    internal fun onFilterApplied(filter: Filter, result: FilterResult) {
+        forgetAncestorFilters()
+        lastFilter = filter
+        lastFilterResult = result
+    }
+
+    /**
+     * Forgets the last filters applied to this subtree, so the next filter is computed from scratch rather than as a refinement.
+     */
+    internal fun forgetFilters() {
+        forgetLastFilter()
+        childrenList.forEach { it.forgetFilters() }
+    }
+
+    /**
+     * Forgets the last filter applied to this node, e.g. once a filter of an ancestor visited it.
+     */
+    internal fun forgetLastFilter() {
+        lastFilter = null
+        lastFilterResult = null
+    }
 
     /**
      * Recursively applies filter to this node and its children.
+     *
+     * If the filter is a refinement of the last one applied to this node (see [Filter.isRefinementOf]), nodes previously marked as
+     * [FilterType.UNMATCH] can't match anymore and their subtrees are skipped, so the cost is proportional to the previous matches.
+     * Every node visited forgets the last filter applied to it on its own, which its new filter type doesn't follow anymore. The
+     * skipped subtrees were visited by the last filter of this node, or an earlier one, so they have nothing to forget.
      */
-    private fun computeFilter(filter: Filter): FilterResult {
+    private fun computeFilter(matcher: ModelFilterMatcher): FilterResult {
+        val filter = matcher.filter
+        val previousResult = lastFilterResult.takeIf { lastFilter?.let(filter::isRefinementOf) == true }
         var totalCount = 0
         var matchCount = 0
         fun CaptureNode.updateFilter(ancestorMatches: Boolean) {
-            val nodeExactMatch = filter.matches(data.fullName)
+            forgetLastFilter()
+            val nodeExactMatch = matcher.matches(data)
             val matches = ancestorMatches || nodeExactMatch
             if (nodeExactMatch) matchCount++
             totalCount++
-            children.forEach { it.updateFilter(matches) }
+            children.forEach { if (previousResult == null || !it.isUnmatched) it.updateFilter(matches) }
             filterType = when {
                 !matches && children.all { it.isUnmatched } -> FilterType.UNMATCH
                 nodeExactMatch && !filter.isEmpty -> FilterType.EXACT_MATCH
@@ -176,12 +267,7 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
             }
         }
         updateFilter(false)
-        return FilterResult(matchCount, totalCount, !filter.isEmpty)
-    }
-
-    private fun resetDepth(n: Int) {
-        depth = n
-        children.forEach { it.resetDepth(n + 1) }
+        return FilterResult(matchCount, previousResult?.totalCount ?: totalCount, !filter.isEmpty).also { onFilterApplied(filter, it) }
     }
 
     /**
@@ -189,24 +275,165 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
      * In the returned abbreviated tree:
      *   - no abbreviated parent has any abbreviated child of the same kind
      *   - no consecutive siblings are both abbreviated of the same kind
+     *
+     * Every node of the returned tree is new, with its parent in that tree, so it can be used on its own.
+     */
+    fun abbreviatedBy(abbreviate: (CaptureNode) -> CaptureNodeModel?, isAbbreviation: (CaptureNodeModel) -> Boolean): CaptureNode {
+        val abbreviated = abbreviatedSharingSubtreesBy(abbreviate, isAbbreviation)
+        if (abbreviated === this) {
+            return deepCopy(depth)
+        }
+        abbreviated.copySharedChildren()
+        return abbreviated
+    }
+
+    /**
+     * Like [abbreviatedBy], but only the nodes on the way to an abbreviation are cloned. Subtrees without anything to abbreviate are
+     * shared by reference with this tree, unless merging abbreviated nodes moved them to another depth. If nothing is abbreviated at
+     * all, this node itself is returned.
+     *
+     * The [getParent] of a shared subtree keeps pointing into this tree, and its [filterType] and [clockType] are shared by both
+     * trees, so the caller has to keep track of which tree is shown, like [BaseCpuCapture] does.
+     *
+     * @param cache the abbreviations of an earlier call to reuse, which are then shared by both results, see [AbbreviationCache].
      */
-    fun abbreviatedBy(abbreviate: (CaptureNode) -> CaptureNodeModel?, isAbbreviation: (CaptureNodeModel) -> Boolean) =
-        fold({it.clonedWithData(abbreviate(it) ?: it.data)}) { clone, abbreviatedChild ->
-            clone.also {
-                when {
-                    // Parent and child are both abbreviated -> merge child's children with parent's
-                    isAbbreviation(clone.data) && abbreviatedChild.data === clone.data -> clone.addChildren(abbreviatedChild.children)
-                    // Consecutive children are abbreviated -> merge em
-                    isAbbreviation(abbreviatedChild.data) && clone.children.lastOrNull()?.data === abbreviatedChild.data ->
-                        clone.children.last().let { mergedChild ->
-                            mergedChild.addChildren(abbreviatedChild.children)
-                            mergedChild.copyFrom(abbreviatedChild, CaptureNode::endGlobal, CaptureNode::endThread)
+    internal fun abbreviatedSharingSubtreesBy(abbreviate: (CaptureNode) -> CaptureNodeModel?,
+                                              isAbbreviation: (CaptureNodeModel) -> Boolean,
+                                              cache: AbbreviationCache? = null): CaptureNode {
+        // Returns the node itself when its subtree is unchanged, otherwise a clone whose children are not attached to it yet.
+        fun rewrite(node: CaptureNode): CaptureNode {
+            val children = node.childrenList
+            var clone = abbreviate(node)?.let(node::clonedWithData)
+            // The last child of the clone, abbreviating the children from runStart on. It's recorded in the cache once nothing can be
+            // merged into it anymore.
+            var run: CaptureNode? = null
+            var runStart = 0
+            var runCount = 0
+            // The last child of the clone is only changed in place if this call created it, since the cache may hand it out again.
+            var lastIsNew = false
+            fun recordRun() {
+                run?.let { if (it !== children[runStart]) cache?.record(children, runStart, AbbreviatedRun(it, runCount)) }
+                run = null
+            }
+            var i = 0
+            while (i < children.size) {
+                val reused = cache?.find(children, i, clone?.data)
+                val count = reused?.siblingCount ?: 1
+                val abbreviatedChild = reused?.node ?: rewrite(children[i])
+                if (clone == null && abbreviatedChild !== children[i]) {
+                    // Unchanged children so far can't be merged with anything, they're just kept.
+                    clone = node.clonedWithData(node.data).also { it.childrenList.addAll(children.subList(0, i)) }
+                }
+                clone?.let {
+                    val lastIsRun = run != null && it.childrenList.last() === run
+                    when (it.appendAbbreviatedChild(abbreviatedChild, isAbbreviation, cache == null || lastIsNew)) {
+                        Appended.CHILD -> {
+                            recordRun()
+                            run = abbreviatedChild
+                            runStart = i
+                            runCount = count
+                            lastIsNew = reused == null && abbreviatedChild !== children[i]
+                        }
+                        Appended.MERGED_WITH_PARENT -> {
+                            recordRun()
+                            cache?.record(children, i, AbbreviatedRun(abbreviatedChild, count))
+                            lastIsNew = false
                         }
-                    // Nothing to merge, just add it
-                    else -> clone.addChild(abbreviatedChild)
+                        Appended.MERGED_WITH_LAST -> {
+                            if (lastIsRun) {
+                                run = it.childrenList.last()
+                                runCount += count
+                            }
+                            lastIsNew = true
+                        }
+                    }
+                }
+                i += count
+            }
+            if (clone != null) recordRun()
+            return clone ?: node
+        }
+        return rewrite(this).also { if (it !== this) it.attachClonedChildren(depth) }
+    }
+
+    private enum class Appended { CHILD, MERGED_WITH_PARENT, MERGED_WITH_LAST }
+
+    /**
+     * @param mergeInPlace whether the last child can be changed by a merge, otherwise it's replaced by a merged copy.
+     */
+    private fun appendAbbreviatedChild(abbreviatedChild: CaptureNode, isAbbreviation: (CaptureNodeModel) -> Boolean,
+                                       mergeInPlace: Boolean) = when {
+        // Parent and child are both abbreviated -> merge child's children with parent's
+        isAbbreviation(data) && abbreviatedChild.data === data -> {
+            childrenList.addAll(abbreviatedChild.childrenList)
+            selfSampleCount += abbreviatedChild.selfSampleCount
+            Appended.MERGED_WITH_PARENT
+        }
+        // Consecutive children are abbreviated -> merge em
+        isAbbreviation(abbreviatedChild.data) && childrenList.lastOrNull()?.data === abbreviatedChild.data -> {
+            val last = childrenList.last()
+            val mergedChild = if (mergeInPlace) last else last.clonedWithData(last.data).also { copy ->
+                copy.childrenList.addAll(last.childrenList)
+                childrenList[childrenList.size - 1] = copy
+            }
+            mergedChild.childrenList.addAll(abbreviatedChild.childrenList)
+            mergedChild.endGlobal = abbreviatedChild.endGlobal
+            mergedChild.endThread = abbreviatedChild.endThread
+            mergedChild.sampleCount += abbreviatedChild.sampleCount
+            mergedChild.selfSampleCount += abbreviatedChild.selfSampleCount
+            Appended.MERGED_WITH_LAST
+        }
+        // Nothing to merge, just add it
+        else -> {
+            childrenList.add(abbreviatedChild)
+            Appended.CHILD
+        }
+    }
+
+    /**
+     * Sets the parent and depth of the clones below this clone. Clones are the only nodes without a parent yet. Shared subtrees at
+     * their original depth are left untouched, the ones moved to another depth by a merge are copied.
+     */
+    private fun attachClonedChildren(depth: Int) {
+        this.depth = depth
+        childrenList.forEachIndexed { i, child ->
+            when {
+                child.parent == null -> {
+                    child.parent = this
+                    child.attachClonedChildren(depth + 1)
                 }
+                child.depth != depth + 1 -> childrenList[i] = child.deepCopy(depth + 1).also { it.parent = this }
             }
-        }.also { it.resetDepth(depth) }
+        }
+    }
+
+    /**
+     * Replaces the subtrees this clone shares with its source tree by copies.
+     */
+    private fun copySharedChildren() {
+        childrenList.forEachIndexed { i, child ->
+            if (child.parent === this) child.copySharedChildren() else childrenList[i] = child.deepCopy(depth + 1).also { it.parent = this }
+        }
+    }
+
+    private fun deepCopy(depth: Int): CaptureNode = clonedWithData(data).also { copy ->
+        copy.depth = depth
+        childrenList.forEach { child -> copy.childrenList.add(child.deepCopy(depth + 1).also { it.parent = copy }) }
+    }
+
+    /**
+     * Whether this node was created by abbreviating a tree, rather than being part of the tree it was abbreviated from.
+     */
+    internal val isClone: Boolean
+        get() = this is Clone
+
+    /**
+     * Attaches a node shared between several trees (see [abbreviatedSharingSubtreesBy]) to its parent in the tree about to be shown.
+     * Unlike [addChild], the new parent's children are left as they are.
+     */
+    internal fun attachSharedSubtree(parent: CaptureNode) {
+        this.parent = parent
+    }
 
     fun abbreviatedBy(shouldAbbreviate: (CaptureNode) -> Boolean, abbreviation: CaptureNodeModel) =
         abbreviatedBy({ node -> abbreviation.takeIf { shouldAbbreviate(node) } }, { it === abbreviation })
@@ -226,10 +453,84 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
     /**
      * Return a copy of this node (same start, end, etc.) with custom data and empty children list
      */
-    private fun clonedWithData(data: CaptureNodeModel) = CaptureNode(data, clockType).also { clone ->
-        clone.copyFrom(this,
-            CaptureNode::startGlobal, CaptureNode::endGlobal,
-            CaptureNode::startThread, CaptureNode::endThread)
+    private fun clonedWithData(data: CaptureNodeModel): CaptureNode = Clone(data, clockType).also { clone ->
+        clone.startGlobal = startGlobal
+        clone.endGlobal = endGlobal
+        clone.startThread = startThread
+        clone.endThread = endThread
+        clone.sampleCount = sampleCount
+        clone.selfSampleCount = selfSampleCount
+    }
+
+    companion object {
+        /**
+         * Orders nodes by their duration with the current [clockType].
+         */
+        @JvmField
+        val DURATION_COMPARATOR: Comparator<CaptureNode> = Comparator.comparingLong { it.duration }
+
+        /**
+         * Orders nodes by their self time with the current [clockType], see [selfDuration].
+         */
+        @JvmField
+        val SELF_DURATION_COMPARATOR: Comparator<CaptureNode> = Comparator.comparingLong { it.selfDuration }
+
+        /**
+         * Orders nodes by the number of samples whose call chain contains them, see [sampleCount].
+         */
+        @JvmField
+        val SAMPLE_COUNT_COMPARATOR: Comparator<CaptureNode> = Comparator.comparingLong { it.sampleCount }
+
+        /**
+         * Finds the top k nodes among all the given trees, e.g. the thread trees of a capture.
+         *
+         * Each subtree directly below a root gets its own partial heap, computed in parallel, and the partial heaps are merged
+         * afterwards. Splitting below the roots keeps the work balanced when a single thread owns most of the nodes.
+         *
+         * @return up to top k nodes from all the trees, in descending order
+         */
+        @JvmStatic
+        fun getTopKNodes(roots: Collection<CaptureNode>, k: Int, filter: Predicate<CaptureNode>,
+                         comparator: Comparator<CaptureNode>): List<CaptureNode> {
+            if (k <= 0) return emptyList()
+            val partialResults = roots.parallelStream()
+                .flatMap { it.childrenList.stream() }
+                .map { it.collectTopKNodes(k, filter, comparator) }
+                .collect(Collectors.toList())
+            val candidates = PriorityQueue(k + 1, comparator)
+            // Roots are not part of any subtree above, so they're checked here.
+            roots.filter(filter::test).forEach { candidates.offerBounded(it, k, comparator) }
+            partialResults.forEach { partial -> partial.forEach { candidates.offerBounded(it, k, comparator) } }
+            return candidates.sortedWith(comparator.reversed())
+        }
+
+        /**
+         * Applies a filter to all the given trees, e.g. the thread trees of a capture.
+         *
+         * The trees are filtered in parallel and share a single [ModelFilterMatcher], so each distinct name is matched once across
+         * all of them. [Aspect.FILTER_APPLIED] is fired on the calling thread once every tree is filtered.
+         *
+         * @return the combined filter result of all trees
+         */
+        @JvmStatic
+        fun applyFilter(roots: Collection<CaptureNode>, filter: Filter): FilterResult {
+            val matcher = ModelFilterMatcher(filter)
+            val results = roots.parallelStream().map { it.computeFilter(matcher) }.collect(Collectors.toList())
+            roots.forEach { it.fireFilterApplied() }
+            return results.fold(FilterResult(0, 0, !filter.isEmpty), FilterResult::combine)
+        }
+
+        /**
+         * Adds the node to a min-heap capped at size k, replacing the head if the node compares greater than it.
+         */
+        private fun PriorityQueue<CaptureNode>.offerBounded(node: CaptureNode, k: Int, comparator: Comparator<CaptureNode>) {
+            if (size < k) {
+                offer(node)
+            } else if (comparator.compare(node, peek()) > 0) {
+                poll()
+                offer(node)
+            }
+        }
     }
 
     enum class FilterType {
@@ -255,9 +556,34 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
          */
         FILTER_APPLIED
     }
+
+    /**
+     * A node created by [abbreviatedBy] or [abbreviatedSharingSubtreesBy], see [isClone].
+     */
+    private class Clone(data: CaptureNodeModel, clockType: ClockType) : CaptureNode(data, clockType)
 }
 
-private fun<T> T.copyFrom(that: T, vararg properties: KMutableProperty1<T, *>) {
-    fun<P> T.copy(property: KMutableProperty1<T, P>) = property.set(this, property.get(that))
-    properties.forEach { copy(it) }
+/**
+ * Abbreviations computed by an earlier [CaptureNode.abbreviatedSharingSubtreesBy], handed out again to a later one so the subtrees
+ * whose abbreviation can't have changed aren't walked again. Both results then share the reused nodes, like they share the subtrees
+ * of the source tree.
+ */
+internal interface AbbreviationCache {
+    /**
+     * @param parentData the data of the abbreviation of the siblings' parent, if it was already cloned. Nodes which were merged into
+     * their parent have their children attached one level up, so they can only be merged into a parent with the same data again.
+     * @return the abbreviation of the siblings starting at the given index, or null to abbreviate that sibling again. The returned node
+     * is the sibling itself if it has nothing to abbreviate.
+     */
+    fun find(siblings: List<CaptureNode>, index: Int, parentData: CaptureNodeModel?): AbbreviatedRun?
+
+    /**
+     * Records the abbreviation of the siblings starting at the given index. It's never changed afterwards.
+     */
+    fun record(siblings: List<CaptureNode>, index: Int, run: AbbreviatedRun)
 }
+
+/**
+ * The node consecutive siblings are abbreviated into. Siblings abbreviated the same way are merged into one node.
+ */
+internal class AbbreviatedRun(val node: CaptureNode, val siblingCount: Int)
@@ -18,14 +18,33 @@ package com.android.tools.profilers.cpu;
 import com.android.tools.adtui.model.ConfigurableDurationData;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.Timeline;
+import com.android.tools.adtui.model.filter.Filter;
+import com.android.tools.adtui.model.filter.FilterResult;
 import com.android.tools.perflib.vmtrace.ClockType;
 import com.android.tools.profiler.proto.Cpu;
+import com.android.tools.profilers.cpu.capturedetails.AggregatedCallTree;
+import com.android.tools.profilers.cpu.capturedetails.BottomUpCallTree;
+import com.android.tools.profilers.cpu.capturedetails.CaptureNodeIntervalIndex;
+import com.android.tools.profilers.cpu.capturedetails.LevelOfDetailIndex;
+import com.android.tools.profilers.cpu.capturedetails.MethodIndex;
+import com.android.tools.profilers.cpu.capturedetails.MethodStatistics;
+import com.android.tools.profilers.cpu.capturedetails.ModelTable;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import com.android.tools.profilers.cpu.systemtrace.CpuSystemTraceData;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * This interface represents a CPU trace/capture and all the data accessible from it.
@@ -107,6 +126,219 @@ public interface CpuCapture extends ConfigurableDurationData {
     @NotNull
     Collection<CaptureNode> getCaptureNodes();
 
+    /**
+     * Iterates through all nodes of all threads in this capture, applies a filter and then finds the top k nodes by the given comparator.
+     * See {@link CaptureNode#DURATION_COMPARATOR}, {@link CaptureNode#SELF_DURATION_COMPARATOR} and
+     * {@link CaptureNode#SAMPLE_COUNT_COMPARATOR} for the common orderings.
+     *
+     * @return up to top k nodes from all threads, in descending order
+     */
+    @NotNull
+    default List<CaptureNode> getTopKNodes(int k, @NotNull Predicate<CaptureNode> filter, @NotNull Comparator<CaptureNode> comparator) {
+        return CaptureNode.getTopKNodes(getCaptureNodes(), k, filter, comparator);
+    }
+
+    /**
+     * Returns a full-text index over the method names of all threads in this capture. It reflects the current capture trees, e.g. it
+     * is rebuilt when nodes with some tags are collapsed. Implementations cache it until then, as building it walks every tree.
+     */
+    @NotNull
+    MethodNameIndex getMethodNameIndex();
+
+    /**
+     * Applies a filter to the trees of all threads in this capture, filtering independent threads in parallel.
+     *
+     * @return the combined filter result of all threads, e.g. number of matches.
+     */
+    @NotNull
+    default FilterResult applyFilter(@NotNull Filter filter) {
+        return CaptureNode.applyFilter(getCaptureNodes(), filter);
+    }
+
+    /**
+     * Returns the top-down call tree of the thread with {@code threadId}, merging its calls by path of models, or null if such thread
+     * isn't present on this capture. Like the capture trees, it reflects the collapsed tags and the clock type.
+     */
+    @Nullable
+    default AggregatedCallTree getAggregatedCallTree(int threadId) {
+        CaptureNode root = getCaptureNode(threadId);
+        return root == null ? null : AggregatedCallTree.forThread(root);
+    }
+
+    /**
+     * Returns the top-down call tree of the whole capture, merging the calls of all threads by path of models.
+     */
+    @NotNull
+    default AggregatedCallTree getAggregatedCallTree() {
+        return AggregatedCallTree.forThreads(getCaptureNodes());
+    }
+
+    /**
+     * Returns an index of the nodes of the thread with {@code threadId} by time, or null if such thread isn't present on this capture.
+     */
+    @Nullable
+    default CaptureNodeIntervalIndex getIntervalIndex(int threadId) {
+        CaptureNode root = getCaptureNode(threadId);
+        return root == null ? null : new CaptureNodeIntervalIndex(root);
+    }
+
+    /**
+     * Returns the multi-resolution index of the nodes of the thread with {@code threadId}, or null if such thread isn't present on this
+     * capture.
+     */
+    @Nullable
+    default LevelOfDetailIndex getLevelOfDetailIndex(int threadId) {
+        CaptureNodeIntervalIndex index = getIntervalIndex(threadId);
+        return index == null ? null : new LevelOfDetailIndex(index);
+    }
+
+    /**
+     * Returns what a flame chart of the thread with {@code threadId} has to draw for the given range: the nodes lasting at least
+     * {@code resolution}, e.g. the duration of a pixel, and placeholder spans for runs of shorter nodes. See {@link LevelOfDetailIndex}.
+     */
+    @NotNull
+    default List<LevelOfDetailIndex.Span> getVisibleSpans(int threadId, @NotNull Range range, long resolution) {
+        LevelOfDetailIndex index = getLevelOfDetailIndex(threadId);
+        return index == null ? Collections.emptyList() : index.getSpans((long)range.getMin(), (long)range.getMax(), resolution);
+    }
+
+    /**
+     * Returns the top-down call tree of the thread with {@code threadId} within the given range, e.g. the selection range, with node
+     * times clipped to it. Returns null if such thread isn't present on this capture.
+     */
+    @Nullable
+    default AggregatedCallTree getAggregatedCallTree(int threadId, @NotNull Range range) {
+        CaptureNode root = getCaptureNode(threadId);
+        CaptureNodeIntervalIndex index = getIntervalIndex(threadId);
+        return root == null || index == null
+               ? null
+               : AggregatedCallTree.forRange(Collections.singletonList(index), (long)range.getMin(), (long)range.getMax(), root.getData());
+    }
+
+    /**
+     * Returns the top-down call tree of all threads within the given range, with node times clipped to it.
+     */
+    @NotNull
+    default AggregatedCallTree getAggregatedCallTree(@NotNull Range range) {
+        List<CaptureNodeIntervalIndex> indices =
+                getThreads().stream().map(thread -> getIntervalIndex(thread.getId())).collect(Collectors.toList());
+        return AggregatedCallTree.forRange(indices, (long)range.getMin(), (long)range.getMax());
+    }
+
+    /**
+     * Returns the groups of similarly named threads of this capture, e.g. the workers of a thread pool.
+     */
+    @NotNull
+    default List<ThreadGroupInfo> getThreadGroups(@NotNull ThreadGrouping grouping) {
+        return grouping.group(getThreads());
+    }
+
+    /**
+     * Returns the top-down call tree merging the threads of a group, rooted at a node named after the group.
+     */
+    @NotNull
+    default AggregatedCallTree getAggregatedCallTree(@NotNull ThreadGroupInfo group) {
+        return getAggregatedCallTrees(Collections.singletonList(group)).get(group);
+    }
+
+    /**
+     * Returns the top-down call trees of the given thread groups, building them in parallel.
+     */
+    @NotNull
+    default Map<ThreadGroupInfo, AggregatedCallTree> getAggregatedCallTrees(@NotNull List<ThreadGroupInfo> groups) {
+        return groups.parallelStream().collect(Collectors.toMap(Function.identity(), group -> new AggregatedCallTree(
+                group.getThreads().stream().map(thread -> getCaptureNode(thread.getId())).filter(Objects::nonNull).collect(Collectors.toList()),
+                new SingleNameModel(group.getName()))));
+    }
+
+    /**
+     * Returns the bottom-up call tree of the thread with {@code threadId}, rooted at the methods it runs and expanding into their
+     * callers, or null if such thread isn't present on this capture.
+     */
+    @Nullable
+    default BottomUpCallTree getBottomUpCallTree(int threadId) {
+        CaptureNode root = getCaptureNode(threadId);
+        return root == null ? null : BottomUpCallTree.forThread(root);
+    }
+
+    /**
+     * Returns the bottom-up call tree of the whole capture, merging the calls of all threads.
+     */
+    @NotNull
+    default BottomUpCallTree getBottomUpCallTree() {
+        return BottomUpCallTree.forThreads(getCaptureNodes());
+    }
+
+    /**
+     * Returns the statistics of every method called in this capture, e.g. its total and self time, invocation count and the number of
+     * threads calling it.
+     */
+    @NotNull
+    default MethodStatistics getMethodStatistics() {
+        return new MethodStatistics(getCaptureNodes());
+    }
+
+    /**
+     * Returns an index of the calls of every method in this capture, see {@link MethodIndex}.
+     */
+    @NotNull
+    default MethodIndex getMethodIndex() {
+        return new MethodIndex(getCaptureNodes());
+    }
+
+    /**
+     * Returns the direct callers and callees of the given method across all threads, with their time contributions.
+     */
+    @NotNull
+    default MethodIndex.Butterfly getButterfly(@NotNull CaptureNodeModel method) {
+        return getMethodIndex().getButterfly(method);
+    }
+
+    /**
+     * Returns the time spent in each tag by the thread with {@code threadId}, or null if such thread isn't present on this capture.
+     * The breakdown is of the unabbreviated tree of the thread, so it doesn't depend on the collapsed tags, see {@link TagBreakdown}.
+     * The default walks the current tree, which is only right as long as no tag is collapsed, so captures collapsing nodes override it.
+     */
+    @Nullable
+    default TagBreakdown getTagBreakdown(int threadId) {
+        CaptureNode root = getCaptureNode(threadId);
+        return root == null ? null : TagBreakdown.of(root.getChildren());
+    }
+
+    /**
+     * Returns the time spent in each tag by all threads of this capture, i.e. the sum of the breakdowns of
+     * {@link #getTagBreakdown(int)}.
+     */
+    @NotNull
+    default TagBreakdown getTagBreakdown() {
+        return TagBreakdown.merge(getThreads().stream().map(thread -> getTagBreakdown(thread.getId())).filter(Objects::nonNull)
+                                          .collect(Collectors.toList()));
+    }
+
+    /**
+     * Returns the samples of each function by address of the sampled instruction, empty if the trace doesn't record instruction
+     * addresses.
+     */
+    @NotNull
+    default InstructionHistograms getInstructionHistograms() {
+        return InstructionHistograms.EMPTY;
+    }
+
+    /**
+     * Returns the table keying the models of the call trees and statistics of the capture, whose keys are the dense ids of the models if
+     * the parser assigned them, see {@link CaptureNodeModel#getDenseId()}. The same table is returned for the lifetime of the capture.
+     */
+    @NotNull
+    ModelTable getModelTable();
+
+    /**
+     * Replaces the models of the nodes of this capture in place, keeping the trees and their timings, and drops everything derived
+     * from the previous models, e.g. to re-symbolize a capture without parsing its trace again.
+     *
+     * @return the number of nodes whose model was replaced.
+     */
+    int replaceModels(@NotNull ModelReplacement replacement);
+
     /**
      * Returns the container for all system trace data available in this capture
      * or null if system trace data is not available on this capture.
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu
+
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+import com.android.tools.profilers.cpu.util.LongIntHashMap
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Samples of each function by address of the sampled instruction, i.e. the address in its file of the leaf of each sample, which gives
+ * a heat map of the instructions of a hot function without any debug information. Functions are keyed by [CaptureNodeModel.getId],
+ * like the other per-method aggregations.
+ *
+ * The histograms can be written next to a capture and read back with [read].
+ */
+class InstructionHistograms private constructor(private val histogramsById: Map<String, Histogram>) {
+
+    /**
+     * Sample counts of the instructions of a function, by ascending address.
+     */
+    class Histogram internal constructor(
+        /**
+         * Path of the file the addresses are in, e.g. the library of a native function.
+         */
+        val filePath: String,
+        private val addresses: LongArray,
+        private val sampleCounts: IntArray) {
+
+        val size: Int
+            get() = addresses.size
+
+        val totalSampleCount: Long by lazy { sampleCounts.fold(0L) { total, count -> total + count } }
+
+        fun getAddress(index: Int) = addresses[index]
+
+        fun getSampleCount(index: Int) = sampleCounts[index]
+
+        /**
+         * @return the number of samples at the given address, 0 if there is none.
+         */
+        fun getSampleCount(address: Long): Int {
+            val index = addresses.binarySearch(address)
+            return if (index >= 0) sampleCounts[index] else 0
+        }
+
+        /**
+         * @return the histogram of the samples of both histograms, in the file of this one.
+         */
+        internal operator fun plus(other: Histogram): Histogram {
+            val mergedAddresses = LongArray(size + other.size)
+            val mergedCounts = IntArray(size + other.size)
+            var i = 0
+            var j = 0
+            var size = 0
+            while (i < this.size || j < other.size) {
+                val address = when {
+                    j == other.size -> addresses[i]
+                    i == this.size -> other.addresses[j]
+                    else -> minOf(addresses[i], other.addresses[j])
+                }
+                if (i < this.size && addresses[i] == address) mergedCounts[size] += sampleCounts[i++]
+                if (j < other.size && other.addresses[j] == address) mergedCounts[size] += other.sampleCounts[j++]
+                mergedAddresses[size++] = address
+            }
+            return Histogram(filePath, mergedAddresses.copyOf(size), mergedCounts.copyOf(size))
+        }
+    }
+
+    val functionIds: Set<String>
+        get() = histogramsById.keys
+
+    fun getHistogram(functionId: String): Histogram? = histogramsById[functionId]
+
+    fun getHistogram(model: CaptureNodeModel): Histogram? = histogramsById[model.id]
+
+    /**
+     * @param newIds the new id of each function whose model was replaced, see [CpuCapture.replaceModels].
+     * @return the histograms keyed by the new ids, where the histograms of functions that now share an id are merged, e.g. the
+     * addresses of a function that were unsymbolized.
+     */
+    fun renamed(newIds: Map<String, String>): InstructionHistograms {
+        if (histogramsById.keys.none(newIds::containsKey)) {
+            return this
+        }
+        val renamed = HashMap<String, Histogram>(histogramsById.size * 2)
+        histogramsById.forEach { (id, histogram) -> renamed.merge(newIds[id] ?: id, histogram, Histogram::plus) }
+        return InstructionHistograms(renamed)
+    }
+
+    @Throws(IOException::class)
+    fun write(output: OutputStream) {
+        val data = DataOutputStream(output)
+        data.writeInt(FILE_MAGIC)
+        data.writeInt(FILE_VERSION)
+        data.writeInt(histogramsById.size)
+        histogramsById.forEach { (id, histogram) ->
+            writeString(data, id)
+            writeString(data, histogram.filePath)
+            data.writeInt(histogram.size)
+            for (i in 0 until histogram.size) {
+                data.writeLong(histogram.getAddress(i))
+                data.writeInt(histogram.getSampleCount(i))
+            }
+        }
+        data.flush()
+    }
+
+    /**
+     * Accumulates the histograms while the samples are parsed, in a primitive map per function. Functions with a dense id are looked up
+     * by it, so only their first sample builds their id string.
+     */
+    class Builder {
+        private class Counts(val model: CaptureNodeModel, val filePath: String) {
+            val countsByAddress = LongIntHashMap()
+        }
+
+        private val countsByDenseId = ArrayList<Counts?>()
+        private val countsById = HashMap<String, Counts>()
+
+        /**
+         * Counts a sample whose leaf is the instruction at [vAddress] of the file at [filePath], in the function [model].
+         */
+        fun add(model: CaptureNodeModel, filePath: String, vAddress: Long) {
+            val denseId = model.denseId
+            val counts = if (denseId < 0) {
+                countsById.getOrPut(model.id) { Counts(model, filePath) }
+            }
+            else {
+                while (countsByDenseId.size <= denseId) {
+                    countsByDenseId.add(null)
+                }
+                countsByDenseId[denseId] ?: Counts(model, filePath).also { countsByDenseId[denseId] = it }
+            }
+            counts.countsByAddress.addTo(vAddress, 1)
+        }
+
+        fun build(): InstructionHistograms {
+            val allCountsById = HashMap(countsById)
+            countsByDenseId.filterNotNull().forEach { counts ->
+                allCountsById.merge(counts.model.id, counts) { merged, other ->
+                    merged.apply { other.countsByAddress.forEach { address, count -> countsByAddress.addTo(address, count) } }
+                }
+            }
+            return InstructionHistograms(allCountsById.mapValues { (_, counts) ->
+                val addresses = LongArray(counts.countsByAddress.size())
+                var size = 0
+                counts.countsByAddress.forEach { address, _ -> addresses[size++] = address }
+                addresses.sort()
+                Histogram(counts.filePath, addresses, IntArray(addresses.size) { counts.countsByAddress.get(addresses[it], 0) })
+            })
+        }
+    }
+
+    companion object {
+        private const val FILE_MAGIC = 0x49484953 // "IHIS"
+        private const val FILE_VERSION = 1
+
+        @JvmField
+        val EMPTY = InstructionHistograms(mapOf())
+
+        /**
+         * Reads histograms written by [write].
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun read(input: InputStream): InstructionHistograms {
+            val data = DataInputStream(input)
+            if (data.readInt() != FILE_MAGIC || data.readInt() != FILE_VERSION) {
+                throw IOException("Unsupported instruction histograms")
+            }
+            val count = data.readInt()
+            val histogramsById = HashMap<String, Histogram>(count * 2)
+            repeat(count) {
+                val id = readString(data)
+                val filePath = readString(data)
+                val size = data.readInt()
+                val addresses = LongArray(size)
+                val sampleCounts = IntArray(size)
+                for (i in 0 until size) {
+                    addresses[i] = data.readLong()
+                    sampleCounts[i] = data.readInt()
+                }
+                histogramsById[id] = Histogram(filePath, addresses, sampleCounts)
+            }
+            return InstructionHistograms(histogramsById)
+        }
+
+        /**
+         * Strings are written as length-prefixed UTF-8 rather than with [DataOutputStream.writeUTF], which is limited to 64 KB and
+         * C++ names with templates can get longer.
+         */
+        private fun writeString(data: DataOutputStream, string: String) {
+            val bytes = string.toByteArray(Charsets.UTF_8)
+            data.writeInt(bytes.size)
+            data.write(bytes)
+        }
+
+        private fun readString(data: DataInputStream): String {
+            val bytes = ByteArray(data.readInt())
+            data.readFully(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu
+
+import com.android.tools.adtui.model.filter.Filter
+import com.android.tools.adtui.model.filter.FilterResult
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.Collectors
+
+/**
+ * Full-text index over the distinct [CaptureNodeModel.getFullName] values of a set of trees, e.g. the thread trees of a capture.
+ *
+ * Every distinct name gets a name id. Names are indexed by the trigrams of their US-ASCII lower case form, which answers substring
+ * queries of both cases, and kept in sorted order for prefix queries. Each tree is flattened in pre-order, so the nodes carrying
+ * a name and the subtree below any node are found through array lookups instead of tree walks.
+ *
+ * The index is a snapshot of the trees it was built from and must be rebuilt whenever their nodes change.
+ */
+class MethodNameIndex(roots: Collection<CaptureNode>) {
+
+    private val names: Array<String>
+    private val lowerCaseNames: Array<String>
+
+    /**
+     * Maps a trigram of lower case characters (see [trigram]) to the sorted ids of the names containing it.
+     */
+    private val namesByTrigram: Map<Long, IntArray>
+
+    /**
+     * Name ids sorted by their name and by their lower case name, for prefix queries.
+     */
+    private val sortedIds: IntArray
+    private val sortedLowerCaseIds: IntArray
+
+    private val trees: List<FlatTree>
+
+    /**
+     * The last filter applied through [applyFilter] and the ids of the names it matched. A refinement of it (see
+     * [Filter.isRefinementOf]) can only match some of those names, so only they are checked again.
+     */
+    private var lastFilter: Filter? = null
+    private var lastMatchingIds: IntArray? = null
+
+    init {
+        val ids = ConcurrentHashMap<String, Int>()
+        val nextId = AtomicInteger()
+        trees = roots.parallelStream().map { FlatTree(it, ids, nextId) }.collect(Collectors.toList())
+        names = arrayOfNulls<String>(ids.size).also { array -> ids.forEach { (name, id) -> array[id] = name } }.requireNoNulls()
+        lowerCaseNames = Array(names.size) { Filter.toAsciiLowerCase(names[it]) }
+
+        val trigramIds = HashMap<Long, MutableList<Int>>()
+        lowerCaseNames.forEachIndexed { id, name ->
+            // A name may repeat a trigram, but its id only needs to be posted once.
+            (0..name.length - TRIGRAM_LENGTH).mapTo(HashSet()) { trigram(name, it) }.forEach { trigramIds.getOrPut(it, ::ArrayList).add(id) }
+        }
+        namesByTrigram = trigramIds.mapValues { it.value.toIntArray() }
+
+        sortedIds = names.indices.sortedBy { names[it] }.toIntArray()
+        sortedLowerCaseIds = names.indices.sortedBy { lowerCaseNames[it] }.toIntArray()
+    }
+
+    val nameCount: Int
+        get() = names.size
+
+    fun getName(nameId: Int) = names[nameId]
+
+    /**
+     * @return ids of the names matched by the filter, in ascending order.
+     */
+    fun findNameIds(filter: Filter): IntArray = when {
+        filter.isEmpty -> IntArray(names.size) { it }
+        filter.isRegex || filter.filterString.length < TRIGRAM_LENGTH -> names.indices.filter { filter.matches(names[it]) }.toIntArray()
+        // Trigrams can only narrow down the candidates, which are then checked against the filter itself.
+        else -> candidatesContaining(Filter.toAsciiLowerCase(filter.filterString)).filter { filter.matches(names[it]) }.toIntArray()
+    }
+
+    /**
+     * @return ids of the names starting with the given prefix, in ascending order.
+     */
+    fun findNameIdsWithPrefix(prefix: String, matchCase: Boolean): IntArray {
+        val (ids, sortedNames, key) =
+            if (matchCase) Triple(sortedIds, names, prefix) else Triple(sortedLowerCaseIds, lowerCaseNames, Filter.toAsciiLowerCase(prefix))
+        var low = 0
+        var high = ids.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (sortedNames[ids[mid]] < key) low = mid + 1 else high = mid
+        }
+        var end = low
+        while (end < ids.size && sortedNames[ids[end]].startsWith(key)) end++
+        return ids.copyOfRange(low, end).apply { sort() }
+    }
+
+    /**
+     * @return the nodes carrying the given name, grouped by the root of their tree.
+     */
+    fun getNodes(nameId: Int): Map<CaptureNode, List<CaptureNode>> =
+        trees.associate { it.root to it.nodesWithName(nameId, names.size) }.filterValues { it.isNotEmpty() }
+
+    /**
+     * Applies a filter to all the indexed trees, like [CaptureNode.applyFilter], but evaluates the filter once per distinct name
+     * through the index and then marks the flattened trees in a single linear pass each. A refinement of the last filter applied
+     * through this index is only evaluated against the names the last filter matched. This supersedes the node-level refinement of
+     * [CaptureNode.applyFilter] for the trees of this index, which only skips unmatched subtrees and still needs a tree walk.
+     *
+     * @return the combined filter result of all trees
+     */
+    fun applyFilter(filter: Filter): FilterResult {
+        val matchingIds = synchronized(this) {
+            val previousIds = lastMatchingIds.takeIf { lastFilter?.let(filter::isRefinementOf) == true }
+            (previousIds?.filter { filter.matches(names[it]) }?.toIntArray() ?: findNameIds(filter)).also {
+                lastFilter = filter
+                lastMatchingIds = it
+            }
+        }
+        val matchingNames = BooleanArray(names.size).also { matches -> matchingIds.forEach { matches[it] = true } }
+        val results = trees.parallelStream().map { it.applyFilter(filter, matchingNames) }.collect(Collectors.toList())
+        trees.forEach { it.root.fireFilterApplied() }
+        return results.fold(FilterResult(0, 0, !filter.isEmpty), FilterResult::combine)
+    }
+
+    private fun candidatesContaining(lowerCaseQuery: String): IntArray {
+        val postings = (0..lowerCaseQuery.length - TRIGRAM_LENGTH).map { namesByTrigram[trigram(lowerCaseQuery, it)] ?: return IntArray(0) }
+        return postings.sortedBy { it.size }.reduce(::intersectSorted)
+    }
+
+    /**
+     * A thread tree flattened in pre-order. The subtree of the node at index i spans the indices [i, subtreeEnd[i]).
+     */
+    private class FlatTree(val root: CaptureNode, ids: ConcurrentHashMap<String, Int>, nextId: AtomicInteger) {
+        val nodes: Array<CaptureNode>
+        val nameIds: IntArray
+        val subtreeEnd: IntArray
+
+        /**
+         * Positions of the nodes of each name, grouped by name id: positions of name i are in [nameOffsets[i], nameOffsets[i + 1]).
+         * Built on the first node query, as filtering doesn't need them.
+         */
+        private var nameOffsets: IntArray? = null
+        private var positionsByName: IntArray? = null
+
+        init {
+            val flattened = ArrayList<CaptureNode>()
+            val ends = ArrayList<Int>()
+            fun flatten(node: CaptureNode) {
+                val index = flattened.size
+                flattened.add(node)
+                ends.add(0)
+                node.children.forEach(::flatten)
+                ends[index] = flattened.size
+            }
+            flatten(root)
+            nodes = flattened.toTypedArray()
+            subtreeEnd = ends.toIntArray()
+            nameIds = IntArray(nodes.size) { i ->
+                val name = nodes[i].data.fullName
+                ids[name] ?: ids.computeIfAbsent(name) { nextId.getAndIncrement() }
+            }
+        }
+
+        @Synchronized
+        fun nodesWithName(nameId: Int, nameCount: Int): List<CaptureNode> {
+            val offsets = nameOffsets ?: IntArray(nameCount + 1).also { offsets ->
+                nameIds.forEach { offsets[it + 1]++ }
+                for (i in 1..nameCount) offsets[i] += offsets[i - 1]
+                val cursor = offsets.copyOf()
+                positionsByName = IntArray(nodes.size).also { positions ->
+                    nameIds.forEachIndexed { position, id -> positions[cursor[id]++] = position }
+                }
+                nameOffsets = offsets
+            }
+            val positions = positionsByName!!
+            return (offsets[nameId] until offsets[nameId + 1]).map { nodes[positions[it]] }
+        }
+
+        fun applyFilter(filter: Filter, matchingNames: BooleanArray): FilterResult {
+            var matchCount = 0
+            // Nodes before this index have an exactly matched ancestor.
+            var matchedSubtreeEnd = 0
+            for (i in nodes.indices) {
+                val node = nodes[i]
+                // Like a filter applied to the root, it replaces the ones applied to the subtrees on their own.
+                node.forgetLastFilter()
+                val exactMatch = matchingNames[nameIds[i]]
+                node.filterType = when {
+                    exactMatch && !filter.isEmpty -> CaptureNode.FilterType.EXACT_MATCH
+                    exactMatch || i < matchedSubtreeEnd -> CaptureNode.FilterType.MATCH
+                    else -> CaptureNode.FilterType.UNMATCH
+                }
+                if (exactMatch) {
+                    matchCount++
+                    matchedSubtreeEnd = maxOf(matchedSubtreeEnd, subtreeEnd[i])
+                    // Ancestors come first in pre-order and were marked already, stop at the first one that matched before.
+                    var current = node
+                    while (current !== root) {
+                        val ancestor = current.parent!!
+                        if (!ancestor.isUnmatched) break
+                        ancestor.filterType = CaptureNode.FilterType.MATCH
+                        current = ancestor
+                    }
+                }
+            }
+            return FilterResult(matchCount, nodes.size, !filter.isEmpty).also { root.onFilterApplied(filter, it) }
+        }
+    }
+
+    private companion object {
+        const val TRIGRAM_LENGTH = 3
+
+        fun trigram(string: String, index: Int) =
+            (string[index].code.toLong() shl 32) or (string[index + 1].code.toLong() shl 16) or string[index + 2].code.toLong()
+
+        fun intersectSorted(a: IntArray, b: IntArray): IntArray {
+            val result = IntArray(minOf(a.size, b.size))
+            var size = 0
+            var i = 0
+            var j = 0
+            while (i < a.size && j < b.size) {
+                when {
+                    a[i] < b[j] -> i++
+                    a[i] > b[j] -> j++
+                    else -> {
+                        result[size++] = a[i]
+                        i++
+                        j++
+                    }
+                }
+            }
+            return result.copyOf(size)
+        }
+    }
+}
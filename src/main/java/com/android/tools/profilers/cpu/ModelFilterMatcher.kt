@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu
+
+import com.android.tools.adtui.model.filter.Filter
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Matches [CaptureNodeModel]s against a [Filter], running the filter pattern only once per distinct full name.
+ *
+ * Millions of nodes of a capture usually share a few thousand names, so remembering the outcome per name spares most of the
+ * pattern evaluations of a filter pass. It is thread-safe, so a single instance can be shared by all the trees filtered in parallel.
+ */
+class ModelFilterMatcher(val filter: Filter) {
+    private val matchesByName = ConcurrentHashMap<String, Boolean>()
+
+    fun matches(model: CaptureNodeModel): Boolean {
+        if (filter.isEmpty) return true
+        val name = model.fullName
+        return matchesByName[name] ?: filter.matches(name).also { matchesByName.putIfAbsent(name, it) }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import java.util.Collection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Replaces the models of the nodes of a capture, e.g. with better names once new symbols are available, see
+ * {@link CpuCapture#replaceModels(ModelReplacement)}.
+ */
+public interface ModelReplacement {
+
+    /**
+     * Called once before any {@link #replace(CaptureNodeModel)}, e.g. to look up the symbols of all the models at once.
+     *
+     * @param models a model of each distinct key of the capture's {@link CpuCapture#getModelTable()}.
+     */
+    default void prepare(@NotNull Collection<CaptureNodeModel> models) {
+    }
+
+    /**
+     * Called once per node of the capture, since nodes of the same method may have their own models, e.g. recording their call site.
+     * Replacements which don't depend on the call site should share their models between the nodes.
+     *
+     * @return the model replacing the given one, or null to keep it.
+     */
+    @Nullable
+    CaptureNodeModel replace(@NotNull CaptureNodeModel model);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu
+
+import com.android.tools.perflib.vmtrace.ClockType
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+
+/**
+ * Time and samples spent in the nodes of each tag (see [CaptureNodeModel.getTag]), e.g. how much of a thread runs framework, app or
+ * vendor code. Nodes without a tag aren't counted.
+ *
+ * Inclusive figures only count the outermost nodes of a tag, so a tag calling into itself isn't counted twice.
+ *
+ * A breakdown is meant to be computed over unabbreviated trees, and it then reports the time actually spent in each tag whatever
+ * tags are collapsed. It doesn't describe a collapsed view: collapsing merges consecutive collapsed siblings into one node stretched
+ * over the caller's self time between them, and the merged nodes have no tag.
+ */
+class TagBreakdown private constructor(private val timesByTag: Map<String, TagTimes>) {
+
+    class TagTimes {
+        var inclusiveGlobalTime = 0L
+            internal set
+        var selfGlobalTime = 0L
+            internal set
+        var inclusiveThreadTime = 0L
+            internal set
+        var selfThreadTime = 0L
+            internal set
+        var inclusiveSampleCount = 0L
+            internal set
+        var selfSampleCount = 0L
+            internal set
+
+        fun getInclusiveTime(clockType: ClockType) = if (clockType == ClockType.THREAD) inclusiveThreadTime else inclusiveGlobalTime
+        fun getSelfTime(clockType: ClockType) = if (clockType == ClockType.THREAD) selfThreadTime else selfGlobalTime
+
+        internal fun add(other: TagTimes) {
+            inclusiveGlobalTime += other.inclusiveGlobalTime
+            selfGlobalTime += other.selfGlobalTime
+            inclusiveThreadTime += other.inclusiveThreadTime
+            selfThreadTime += other.selfThreadTime
+            inclusiveSampleCount += other.inclusiveSampleCount
+            selfSampleCount += other.selfSampleCount
+        }
+    }
+
+    val tags: Set<String>
+        get() = timesByTag.keys
+
+    fun getTimes(tag: String): TagTimes? = timesByTag[tag]
+
+    /**
+     * Accumulates a breakdown while walking a tree, e.g. while the parser finalizes the nodes it built. [enter] is called on a node
+     * before its children and [exit] after them, once the node's times and sample count are final.
+     */
+    class Builder {
+        private val timesByTag = HashMap<String, TagTimes>()
+
+        /**
+         * Number of nodes of each tag on the current path.
+         */
+        private val activeCounts = HashMap<String, Int>()
+
+        /**
+         * @return whether the node is the outermost node of its tag on the current path, to be passed back to [exit].
+         */
+        fun enter(node: CaptureNode): Boolean {
+            val tag = node.data.tag ?: return false
+            return activeCounts.merge(tag, 1, Int::plus) == 1
+        }
+
+        fun exit(node: CaptureNode, outermost: Boolean) {
+            val tag = node.data.tag ?: return
+            activeCounts.merge(tag, -1, Int::plus)
+            val times = timesByTag.getOrPut(tag, ::TagTimes)
+            val globalTime = node.endGlobal - node.startGlobal
+            val threadTime = node.endThread - node.startThread
+            times.selfGlobalTime += globalTime - node.children.sumOf { it.endGlobal - it.startGlobal }
+            times.selfThreadTime += threadTime - node.children.sumOf { it.endThread - it.startThread }
+            times.selfSampleCount += node.selfSampleCount
+            if (outermost) {
+                times.inclusiveGlobalTime += globalTime
+                times.inclusiveThreadTime += threadTime
+                times.inclusiveSampleCount += node.sampleCount
+            }
+        }
+
+        fun build() = TagBreakdown(HashMap(timesByTag))
+    }
+
+    companion object {
+        /**
+         * @return the breakdown of the given trees, walking them.
+         */
+        @JvmStatic
+        fun of(roots: Collection<CaptureNode>): TagBreakdown {
+            val builder = Builder()
+            fun visit(node: CaptureNode) {
+                val outermost = builder.enter(node)
+                node.children.forEach(::visit)
+                builder.exit(node, outermost)
+            }
+            roots.forEach(::visit)
+            return builder.build()
+        }
+
+        /**
+         * @return the sum of the given breakdowns, e.g. of all threads of a capture.
+         */
+        @JvmStatic
+        fun merge(breakdowns: Collection<TagBreakdown>): TagBreakdown {
+            val merged = HashMap<String, TagTimes>()
+            breakdowns.forEach { breakdown -> breakdown.timesByTag.forEach { (tag, times) -> merged.getOrPut(tag, ::TagTimes).add(times) } }
+            return TagBreakdown(merged)
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * A synthetic thread standing for a group of similarly named threads, e.g. the workers of a thread pool. See {@link ThreadGrouping}.
+ * Its id is negative so it never clashes with the id of an actual thread.
+ */
+public class ThreadGroupInfo extends CpuThreadInfo {
+
+    @NotNull private final List<CpuThreadInfo> myThreads;
+
+    public ThreadGroupInfo(int groupId, @NotNull String name, @NotNull List<CpuThreadInfo> threads) {
+        super(groupId, name, false);
+        myThreads = threads;
+    }
+
+    /**
+     * @return the threads of the group, sorted by id.
+     */
+    @NotNull
+    public List<CpuThreadInfo> getThreads() {
+        return myThreads;
+    }
+}
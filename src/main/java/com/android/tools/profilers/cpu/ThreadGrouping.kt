@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu
+
+/**
+ * Groups threads by name, e.g. the 64 workers of a thread pool into a single group.
+ *
+ * A thread belongs to the group of the first pattern matching its whole name. The name of the group is the name of the thread with
+ * the capturing groups of the pattern replaced by '*', so "pool-(\d+)-thread-(\d+)" puts all pools together while
+ * "pool-\d+-thread-(\d+)" makes a group of each pool. Threads no pattern matches aren't grouped.
+ */
+class ThreadGrouping(val patterns: List<Regex>) {
+
+    /**
+     * @return the name of the group of a thread, or null if it isn't grouped.
+     */
+    fun getGroupName(threadName: String): String? {
+        for (pattern in patterns) {
+            val match = pattern.matchEntire(threadName) ?: continue
+            val name = StringBuilder()
+            var end = 0
+            for (group in match.groups.drop(1)) {
+                if (group == null || group.range.first < end) continue
+                name.append(threadName, end, group.range.first).append('*')
+                end = group.range.last + 1
+            }
+            return name.append(threadName, end, threadName.length).toString()
+        }
+        return null
+    }
+
+    /**
+     * @return the groups of the given threads, sorted by name. Group ids are negative, counting down from [FIRST_GROUP_ID].
+     */
+    fun group(threads: Collection<CpuThreadInfo>): List<ThreadGroupInfo> {
+        val threadsByGroup = threads.groupBy { getGroupName(it.name) }
+        return threadsByGroup.keys.filterNotNull().sorted().mapIndexed { i, name ->
+            ThreadGroupInfo(FIRST_GROUP_ID - i, name, threadsByGroup.getValue(name).sortedBy { it.id })
+        }
+    }
+
+    companion object {
+        /**
+         * Below [BaseCpuCapture.NO_THREAD_ID], which is -1.
+         */
+        const val FIRST_GROUP_ID = -2
+
+        /**
+         * Groups the workers of each java.util.concurrent pool, of the Kotlin coroutine dispatchers and of OkHttp. The kernel truncates
+         * thread names to 15 characters, so "DefaultDispatcher-worker-1" is reported as "DefaultDispatch" and "pool-12-thread-3" as
+         * "pool-12-thread-", and the patterns match what is left of the names.
+         */
+        @JvmField
+        val DEFAULT = ThreadGrouping(listOf(Regex("""pool-\d+-thread-(\d*)"""),
+                                            Regex("""DefaultDispatch(.*)"""),
+                                            Regex("""OkHttp (.+)""")))
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.profilers.cpu.CaptureNode
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel
+import com.android.tools.profilers.cpu.util.LongIntHashMap
+
+/**
+ * Top-down call tree merging the capture nodes reached through the same path of models, see [CallTreeNode].
+ *
+ * The given roots are all merged into the root of the tree, so a single thread tree gives the call tree of that thread and the trees
+ * of several threads give their combined call tree. The tree is built in a single pass over the capture nodes into parallel primitive
+ * arrays, indexed by node with the root at 0; [CallTreeNode] objects are only created for the nodes that are expanded.
+ */
+class AggregatedCallTree private constructor(builder: Builder, val modelTable: ModelTable) {
+
+    @JvmOverloads
+    constructor(roots: Collection<CaptureNode>, rootModel: CaptureNodeModel, modelTable: ModelTable = ModelTable()) :
+        this(Builder(modelTable.keyOf(rootModel)).apply { addTrees(roots, modelTable) }, modelTable)
+
+    val size: Int
+
+    private val parents: IntArray
+    private val modelKeys: IntArray
+    private val totalTimes: LongArray
+    private val selfTimes: LongArray
+    private val sampleCounts: LongArray
+    private val selfSampleCounts: LongArray
+    private val callCounts: IntArray
+
+    /**
+     * Children of each node as a linked list: the first child of node i is firstChild[i] and the following ones are chained through
+     * nextSibling, -1 ending the list.
+     */
+    private val firstChild: IntArray
+    private val nextSibling: IntArray
+
+    init {
+        size = builder.size
+        parents = builder.parents.copyOf(size)
+        modelKeys = builder.modelKeys.copyOf(size)
+        totalTimes = builder.totalTimes.copyOf(size)
+        selfTimes = builder.selfTimes.copyOf(size)
+        sampleCounts = builder.sampleCounts.copyOf(size)
+        selfSampleCounts = builder.selfSampleCounts.copyOf(size)
+        callCounts = builder.callCounts.copyOf(size)
+        firstChild = builder.firstChild.copyOf(size)
+        nextSibling = builder.nextSibling.copyOf(size)
+    }
+
+    val root: CallTreeNode by lazy { Node(0, null) }
+
+    /**
+     * @return the indices of the children of the node at the given index, in no particular order.
+     */
+    fun getChildIndices(index: Int): IntArray {
+        var count = 0
+        var child = firstChild[index]
+        while (child >= 0) {
+            count++
+            child = nextSibling[child]
+        }
+        val indices = IntArray(count)
+        child = firstChild[index]
+        for (i in 0 until count) {
+            indices[i] = child
+            child = nextSibling[child]
+        }
+        return indices
+    }
+
+    fun getParentIndex(index: Int) = parents[index]
+    fun getModelKey(index: Int) = modelKeys[index]
+    fun getModel(index: Int) = modelTable.getModel(modelKeys[index])
+    fun getTotalTime(index: Int) = totalTimes[index]
+    fun getSelfTime(index: Int) = selfTimes[index]
+    fun getSampleCount(index: Int) = sampleCounts[index]
+    fun getSelfSampleCount(index: Int) = selfSampleCounts[index]
+    fun getCallCount(index: Int) = callCounts[index]
+
+    private inner class Node(val index: Int, override val parent: CallTreeNode?) : CallTreeNode {
+        override val model: CaptureNodeModel
+            get() = getModel(index)
+        override val totalTime: Long
+            get() = totalTimes[index]
+        override val selfTime: Long
+            get() = selfTimes[index]
+        override val sampleCount: Long
+            get() = sampleCounts[index]
+        override val selfSampleCount: Long
+            get() = selfSampleCounts[index]
+        override val callCount: Int
+            get() = callCounts[index]
+        override val children: List<CallTreeNode> by lazy {
+            getChildIndices(index).sortedByDescending { totalTimes[it] }.map { Node(it, this) }
+        }
+    }
+
+    /**
+     * Growable columns of the tree under construction. A child is found by hashing its parent index and model key together.
+     */
+    private class Builder(rootModelKey: Int) {
+        var size = 0
+        var parents = IntArray(INITIAL_CAPACITY)
+        var modelKeys = IntArray(INITIAL_CAPACITY)
+        var totalTimes = LongArray(INITIAL_CAPACITY)
+        var selfTimes = LongArray(INITIAL_CAPACITY)
+        var sampleCounts = LongArray(INITIAL_CAPACITY)
+        var selfSampleCounts = LongArray(INITIAL_CAPACITY)
+        var callCounts = IntArray(INITIAL_CAPACITY)
+        var firstChild = IntArray(INITIAL_CAPACITY)
+        var nextSibling = IntArray(INITIAL_CAPACITY)
+        private val children = LongIntHashMap(INITIAL_CAPACITY)
+
+        init {
+            newNode(-1, rootModelKey)
+        }
+
+        fun addTrees(roots: Collection<CaptureNode>, modelTable: ModelTable) {
+            fun visit(node: CaptureNode, index: Int) {
+                add(index, node.duration, node.selfDuration, node.sampleCount, node.selfSampleCount)
+                node.children.forEach { visit(it, childOf(index, modelTable.keyOf(it.data))) }
+            }
+            roots.forEach { visit(it, 0) }
+        }
+
+        /**
+         * Adds the parts of the indexed nodes within [start, end]. The self time of a node is what's left of its clipped duration
+         * after its clipped children, and its sample counts are prorated by the clipped fraction of its duration.
+         *
+         * The index visits the nodes intersecting the closed range, but the nodes that only touch its bounds, e.g. ending at [start],
+         * have no time in it and aren't calls within it. Their descendants touch the bounds too, so none of them is added.
+         */
+        fun addClippedTree(index: CaptureNodeIntervalIndex, start: Long, end: Long, modelTable: ModelTable) {
+            // Tree indices of the nodes visited in the previous and current depths, by position within the depth.
+            var parentIndices = LongIntHashMap()
+            var indices = LongIntHashMap()
+            var currentDepth = 0
+            index.forEachIntersecting(start, end) { depth, position, parentPosition, node ->
+                if (depth != currentDepth) {
+                    parentIndices = indices.also { indices = parentIndices }
+                    indices.clear()
+                    currentDepth = depth
+                }
+                val nodeStart = index.getStart(depth, position)
+                val nodeEnd = index.getEnd(depth, position)
+                if (nodeEnd <= start || nodeStart >= end) {
+                    return@forEachIntersecting
+                }
+                val clipped = minOf(nodeEnd, end) - maxOf(nodeStart, start)
+                val treeIndex = if (depth == 0) 0 else childOf(parentIndices.get(parentPosition.toLong(), -1), modelTable.keyOf(node.data))
+                indices.put(position.toLong(), treeIndex)
+                val duration = nodeEnd - nodeStart
+                fun prorate(count: Long) = if (duration <= 0 || clipped == duration) count else count * clipped / duration
+                add(treeIndex, clipped, clipped, prorate(node.sampleCount), prorate(node.selfSampleCount))
+                if (depth > 0) {
+                    selfTimes[parents[treeIndex]] -= clipped
+                }
+            }
+        }
+
+        fun childOf(parent: Int, modelKey: Int): Int {
+            val key = (parent.toLong() shl 32) or (modelKey.toLong() and 0xFFFFFFFFL)
+            val existing = children.get(key, -1)
+            if (existing >= 0) {
+                return existing
+            }
+            return newNode(parent, modelKey).also { children.put(key, it) }
+        }
+
+        fun add(index: Int, totalTime: Long, selfTime: Long, sampleCount: Long, selfSampleCount: Long) {
+            totalTimes[index] += totalTime
+            selfTimes[index] += selfTime
+            sampleCounts[index] += sampleCount
+            selfSampleCounts[index] += selfSampleCount
+            callCounts[index]++
+        }
+
+        private fun newNode(parent: Int, modelKey: Int): Int {
+            if (size == parents.size) {
+                val capacity = size * 2
+                parents = parents.copyOf(capacity)
+                modelKeys = modelKeys.copyOf(capacity)
+                totalTimes = totalTimes.copyOf(capacity)
+                selfTimes = selfTimes.copyOf(capacity)
+                sampleCounts = sampleCounts.copyOf(capacity)
+                selfSampleCounts = selfSampleCounts.copyOf(capacity)
+                callCounts = callCounts.copyOf(capacity)
+                firstChild = firstChild.copyOf(capacity)
+                nextSibling = nextSibling.copyOf(capacity)
+            }
+            val index = size++
+            parents[index] = parent
+            modelKeys[index] = modelKey
+            firstChild[index] = -1
+            nextSibling[index] = if (parent >= 0) firstChild[parent] else -1
+            if (parent >= 0) {
+                firstChild[parent] = index
+            }
+            return index
+        }
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 256
+
+        /**
+         * Model of the root merging the trees of several threads.
+         */
+        @JvmField
+        val THREADS_ROOT_MODEL: CaptureNodeModel = SingleNameModel("All threads")
+
+        /**
+         * @return the call tree of a single thread, rooted at its thread node.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forThread(threadRoot: CaptureNode, modelTable: ModelTable = ModelTable()) =
+            AggregatedCallTree(listOf(threadRoot), threadRoot.data, modelTable)
+
+        /**
+         * @return the call tree merging the given threads, rooted at a node of [THREADS_ROOT_MODEL] that stands for all their thread
+         * nodes, so the same call path is merged across threads.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forThreads(threadRoots: Collection<CaptureNode>, modelTable: ModelTable = ModelTable()) =
+            AggregatedCallTree(threadRoots, THREADS_ROOT_MODEL, modelTable)
+
+        /**
+         * @return the call tree of the indexed threads, keeping only the nodes with time in [start, end] and clipping their times to
+         * it. Only the intersecting nodes are visited, so narrow ranges of large captures are cheap.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forRange(indices: Collection<CaptureNodeIntervalIndex>,
+                     start: Long,
+                     end: Long,
+                     rootModel: CaptureNodeModel = THREADS_ROOT_MODEL,
+                     modelTable: ModelTable = ModelTable()) =
+            AggregatedCallTree(Builder(modelTable.keyOf(rootModel)).apply { indices.forEach { addClippedTree(it, start, end, modelTable) } },
+                               modelTable)
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.profilers.cpu.CaptureNode
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+import com.android.tools.profilers.cpu.util.LongIntHashMap
+
+/**
+ * Bottom-up (inverted) call tree: the children of the root are all the methods of the given trees, and the children of a node are
+ * the callers of the path it stands for. E.g. the node root -> memcpy -> foo merges every call of memcpy made directly by foo.
+ *
+ * A node is backed by the capture nodes of the calls it merges, kept in pre-order. Its self time and self sample count sum up all the
+ * calls, while its total time and sample count only add up the calls that aren't nested in another call of the node, so recursion
+ * isn't counted twice. The trees are flattened once, and the callers of a node are only grouped when its children are first accessed.
+ */
+class BottomUpCallTree(roots: Collection<CaptureNode>,
+                       private val rootModel: CaptureNodeModel,
+                       val modelTable: ModelTable = ModelTable()) {
+
+    /**
+     * The capture nodes of all trees in pre-order. The subtree of the node at position i spans the positions [i, subtreeEnd[i]).
+     */
+    private val nodes: Array<CaptureNode>
+    private val parents: IntArray
+    private val subtreeEnd: IntArray
+    private val modelKeys: IntArray
+
+    init {
+        val flattened = ArrayList<CaptureNode>()
+        val parentList = ArrayList<Int>()
+        val ends = ArrayList<Int>()
+        fun flatten(node: CaptureNode, parent: Int) {
+            val position = flattened.size
+            flattened.add(node)
+            parentList.add(parent)
+            ends.add(0)
+            node.children.forEach { flatten(it, position) }
+            ends[position] = flattened.size
+        }
+        roots.forEach { flatten(it, -1) }
+        nodes = flattened.toTypedArray()
+        parents = parentList.toIntArray()
+        subtreeEnd = ends.toIntArray()
+        modelKeys = IntArray(nodes.size) { modelTable.keyOf(nodes[it].data) }
+    }
+
+    val root: CallTreeNode by lazy { RootNode(roots) }
+
+    private inner class RootNode(roots: Collection<CaptureNode>) : CallTreeNode {
+        override val model = rootModel
+        override val parent: CallTreeNode? = null
+        override val totalTime = roots.sumOf { it.duration }
+        override val selfTime = 0L
+        override val sampleCount = roots.sumOf { it.sampleCount }
+        override val selfSampleCount = 0L
+        override val callCount = roots.size
+        override val children: List<CallTreeNode> by lazy {
+            val positions = IntArray(nodes.size) { it }
+            groupCalls(this, positions, positions)
+        }
+    }
+
+    /**
+     * @param calls    positions of the capture nodes of the merged calls, ascending
+     * @param callers  for each call, the position of its caller at the end of the path of this node, i.e. the call itself for a
+     *                 child of the root
+     */
+    private inner class Node(override val parent: CallTreeNode,
+                             private val calls: IntArray,
+                             private val callers: IntArray) : CallTreeNode {
+        override val model: CaptureNodeModel
+            get() = modelTable.getModel(modelKeys[callers[0]])
+        override val totalTime: Long
+        override val selfTime: Long
+        override val sampleCount: Long
+        override val selfSampleCount: Long
+        override val callCount: Int
+            get() = calls.size
+
+        init {
+            var total = 0L
+            var self = 0L
+            var samples = 0L
+            var selfSamples = 0L
+            // Calls before this position are nested in a call counted already.
+            var outermostEnd = 0
+            for (call in calls) {
+                val node = nodes[call]
+                self += node.selfDuration
+                selfSamples += node.selfSampleCount
+                if (call >= outermostEnd) {
+                    total += node.duration
+                    samples += node.sampleCount
+                    outermostEnd = subtreeEnd[call]
+                }
+            }
+            totalTime = total
+            selfTime = self
+            sampleCount = samples
+            selfSampleCount = selfSamples
+        }
+
+        override val children: List<CallTreeNode> by lazy {
+            val callerCount = callers.count { parents[it] >= 0 }
+            val nextCalls = IntArray(callerCount)
+            val nextCallers = IntArray(callerCount)
+            var i = 0
+            for (j in calls.indices) {
+                val caller = parents[callers[j]]
+                if (caller >= 0) {
+                    nextCalls[i] = calls[j]
+                    nextCallers[i++] = caller
+                }
+            }
+            groupCalls(this, nextCalls, nextCallers)
+        }
+    }
+
+    /**
+     * Splits the calls by the model of their caller at the given positions, preserving their order.
+     */
+    private fun groupCalls(parent: CallTreeNode, calls: IntArray, callers: IntArray): List<CallTreeNode> {
+        val groups = LongIntHashMap()
+        val sizes = ArrayList<Int>()
+        val groupOf = IntArray(calls.size) { i ->
+            val key = modelKeys[callers[i]].toLong()
+            var group = groups.get(key, -1)
+            if (group < 0) {
+                group = sizes.size
+                groups.put(key, group)
+                sizes.add(0)
+            }
+            sizes[group]++
+            group
+        }
+        val groupCount = sizes.size
+        val callsByGroup = Array(groupCount) { IntArray(sizes[it]) }
+        val callersByGroup = Array(groupCount) { IntArray(sizes[it]) }
+        val filled = IntArray(groupCount)
+        for (i in calls.indices) {
+            val group = groupOf[i]
+            callsByGroup[group][filled[group]] = calls[i]
+            callersByGroup[group][filled[group]++] = callers[i]
+        }
+        return (0 until groupCount).map { Node(parent, callsByGroup[it], callersByGroup[it]) }.sortedByDescending { it.totalTime }
+    }
+
+    companion object {
+        /**
+         * @return the bottom-up tree of a single thread, rooted at a node standing for its thread node.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forThread(threadRoot: CaptureNode, modelTable: ModelTable = ModelTable()) =
+            BottomUpCallTree(listOf(threadRoot), threadRoot.data, modelTable)
+
+        /**
+         * @return the bottom-up tree of the given threads, rooted at a node of [AggregatedCallTree.THREADS_ROOT_MODEL].
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forThreads(threadRoots: Collection<CaptureNode>, modelTable: ModelTable = ModelTable()) =
+            BottomUpCallTree(threadRoots, AggregatedCallTree.THREADS_ROOT_MODEL, modelTable)
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.profilers.cpu.CpuCapture
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+import kotlin.math.abs
+
+/**
+ * A path of models in two call trees, e.g. of a baseline capture and of a release candidate, with the change of its times.
+ *
+ * The children of two aligned nodes are matched by hashing their [CaptureNodeModel.getId], and only when the children of the diff
+ * node are first accessed, so diffing two large captures only pays for the paths that are explored. A path missing from one of the
+ * trees has a null node on that side. Times are normalized by the duration of their capture, so captures of different lengths can be
+ * compared: a delta of 0.1 means the path takes 10% more of the comparison capture than of the baseline.
+ */
+class CallTreeDiff private constructor(val baseline: CallTreeNode?,
+                                       val comparison: CallTreeNode?,
+                                       val parent: CallTreeDiff?,
+                                       private val baselineDuration: Long,
+                                       private val comparisonDuration: Long) {
+
+    val model: CaptureNodeModel
+        get() = (comparison ?: baseline)!!.model
+
+    val baselineTotalFraction: Double
+        get() = fraction(baseline?.totalTime, baselineDuration)
+
+    val comparisonTotalFraction: Double
+        get() = fraction(comparison?.totalTime, comparisonDuration)
+
+    val baselineSelfFraction: Double
+        get() = fraction(baseline?.selfTime, baselineDuration)
+
+    val comparisonSelfFraction: Double
+        get() = fraction(comparison?.selfTime, comparisonDuration)
+
+    val totalTimeDelta: Double
+        get() = comparisonTotalFraction - baselineTotalFraction
+
+    val selfTimeDelta: Double
+        get() = comparisonSelfFraction - baselineSelfFraction
+
+    /**
+     * Children sorted by descending absolute change of total time.
+     */
+    val children: List<CallTreeDiff> by lazy {
+        val baselineChildren = baseline?.children.orEmpty().associateByTo(HashMap()) { it.model.id }
+        val diffs = ArrayList<CallTreeDiff>()
+        for (child in comparison?.children.orEmpty()) {
+            diffs.add(CallTreeDiff(baselineChildren.remove(child.model.id), child, this, baselineDuration, comparisonDuration))
+        }
+        baselineChildren.values.mapTo(diffs) { CallTreeDiff(it, null, this, baselineDuration, comparisonDuration) }
+        diffs.sortedByDescending { abs(it.totalTimeDelta) }
+    }
+
+    companion object {
+        private fun fraction(time: Long?, duration: Long) = if (time == null || duration <= 0) 0.0 else time.toDouble() / duration
+
+        /**
+         * Aligns two call trees, the durations of their captures normalizing their times.
+         */
+        @JvmStatic
+        fun of(baseline: CallTreeNode, baselineDuration: Long, comparison: CallTreeNode, comparisonDuration: Long) =
+            CallTreeDiff(baseline, comparison, null, baselineDuration, comparisonDuration)
+
+        /**
+         * Diffs the top-down call trees of all threads of two captures.
+         */
+        @JvmStatic
+        fun topDown(baseline: CpuCapture, comparison: CpuCapture) =
+            of(baseline.aggregatedCallTree.root, baseline.durationUs, comparison.aggregatedCallTree.root, comparison.durationUs)
+
+        /**
+         * Diffs the bottom-up call trees of all threads of two captures.
+         */
+        @JvmStatic
+        fun bottomUp(baseline: CpuCapture, comparison: CpuCapture) =
+            of(baseline.bottomUpCallTree.root, baseline.durationUs, comparison.bottomUpCallTree.root, comparison.durationUs)
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+
+/**
+ * A node of a call tree aggregated from capture nodes, where all the calls of a method reached through the same path of models are
+ * merged into one node. Times are measured with the clock type the capture nodes had when the tree was built.
+ */
+interface CallTreeNode {
+    val model: CaptureNodeModel
+
+    val parent: CallTreeNode?
+
+    /**
+     * Time spent in the merged calls, including their callees.
+     */
+    val totalTime: Long
+
+    /**
+     * Time spent in the merged calls but not in their callees.
+     */
+    val selfTime: Long
+
+    val sampleCount: Long
+
+    val selfSampleCount: Long
+
+    /**
+     * Number of capture nodes merged into this node.
+     */
+    val callCount: Int
+
+    /**
+     * Children sorted by descending total time. They're materialized on first access, so only the expanded part of a tree costs
+     * objects.
+     */
+    val children: List<CallTreeNode>
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.profilers.cpu.CaptureNode
+
+/**
+ * Interval index over the nodes of a thread tree, answering which nodes intersect a time range.
+ *
+ * Nodes of the same depth never overlap in the call tree of a thread, so the nodes of each depth are kept in time order with their
+ * start and end times in sorted arrays. A query binary searches the first intersecting node of each depth and then only visits
+ * intersecting nodes, i.e. it runs in O(d log n + k) for a tree of depth d. Times are those of the clock type the nodes had when the
+ * index was built.
+ */
+class CaptureNodeIntervalIndex(val root: CaptureNode) {
+
+    /**
+     * The nodes of one depth in time order. parents[i] is the position of the parent of nodes[i] in the level above.
+     */
+    private class Level(val nodes: Array<CaptureNode>, val starts: LongArray, val ends: LongArray, val parents: IntArray)
+
+    private val levels: List<Level>
+
+    init {
+        val nodesByDepth = ArrayList<ArrayList<CaptureNode>>()
+        val parentsByDepth = ArrayList<ArrayList<Int>>()
+        fun visit(node: CaptureNode, depth: Int, parent: Int) {
+            if (depth == nodesByDepth.size) {
+                nodesByDepth.add(ArrayList())
+                parentsByDepth.add(ArrayList())
+            }
+            val position = nodesByDepth[depth].size
+            nodesByDepth[depth].add(node)
+            parentsByDepth[depth].add(parent)
+            node.children.forEach { visit(it, depth + 1, position) }
+        }
+        visit(root, 0, -1)
+        levels = nodesByDepth.indices.map { depth ->
+            val nodes = nodesByDepth[depth].toTypedArray()
+            Level(nodes, LongArray(nodes.size) { nodes[it].start }, LongArray(nodes.size) { nodes[it].end }, parentsByDepth[depth].toIntArray())
+        }
+    }
+
+    /**
+     * Number of depths in the tree, the root being at depth 0.
+     */
+    val depthCount: Int
+        get() = levels.size
+
+    /**
+     * Visits the nodes intersecting the closed range [start, end], depth by depth and in time order within a depth. A node is always
+     * visited after its parent.
+     *
+     * @param visitor called with the depth of the node, its position within the depth, the position of its parent within the depth
+     *                above (-1 for the root) and the node itself
+     */
+    fun forEachIntersecting(start: Long, end: Long, visitor: (depth: Int, position: Int, parentPosition: Int, node: CaptureNode) -> Unit) {
+        for (depth in levels.indices) {
+            val level = levels[depth]
+            var position = firstEndingAtOrAfter(level.ends, start)
+            if (position == level.nodes.size || level.starts[position] > end) {
+                // Nodes intersecting the range have an intersecting parent, so there's nothing deeper either.
+                return
+            }
+            while (position < level.nodes.size && level.starts[position] <= end) {
+                visitor(depth, position, level.parents[position], level.nodes[position])
+                position++
+            }
+        }
+    }
+
+    /**
+     * @return the nodes intersecting the closed range [start, end], ordered by depth and then by time.
+     */
+    fun getIntersectingNodes(start: Long, end: Long): List<CaptureNode> {
+        val nodes = ArrayList<CaptureNode>()
+        forEachIntersecting(start, end) { _, _, _, node -> nodes.add(node) }
+        return nodes
+    }
+
+    fun getNodeCount(depth: Int) = levels[depth].nodes.size
+
+    fun getNode(depth: Int, position: Int) = levels[depth].nodes[position]
+
+    /**
+     * @return the start time of the node at the given depth and position, as indexed.
+     */
+    fun getStart(depth: Int, position: Int) = levels[depth].starts[position]
+
+    /**
+     * @return the end time of the node at the given depth and position, as indexed.
+     */
+    fun getEnd(depth: Int, position: Int) = levels[depth].ends[position]
+}
+
+/**
+ * @return the index of the first of the sorted end times that is at or after the given time, or the size of the array if none is.
+ */
+internal fun firstEndingAtOrAfter(ends: LongArray, time: Long): Int {
+    var low = 0
+    var high = ends.size
+    while (low < high) {
+        val mid = (low + high) ushr 1
+        if (ends[mid] < time) low = mid + 1 else high = mid
+    }
+    return low
+}
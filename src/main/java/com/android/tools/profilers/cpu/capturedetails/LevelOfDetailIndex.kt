@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.profilers.cpu.CaptureNode
+
+/**
+ * Answers which spans a flame chart of a thread has to draw for a time range at a given resolution, i.e. the shortest duration that
+ * is still worth drawing as a node, typically the time covered by one pixel.
+ *
+ * Nodes at least as long as the resolution are returned as is. Runs of shorter nodes of the same depth, separated by gaps shorter
+ * than the resolution, are merged into a placeholder span. To keep the cost of a query independent of the number of nodes, every
+ * depth of the [CaptureNodeIntervalIndex] is precomputed at resolutions 2, 4, 8... and a query starts from the coarsest one that is
+ * still finer than the requested resolution. Each of those has at most a couple of spans per resolution unit besides the nodes
+ * returned as is.
+ */
+class LevelOfDetailIndex(private val index: CaptureNodeIntervalIndex) {
+
+    /**
+     * A span to draw at some depth: either a single node, or a placeholder for [nodeCount] nodes too short to draw on their own.
+     */
+    class Span(val depth: Int, val start: Long, val end: Long, val node: CaptureNode?, val nodeCount: Int)
+
+    /**
+     * Spans of one depth at one resolution, in time order. positions[i] is the position within the depth of the single node of span
+     * i, or -1 for merged spans.
+     */
+    private class Level(val starts: LongArray, val ends: LongArray, val counts: IntArray, val positions: IntArray) {
+        val size: Int
+            get() = starts.size
+    }
+
+    /**
+     * For each depth, its spans at resolution 2^i at index i, the nodes themselves being at index 0. Resolutions that wouldn't
+     * merge anything more share the level of the finer one.
+     */
+    private val pyramids: List<List<Level>>
+
+    init {
+        pyramids = (0 until index.depthCount).map { depth ->
+            val count = index.getNodeCount(depth)
+            var level = Level(LongArray(count) { index.getStart(depth, it) }, LongArray(count) { index.getEnd(depth, it) },
+                              IntArray(count) { 1 }, IntArray(count) { it })
+            val levels = mutableListOf(level)
+            val extent = if (count == 0) 0 else level.ends[count - 1] - level.starts[0]
+            var resolution = 2L
+            while (resolution <= extent && level.size > 1) {
+                val merged = SpanMerger(resolution, level.size)
+                for (i in 0 until level.size) {
+                    merged.add(level.starts[i], level.ends[i], level.counts[i], level.positions[i])
+                }
+                merged.flush()
+                if (merged.size < level.size) {
+                    level = Level(merged.starts.copyOf(merged.size), merged.ends.copyOf(merged.size), merged.counts.copyOf(merged.size),
+                                  merged.positions.copyOf(merged.size))
+                }
+                levels.add(level)
+                resolution *= 2
+            }
+            levels
+        }
+    }
+
+    /**
+     * @return the spans intersecting the closed range [start, end] at the given resolution, ordered by depth and then by time.
+     */
+    fun getSpans(start: Long, end: Long, resolution: Long): List<Span> {
+        val levelIndex = if (resolution <= 1) 0 else 63 - java.lang.Long.numberOfLeadingZeros(resolution)
+        val spans = ArrayList<Span>()
+        for (depth in pyramids.indices) {
+            val levels = pyramids[depth]
+            val level = levels[minOf(levelIndex, levels.size - 1)]
+            var i = firstEndingAtOrAfter(level.ends, start)
+            if (i == level.size || level.starts[i] > end) {
+                // Deeper nodes are within the nodes of this depth, so they're out of range too.
+                break
+            }
+            val merger = SpanMerger(resolution, 0)
+            while (i < level.size && level.starts[i] <= end) {
+                merger.add(level.starts[i], level.ends[i], level.counts[i], level.positions[i])
+                i++
+            }
+            merger.flush()
+            for (j in 0 until merger.size) {
+                val spanStart = merger.starts[j]
+                val spanEnd = merger.ends[j]
+                val position = merger.positions[j]
+                val node = if (position >= 0 && spanEnd - spanStart >= resolution) index.getNode(depth, position) else null
+                spans.add(Span(depth, spanStart, spanEnd, node, merger.counts[j]))
+            }
+        }
+        return spans
+    }
+
+    /**
+     * Merges a sequence of spans in time order: consecutive spans shorter than the resolution are merged when the gap between them
+     * is shorter than the resolution as well.
+     */
+    private class SpanMerger(private val resolution: Long, capacity: Int) {
+        var size = 0
+        var starts = LongArray(maxOf(capacity, 16))
+        var ends = LongArray(starts.size)
+        var counts = IntArray(starts.size)
+        var positions = IntArray(starts.size)
+        private var pendingStart = 0L
+        private var pendingEnd = 0L
+        private var pendingCount = 0
+        private var pendingPosition = -1
+
+        fun add(start: Long, end: Long, count: Int, position: Int) {
+            val short = end - start < resolution
+            if (short && pendingCount > 0 && pendingEnd - pendingStart < resolution && start - pendingEnd < resolution) {
+                pendingEnd = maxOf(pendingEnd, end)
+                pendingCount += count
+                pendingPosition = -1
+                return
+            }
+            flush()
+            pendingStart = start
+            pendingEnd = end
+            pendingCount = count
+            pendingPosition = position
+        }
+
+        fun flush() {
+            if (pendingCount == 0) {
+                return
+            }
+            if (size == starts.size) {
+                starts = starts.copyOf(size * 2)
+                ends = ends.copyOf(size * 2)
+                counts = counts.copyOf(size * 2)
+                positions = positions.copyOf(size * 2)
+            }
+            starts[size] = pendingStart
+            ends[size] = pendingEnd
+            counts[size] = pendingCount
+            positions[size++] = pendingPosition
+            pendingCount = 0
+        }
+    }
+}
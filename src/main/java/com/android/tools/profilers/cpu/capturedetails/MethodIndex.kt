@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.profilers.cpu.CaptureNode
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+import com.android.tools.profilers.cpu.util.LongIntHashMap
+import java.util.stream.Collectors
+
+/**
+ * Inverted index from every method, by [CaptureNodeModel.getId], to the capture nodes of its calls in a set of thread trees.
+ *
+ * Threads are indexed in parallel. Each one is flattened in pre-order and its node positions are grouped by model key, so the calls
+ * of a method are found without walking the trees, and the queries below run in time proportional to the number of calls.
+ */
+class MethodIndex @JvmOverloads constructor(threadRoots: Collection<CaptureNode>, val modelTable: ModelTable = ModelTable()) {
+
+    /**
+     * The callers or callees of a method sharing a model, with the time of the calls between them and the method.
+     */
+    class Contribution(val model: CaptureNodeModel, val time: Long, val callCount: Int)
+
+    /**
+     * The direct callers and callees of a method across all threads, each sorted by descending time.
+     *
+     * The time of a caller is the time of the calls of the method it made, and the time of a callee is the time of its calls made by
+     * the method. The total time of the method counts its recursive calls once.
+     */
+    class Butterfly(val model: CaptureNodeModel,
+                    val totalTime: Long,
+                    val selfTime: Long,
+                    val callCount: Int,
+                    val threadCount: Int,
+                    val callers: List<Contribution>,
+                    val callees: List<Contribution>)
+
+    private val threads: List<ThreadIndex> =
+        threadRoots.parallelStream().map { ThreadIndex(it) }.collect(Collectors.toList())
+
+    /**
+     * @return the capture nodes of the calls of the given method, grouped by thread and in pre-order within a thread.
+     */
+    fun getNodes(model: CaptureNodeModel): List<CaptureNode> {
+        val key = modelTable.findKey(model)
+        return if (key < 0) emptyList() else threads.flatMap { thread -> thread.positionsOf(key).map { thread.nodes[it] } }
+    }
+
+    fun getButterfly(model: CaptureNodeModel): Butterfly {
+        val key = modelTable.findKey(model)
+        val callers = ContributionTable()
+        val callees = ContributionTable()
+        var totalTime = 0L
+        var selfTime = 0L
+        var callCount = 0
+        var threadCount = 0
+        for (thread in threads) {
+            val positions = thread.positionsOf(key)
+            if (positions.isEmpty()) {
+                continue
+            }
+            threadCount++
+            // Calls before this position are nested in a call counted already.
+            var outermostEnd = 0
+            for (position in positions) {
+                val node = thread.nodes[position]
+                val duration = node.duration
+                callCount++
+                selfTime += node.selfDuration
+                if (position >= outermostEnd) {
+                    totalTime += duration
+                    outermostEnd = thread.subtreeEnd[position]
+                }
+                node.parent?.let { callers.add(modelTable.keyOf(it.data), duration) }
+                node.children.forEach { callees.add(modelTable.keyOf(it.data), it.duration) }
+            }
+        }
+        return Butterfly(model, totalTime, selfTime, callCount, threadCount, callers.toContributions(), callees.toContributions())
+    }
+
+    private inner class ThreadIndex(root: CaptureNode) {
+        val nodes: Array<CaptureNode>
+        val subtreeEnd: IntArray
+
+        /**
+         * The distinct model keys of the thread, ascending, and the positions of the nodes of each of them, ascending: positions of
+         * keys[i] are in [keyOffsets[i], keyOffsets[i + 1]). Only the keys of the thread are kept, however many models the capture has.
+         */
+        private val keys: IntArray
+        private val keyOffsets: IntArray
+        private val positionsByKey: IntArray
+
+        init {
+            val flattened = ArrayList<CaptureNode>()
+            val ends = ArrayList<Int>()
+            fun flatten(node: CaptureNode) {
+                val index = flattened.size
+                flattened.add(node)
+                ends.add(0)
+                node.children.forEach(::flatten)
+                ends[index] = flattened.size
+            }
+            flatten(root)
+            nodes = flattened.toTypedArray()
+            subtreeEnd = ends.toIntArray()
+
+            // Local ids of the keys in order of first use, then ranks of the local ids in key order.
+            val localIds = LongIntHashMap()
+            val firstUseKeys = ArrayList<Int>()
+            val nodeLocalIds = IntArray(nodes.size)
+            nodes.forEachIndexed { position, node ->
+                val key = modelTable.keyOf(node.data)
+                var localId = localIds.get(key.toLong(), -1)
+                if (localId < 0) {
+                    localId = firstUseKeys.size
+                    localIds.put(key.toLong(), localId)
+                    firstUseKeys.add(key)
+                }
+                nodeLocalIds[position] = localId
+            }
+            keys = firstUseKeys.toIntArray().apply { sort() }
+            val ranks = IntArray(keys.size).also { ranks -> keys.forEachIndexed { rank, key -> ranks[localIds.get(key.toLong(), -1)] = rank } }
+            keyOffsets = IntArray(keys.size + 1)
+            nodeLocalIds.forEach { keyOffsets[ranks[it] + 1]++ }
+            for (i in 1..keys.size) keyOffsets[i] += keyOffsets[i - 1]
+            val cursor = keyOffsets.copyOf()
+            positionsByKey = IntArray(nodes.size)
+            nodeLocalIds.forEachIndexed { position, localId -> positionsByKey[cursor[ranks[localId]]++] = position }
+        }
+
+        fun positionsOf(key: Int): IntArray {
+            val rank = if (key < 0) -1 else keys.binarySearch(key)
+            return if (rank < 0) IntArray(0) else positionsByKey.copyOfRange(keyOffsets[rank], keyOffsets[rank + 1])
+        }
+    }
+
+    /**
+     * Time and call count by model key.
+     */
+    private inner class ContributionTable {
+        private val slots = LongIntHashMap()
+        private val keys = ArrayList<Int>()
+        private var times = LongArray(16)
+        private var callCounts = IntArray(16)
+
+        fun add(key: Int, time: Long) {
+            var slot = slots.get(key.toLong(), -1)
+            if (slot < 0) {
+                slot = keys.size
+                slots.put(key.toLong(), slot)
+                keys.add(key)
+                if (slot == times.size) {
+                    times = times.copyOf(slot * 2)
+                    callCounts = callCounts.copyOf(slot * 2)
+                }
+            }
+            times[slot] += time
+            callCounts[slot]++
+        }
+
+        fun toContributions() =
+            keys.indices.map { Contribution(modelTable.getModel(keys[it]), times[it], callCounts[it]) }.sortedByDescending { it.time }
+    }
+}
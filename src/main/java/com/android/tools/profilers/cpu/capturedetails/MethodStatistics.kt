@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.profilers.cpu.CaptureNode
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+import com.android.tools.profilers.cpu.util.LongIntHashMap
+
+/**
+ * Statistics of every distinct method, by [CaptureNodeModel.getId], called in a set of thread trees. Thread nodes themselves aren't
+ * methods and aren't counted.
+ *
+ * Each thread is walked once, in parallel, into its own table of primitive columns with a row per method it calls, and the tables
+ * are then merged pairwise in parallel, by model key. The total time of a method only counts its outermost calls: a per-method
+ * counter of the calls on the current stack tells whether a call is nested in another call of the same method.
+ *
+ * The statistics are laid out in rows, one per method, in no particular order.
+ */
+class MethodStatistics @JvmOverloads constructor(threadRoots: Collection<CaptureNode>, val modelTable: ModelTable = ModelTable()) {
+
+    private val modelKeys: IntArray
+    private val totalTimes: LongArray
+    private val selfTimes: LongArray
+    private val durationSums: LongArray
+    private val invocationCounts: IntArray
+    private val minDurations: LongArray
+    private val maxDurations: LongArray
+    private val threadCounts: IntArray
+
+    init {
+        val table = threadRoots.parallelStream().map { root -> Table().apply { addThread(root) } }.reduce { a, b -> a.merge(b) }
+            .orElseGet(::Table)
+        val rows = (0 until table.size).sortedBy { table.modelKeys[it] }.toIntArray()
+        modelKeys = IntArray(rows.size) { table.modelKeys[rows[it]] }
+        totalTimes = LongArray(rows.size) { table.totalTimes[rows[it]] }
+        selfTimes = LongArray(rows.size) { table.selfTimes[rows[it]] }
+        durationSums = LongArray(rows.size) { table.durationSums[rows[it]] }
+        invocationCounts = IntArray(rows.size) { table.invocationCounts[rows[it]] }
+        minDurations = LongArray(rows.size) { table.minDurations[rows[it]] }
+        maxDurations = LongArray(rows.size) { table.maxDurations[rows[it]] }
+        threadCounts = IntArray(rows.size) { table.threadCounts[rows[it]] }
+    }
+
+    val methodCount: Int
+        get() = modelKeys.size
+
+    /**
+     * @return the row of the given method, or -1 if it isn't called in the trees.
+     */
+    fun findRow(model: CaptureNodeModel): Int {
+        // Rows are in ascending key order.
+        val key = modelTable.findKey(model)
+        return if (key < 0) -1 else maxOf(modelKeys.binarySearch(key), -1)
+    }
+
+    fun getModel(row: Int) = modelTable.getModel(modelKeys[row])
+
+    /**
+     * @return time spent in the method, including its callees, counting recursive calls once.
+     */
+    fun getTotalTime(row: Int) = totalTimes[row]
+
+    fun getSelfTime(row: Int) = selfTimes[row]
+
+    fun getInvocationCount(row: Int) = invocationCounts[row]
+
+    fun getMinDuration(row: Int) = minDurations[row]
+
+    fun getMaxDuration(row: Int) = maxDurations[row]
+
+    /**
+     * @return the average duration of a call, counting the full duration of nested recursive calls.
+     */
+    fun getAverageDuration(row: Int) = durationSums[row].toDouble() / invocationCounts[row]
+
+    /**
+     * @return the number of threads calling the method.
+     */
+    fun getThreadCount(row: Int) = threadCounts[row]
+
+    /**
+     * Columns with a row per method called, in order of first call, and the row of each model key. A thread fills a table of its own,
+     * which starts with a thread count of 1 for every method it calls. Tables only hold the methods they saw, so a thread calling a
+     * few methods of a capture with many models stays small, and tables are merged row by row.
+     */
+    private inner class Table {
+        private val rowsByKey = LongIntHashMap()
+        var size = 0
+        var modelKeys = IntArray(INITIAL_CAPACITY)
+        var totalTimes = LongArray(INITIAL_CAPACITY)
+        var selfTimes = LongArray(INITIAL_CAPACITY)
+        var durationSums = LongArray(INITIAL_CAPACITY)
+        var invocationCounts = IntArray(INITIAL_CAPACITY)
+        var minDurations = LongArray(INITIAL_CAPACITY)
+        var maxDurations = LongArray(INITIAL_CAPACITY)
+        var threadCounts = IntArray(INITIAL_CAPACITY)
+
+        fun addThread(root: CaptureNode) {
+            // Number of calls of each method on the current stack, by row.
+            var activeCalls = IntArray(INITIAL_CAPACITY)
+            fun visit(node: CaptureNode) {
+                val row = rowOf(modelTable.keyOf(node.data))
+                if (activeCalls.size <= row) {
+                    activeCalls = activeCalls.copyOf(modelKeys.size)
+                }
+                val duration = node.duration
+                if (activeCalls[row] == 0) {
+                    totalTimes[row] += duration
+                }
+                if (invocationCounts[row] == 0) {
+                    minDurations[row] = duration
+                    maxDurations[row] = duration
+                    threadCounts[row] = 1
+                } else {
+                    minDurations[row] = minOf(minDurations[row], duration)
+                    maxDurations[row] = maxOf(maxDurations[row], duration)
+                }
+                selfTimes[row] += node.selfDuration
+                durationSums[row] += duration
+                invocationCounts[row]++
+                activeCalls[row]++
+                node.children.forEach(::visit)
+                activeCalls[row]--
+            }
+            root.children.forEach(::visit)
+        }
+
+        fun merge(other: Table): Table {
+            for (otherRow in 0 until other.size) {
+                val row = rowOf(other.modelKeys[otherRow])
+                if (invocationCounts[row] == 0) {
+                    minDurations[row] = other.minDurations[otherRow]
+                    maxDurations[row] = other.maxDurations[otherRow]
+                } else {
+                    minDurations[row] = minOf(minDurations[row], other.minDurations[otherRow])
+                    maxDurations[row] = maxOf(maxDurations[row], other.maxDurations[otherRow])
+                }
+                totalTimes[row] += other.totalTimes[otherRow]
+                selfTimes[row] += other.selfTimes[otherRow]
+                durationSums[row] += other.durationSums[otherRow]
+                invocationCounts[row] += other.invocationCounts[otherRow]
+                threadCounts[row] += other.threadCounts[otherRow]
+            }
+            return this
+        }
+
+        /**
+         * @return the row of the given model key, added empty if the table doesn't have one yet.
+         */
+        private fun rowOf(key: Int): Int {
+            val existing = rowsByKey.get(key.toLong(), -1)
+            if (existing >= 0) {
+                return existing
+            }
+            if (size == modelKeys.size) {
+                val capacity = size * 2
+                modelKeys = modelKeys.copyOf(capacity)
+                totalTimes = totalTimes.copyOf(capacity)
+                selfTimes = selfTimes.copyOf(capacity)
+                durationSums = durationSums.copyOf(capacity)
+                invocationCounts = invocationCounts.copyOf(capacity)
+                minDurations = minDurations.copyOf(capacity)
+                maxDurations = maxDurations.copyOf(capacity)
+                threadCounts = threadCounts.copyOf(capacity)
+            }
+            modelKeys[size] = key
+            rowsByKey.put(key.toLong(), size)
+            return size++
+        }
+    }
+
+    private companion object {
+        const val INITIAL_CAPACITY = 64
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Assigns a dense int key to every distinct [CaptureNodeModel.getId], so the aggregation engines can key their primitive tables by
+ * model instead of hashing id strings over and over. Keys are assigned in order of first use, starting at 0, and the first model
+ * seen with an id represents it. Safe to use from several threads.
+ *
+ * A parser assigns the [CaptureNodeModel.getDenseId] of its models with the table of its capture, created with [usesDenseIds], whose
+ * key for a model with a dense id is that id, without looking at its id string.
+ */
+class ModelTable @JvmOverloads constructor(
+    /**
+     * Whether the dense ids of the models are keys of this table, i.e. the models given to this table with a dense id were assigned
+     * it by this table.
+     */
+    private val usesDenseIds: Boolean = false) {
+    private val keys = ConcurrentHashMap<String, Int>()
+    private val models = ArrayList<CaptureNodeModel>()
+
+    val size: Int
+        @Synchronized get() = models.size
+
+    fun keyOf(model: CaptureNodeModel): Int {
+        val denseId = model.denseId
+        if (usesDenseIds && denseId >= 0) {
+            return denseId
+        }
+        return keys[model.id] ?: synchronized(this) {
+            keys.getOrPut(model.id) { models.size.also { models.add(model) } }
+        }
+    }
+
+    /**
+     * @return the key of the given model, or -1 if it doesn't have one yet.
+     */
+    fun findKey(model: CaptureNodeModel): Int {
+        val denseId = model.denseId
+        return if (usesDenseIds && denseId >= 0) denseId else keys[model.id] ?: -1
+    }
+
+    /**
+     * @return the key of the models with the given [CaptureNodeModel.getId], or -1 if none was given to this table yet.
+     */
+    fun findKey(id: String): Int = keys[id] ?: -1
+
+    @Synchronized
+    fun getModel(key: Int): CaptureNodeModel = models[key]
+}
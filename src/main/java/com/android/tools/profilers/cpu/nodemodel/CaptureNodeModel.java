@@ -23,6 +23,11 @@ import org.jetbrains.annotations.Nullable;
  */
 public interface CaptureNodeModel {
 
+    /**
+     * Dense id of the models that weren't assigned one, see {@link #getDenseId()}.
+     */
+    int NO_DENSE_ID = -1;
+
     /**
      * @return a tag for the purpose of collapsing into coarser nodes
      */
@@ -55,4 +60,14 @@ public interface CaptureNodeModel {
 
     @NotNull
     String getId();
+
+    /**
+     * @return a small int identifying the models with the same {@link #getId()} in a capture, assigned by its parser from 0 up, or
+     * {@link #NO_DENSE_ID} if the parser didn't assign one. The ids are the keys of the
+     * {@link com.android.tools.profilers.cpu.capturedetails.ModelTable} of the capture, so aggregations can key arrays and primitive
+     * maps by model without building and hashing id strings. They only identify models within the capture they were parsed in.
+     */
+    default int getDenseId() {
+        return NO_DENSE_ID;
+    }
 }
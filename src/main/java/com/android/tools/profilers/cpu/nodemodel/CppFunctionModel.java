@@ -73,6 +73,7 @@ public class CppFunctionModel extends NativeNodeModel {
         myFileName = builder.myFileName;
         myVAddress = builder.myVAddress;
         myTag = builder.myTag;
+        myDenseId = builder.myDenseId;
     }
 
     @NotNull
@@ -143,6 +144,7 @@ public class CppFunctionModel extends NativeNodeModel {
         private String myFileName;
         private long myVAddress;
         private String myTag;
+        private int myDenseId = NO_DENSE_ID;
 
         public Builder(@NotNull String name) {
             myName = name;
@@ -180,6 +182,11 @@ public class CppFunctionModel extends NativeNodeModel {
             return this;
         }
 
+        public Builder setDenseId(int denseId) {
+            myDenseId = denseId;
+            return this;
+        }
+
         public CppFunctionModel build() {
             return new CppFunctionModel(this);
         }
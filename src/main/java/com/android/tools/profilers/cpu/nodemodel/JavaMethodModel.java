@@ -44,10 +44,20 @@ public class JavaMethodModel implements CaptureNodeModel {
 
     private String myId;
 
+    private final int myDenseId;
+
     public JavaMethodModel(@NotNull String name, @NotNull String className, @NotNull String signature) {
+        this(name, className, signature, NO_DENSE_ID);
+    }
+
+    /**
+     * @param denseId the dense id of the model in its capture, see {@link #getDenseId()}.
+     */
+    public JavaMethodModel(@NotNull String name, @NotNull String className, @NotNull String signature, int denseId) {
         myName = name;
         myClassName = className;
         mySignature = signature;
+        myDenseId = denseId;
     }
 
     JavaMethodModel(@NotNull String name, @NotNull String className) {
@@ -92,4 +102,9 @@ public class JavaMethodModel implements CaptureNodeModel {
         }
         return myId;
     }
+
+    @Override
+    public int getDenseId() {
+        return myDenseId;
+    }
 }
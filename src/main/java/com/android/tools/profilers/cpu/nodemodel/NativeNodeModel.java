@@ -22,6 +22,8 @@ public abstract class NativeNodeModel implements CaptureNodeModel {
 
     protected String myName;
 
+    protected int myDenseId = NO_DENSE_ID;
+
     @NotNull
     @Override
     public String getName() {
@@ -39,4 +41,9 @@ public abstract class NativeNodeModel implements CaptureNodeModel {
     public String getId() {
         return myName;
     }
+
+    @Override
+    public int getDenseId() {
+        return myDenseId;
+    }
 }
@@ -30,6 +30,20 @@ public class NoSymbolModel extends NativeNodeModel {
 
     @NotNull private final String myTag;
 
+    /**
+     * Where the instruction is, so it can be symbolized later: the ELF file containing it, or null if unknown, and its virtual address
+     * in the file.
+     */
+    private final String myFileName;
+    private final long myVAddressInFile;
+
+    /**
+     * Virtual address of the instruction calling into the next function of the call chain, like {@link CppFunctionModel#getVAddress()}.
+     */
+    private final long myVAddress;
+
+    private final boolean myIsUserCode;
+
     /**
      * @param tag a tag as a coarser specification of this node, used for collapsing
      * @param name the name to display this symbol by
@@ -38,6 +52,46 @@ public class NoSymbolModel extends NativeNodeModel {
         myName = name;
         myKernel = name.startsWith(KERNEL_ELF);
         myTag = tag;
+        myFileName = null;
+        myVAddressInFile = -1;
+        myVAddress = -1;
+        myIsUserCode = false;
+    }
+
+    /**
+     * @param fileName the ELF file containing the instruction, which is also the tag of the model
+     * @param name the name to display this symbol by
+     * @param vAddressInFile virtual address of the instruction in {@code fileName}
+     * @param vAddress virtual address of the instruction calling into the next function of the call chain
+     * @param isUserCode whether the file is part of the user-written code
+     * @param denseId the dense id of the model in its capture, see {@link #getDenseId()}
+     */
+    public NoSymbolModel(@NotNull String fileName, @NotNull String name, long vAddressInFile, long vAddress, boolean isUserCode,
+                         int denseId) {
+        myName = name;
+        myKernel = name.startsWith(KERNEL_ELF);
+        myTag = fileName;
+        myFileName = fileName;
+        myVAddressInFile = vAddressInFile;
+        myVAddress = vAddress;
+        myIsUserCode = isUserCode;
+        myDenseId = denseId;
+    }
+
+    public String getFileName() {
+        return myFileName;
+    }
+
+    public long getVAddressInFile() {
+        return myVAddressInFile;
+    }
+
+    public long getVAddress() {
+        return myVAddress;
+    }
+
+    public boolean isUserCode() {
+        return myIsUserCode;
     }
 
     public boolean isKernel() {
@@ -25,8 +25,18 @@ public class SingleNameModel implements CaptureNodeModel {
 
     @NotNull private final String myName;
 
+    private final int myDenseId;
+
     public SingleNameModel(@NotNull String name) {
+        this(name, NO_DENSE_ID);
+    }
+
+    /**
+     * @param denseId the dense id of the model in its capture, see {@link #getDenseId()}.
+     */
+    public SingleNameModel(@NotNull String name, int denseId) {
         myName = name;
+        myDenseId = denseId;
     }
 
     @Override
@@ -46,4 +56,9 @@ public class SingleNameModel implements CaptureNodeModel {
     public String getId() {
         return myName;
     }
+
+    @Override
+    public int getDenseId() {
+        return myDenseId;
+    }
 }
@@ -29,8 +29,16 @@ public class SyscallModel extends NativeNodeModel {
      * @param name the name to display this symbol by
      */
     public SyscallModel(String tag, String name) {
+        this(tag, name, NO_DENSE_ID);
+    }
+
+    /**
+     * @param denseId the dense id of the model in its capture, see {@link #getDenseId()}
+     */
+    public SyscallModel(String tag, String name, int denseId) {
         myTag = tag;
         myName = name;
+        myDenseId = denseId;
     }
 
     @Override
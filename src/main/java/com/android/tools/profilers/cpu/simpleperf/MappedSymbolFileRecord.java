@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf;
+
+import com.android.tools.profiler.proto.SimpleperfReport;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link SimpleperfReport.File} record read in place from the buffer of a trace file, typically memory-mapped. Its symbols are kept
+ * as the offset and length of their UTF-8 bytes in the buffer, and only decoded into a {@link String} when requested.
+ *
+ * Symbol tables of large libraries (libart, libhwui, the kernel) have tens of thousands of symbols of which a capture references a
+ * handful, so decoding all of them up front, as parsing the record would, dominates the heap of short captures.
+ */
+final class MappedSymbolFileRecord implements SymbolFileRecord {
+
+    /**
+     * Tag of the {@code file} field of a {@code Record} message, which starts the bytes of a record holding a file.
+     */
+    private static final int RECORD_FILE_TAG = 3 << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int FILE_ID_FIELD = 1;
+    private static final int FILE_PATH_FIELD = 2;
+    private static final int FILE_SYMBOL_FIELD = 3;
+
+    @NotNull private final ByteBuffer myBuffer;
+    private final int myId;
+    @NotNull private final String myPath;
+    @NotNull private final int[] mySymbolOffsets;
+    @NotNull private final int[] mySymbolLengths;
+
+    private MappedSymbolFileRecord(@NotNull ByteBuffer buffer, int id, @NotNull String path, @NotNull int[] symbolOffsets,
+                                   @NotNull int[] symbolLengths) {
+        myBuffer = buffer;
+        myId = id;
+        myPath = path;
+        mySymbolOffsets = symbolOffsets;
+        mySymbolLengths = symbolLengths;
+    }
+
+    /**
+     * @return whether the record of the given size at the given offset of the buffer holds a file.
+     */
+    static boolean isFileRecord(@NotNull ByteBuffer buffer, int offset, int size) {
+        return size > 0 && buffer.get(offset) == RECORD_FILE_TAG;
+    }
+
+    /**
+     * Reads the file held by the record of the given size at the given offset of the buffer, see {@link #isFileRecord}. The buffer
+     * must not change while symbols are read from the returned record.
+     */
+    @NotNull
+    static MappedSymbolFileRecord parse(@NotNull ByteBuffer buffer, int offset, int size) throws IOException {
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset);
+        record.limit(offset + size);
+        CodedInputStream input = CodedInputStream.newInstance(record);
+        if (input.readTag() != RECORD_FILE_TAG) {
+            throw new IllegalStateException("Record at offset " + offset + " doesn't hold a file.");
+        }
+        int fileSize = input.readRawVarint32();
+        int fileEnd = input.getTotalBytesRead() + fileSize;
+
+        int id = 0;
+        String path = "";
+        int symbolCount = 0;
+        int[] symbolOffsets = new int[16];
+        int[] symbolLengths = new int[16];
+        while (input.getTotalBytesRead() < fileEnd) {
+            int tag = input.readTag();
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case FILE_ID_FIELD:
+                    id = input.readUInt32();
+                    break;
+                case FILE_PATH_FIELD:
+                    path = input.readStringRequireUtf8();
+                    break;
+                case FILE_SYMBOL_FIELD:
+                    int length = input.readRawVarint32();
+                    if (symbolCount == symbolOffsets.length) {
+                        symbolOffsets = Arrays.copyOf(symbolOffsets, symbolCount * 2);
+                        symbolLengths = Arrays.copyOf(symbolLengths, symbolCount * 2);
+                    }
+                    symbolOffsets[symbolCount] = offset + input.getTotalBytesRead();
+                    symbolLengths[symbolCount++] = length;
+                    input.skipRawBytes(length);
+                    break;
+                default:
+                    input.skipField(tag);
+            }
+        }
+        return new MappedSymbolFileRecord(buffer.duplicate(), id, path, Arrays.copyOf(symbolOffsets, symbolCount),
+                                          Arrays.copyOf(symbolLengths, symbolCount));
+    }
+
+    @Override
+    public int getId() {
+        return myId;
+    }
+
+    @NotNull
+    @Override
+    public String getPath() {
+        return myPath;
+    }
+
+    @Override
+    public int getSymbolCount() {
+        return mySymbolOffsets.length;
+    }
+
+    @NotNull
+    @Override
+    public String getSymbol(int symbolId) {
+        byte[] bytes = new byte[mySymbolLengths[symbolId]];
+        ByteBuffer symbol = myBuffer.duplicate();
+        symbol.position(mySymbolOffsets[symbolId]);
+        symbol.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
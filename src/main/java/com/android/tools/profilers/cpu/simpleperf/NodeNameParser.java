@@ -16,28 +16,39 @@
 package com.android.tools.profilers.cpu.simpleperf;
 
 import com.android.tools.profilers.cpu.nodemodel.*;
+import com.android.tools.profilers.cpu.simpleperf.symbols.ProguardMapping;
 import java.util.Arrays;
-import java.util.stream.IntStream;
+import java.util.Map;
 import org.jetbrains.annotations.NotNull;
-
-import java.util.regex.Pattern;
 import org.jetbrains.annotations.Nullable;
 
 /**
  * Responsible for parsing full method/function names (String) obtained from symbol tables collected when profiling using simpleperf.
  * The names are parsed into {@link CaptureNodeModel} instances containing the class name, method name and signature.
+ *
+ * A name is parsed in a single left-to-right walk that finds the boundaries of its fields, and substrings are only created for the
+ * fields of the resulting model. The fields are kept in a {@link ParsedName}, so models of a symbol referenced over and over can be
+ * created without parsing its name again.
  */
 public class NodeNameParser {
 
-    private static final Pattern JAVA_SEPARATOR_PATTERN = Pattern.compile("\\.");
-
     private static final String[] COMMON_PATH_PREFIXES = {"/apex/", "/system/", "/vendor/"};
     private static final String[] COMMON_PATH_PREFIXES_DISPLAY = {"/apex/*", "/system/*", "/vendor/*"};
 
+    private static final String OPERATOR = "operator";
+
     private static Logger getLogger() {
         return Logger.getInstance(NodeNameParser.class);
     }
 
+    /**
+     * Parses a full symbol name into the fields its models are created from, see {@link #parseNodeName(String, boolean, String, long)}.
+     */
+    @NotNull
+    static ParsedName parseName(@NotNull String fullName) {
+        return ParsedName.of(fullName, new SymbolScan(fullName));
+    }
+
     /**
      * Parses a string representing a full symbol name into its corresponding model. For example:
      * "namespace::Class::Fun<int>(params)" is parsed into a {@link CppFunctionModel}
@@ -50,18 +61,7 @@ public class NodeNameParser {
      * @param vAddress      virtual address of the instruction in {@code fileName}.
      */
     static CaptureNodeModel parseNodeName(@NotNull String fullName, boolean isUserWritten, @Nullable String fileName, long vAddress) {
-        // C/C++ methods are represented as "Namespace::Class::MethodName()" in simpleperf. Check for the presence of "(".
-        if (fullName.contains("(")) {
-            return createCppFunctionModel(fullName, isUserWritten, fileName, vAddress);
-        }
-        else if (fullName.contains(".")) {
-            // Method is in the format "java.package.Class.method". Parse it into a JavaMethodModel.
-            return createJavaMethodModel(fullName);
-        }
-        else {
-            // Node represents a syscall.
-            return new SyscallModel(tagFromFileName(fileName), fullName);
-        }
+        return parseName(fullName).toModel(isUserWritten, fileName, tagFromFileName(fileName), vAddress);
     }
 
     static CaptureNodeModel parseNodeName(@NotNull String fullName, boolean isUserWritten) {
@@ -75,95 +75,287 @@ public class NodeNameParser {
      */
     @NotNull
     public static CppFunctionModel createCppFunctionModel(String functionFullName, boolean isUserWritten, String fileName, long vAddress) {
-        // First, extract the function parameters, which should be between the matching '(' and  the last index of ')' parentheses.
-        String parameters = "";
-        int paramsEndIndex = functionFullName.lastIndexOf(')');
-        if (paramsEndIndex != -1) {
-            int paramsStartIndex = findMatchingOpeningParenthesisIndex(functionFullName, paramsEndIndex);
-            if (paramsStartIndex > 0) {
-                // Make sure not to include the indexes of "(" and ")" when creating the parameters substring.
-                parameters = functionFullName.substring(paramsStartIndex + 1, paramsEndIndex);
-                // Remove the parameters and everything that comes after it, such as const/volatile modifiers.
-                functionFullName = functionFullName.substring(0, paramsStartIndex);
+        return ParsedName.cppName(functionFullName, new SymbolScan(functionFullName))
+                .toCppFunctionModel(isUserWritten, fileName, tagFromFileName(fileName), vAddress);
+    }
+
+    @NotNull
+    public static CppFunctionModel createCppFunctionModel(String functionFullName, boolean isUserWritten) {
+        return createCppFunctionModel(functionFullName, isUserWritten, null, -1);
+    }
+
+    /**
+     * Boundaries of the fields of a full name, found in a single walk over its characters.
+     *
+     * C/C++ names are in the format "[return type ]namespace::Class::Fun(params)[ const]", possibly with template information between
+     * angle brackets anywhere. The parameters are between the last ')' and its matching '(', the return type is separated by the first
+     * space outside of template information and the name by the last "::" outside of template information. Parentheses being nested,
+     * the last "::" seen before each '(' is kept along with it, so the separator before the parameters is known once they're found.
+     *
+     * Java names are in the format "java.package.Class.method", the method name being after the last '.' (trailing dots aside).
+     */
+    private static final class SymbolScan {
+        boolean hasParenthesis;
+        boolean hasDot;
+
+        /**
+         * Index of the '(' and ')' around the parameters, or -1 if the name has no parameters.
+         */
+        int paramsStart = -1;
+        int paramsEnd = -1;
+
+        /**
+         * Start and end of the function name, including its class or namespace.
+         */
+        int nameStart;
+        int nameEnd;
+
+        /**
+         * Index of the "::" separating the class or namespace from the function name, or -1 if there is none.
+         */
+        int separator = -1;
+
+        /**
+         * Index of the '.' separating the class name from the method name and end of the method name, for Java names.
+         */
+        int javaSeparator = -1;
+        int javaNameEnd;
+
+        SymbolScan(@NotNull String name) {
+            int length = name.length();
+            int angleDepth = 0;
+            int firstSpace = -1;
+            int lastSeparator = -1;
+            // The '(' not closed yet, and the last "::" seen before each of them.
+            int[] openParentheses = null;
+            int[] separatorsBeforeOpen = null;
+            int openCount = 0;
+            int separatorBeforeParams = -1;
+            int lastParenthesisClose = -1;
+            int lastDot = -1;
+
+            for (int i = 0; i < length; i++) {
+                char ch = name.charAt(i);
+                switch (ch) {
+                    case '<':
+                        angleDepth++;
+                        break;
+                    case '>':
+                        angleDepth--;
+                        break;
+                    case ' ':
+                        if (angleDepth == 0 && firstSpace < 0) {
+                            firstSpace = i;
+                        }
+                        break;
+                    case ':':
+                        if (angleDepth == 0 && i > 0 && name.charAt(i - 1) == ':') {
+                            lastSeparator = i - 1;
+                        }
+                        break;
+                    case '.':
+                        hasDot = true;
+                        lastDot = i;
+                        break;
+                    case '(':
+                        hasParenthesis = true;
+                        if (openParentheses == null) {
+                            openParentheses = new int[4];
+                            separatorsBeforeOpen = new int[4];
+                        }
+                        else if (openCount == openParentheses.length) {
+                            openParentheses = Arrays.copyOf(openParentheses, openCount * 2);
+                            separatorsBeforeOpen = Arrays.copyOf(separatorsBeforeOpen, openCount * 2);
+                        }
+                        openParentheses[openCount] = i;
+                        separatorsBeforeOpen[openCount++] = lastSeparator;
+                        break;
+                    case ')':
+                        lastParenthesisClose = i;
+                        if (openCount > 0) {
+                            openCount--;
+                            paramsStart = openParentheses[openCount];
+                            separatorBeforeParams = separatorsBeforeOpen[openCount];
+                        }
+                        else {
+                            paramsStart = -1;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                if (ch != '.') {
+                    javaSeparator = lastDot;
+                    javaNameEnd = i + 1;
+                }
+            }
+
+            if (lastParenthesisClose >= 0 && paramsStart < 0) {
+                getLogger().warn(String.format("Native function signature (%s) without matching parentheses.", name));
+            }
+            // A name starting with its parameters keeps them.
+            if (paramsStart > 0) {
+                paramsEnd = lastParenthesisClose;
+                nameEnd = paramsStart;
+                lastSeparator = separatorBeforeParams;
+            }
+            else {
+                paramsStart = -1;
+                nameEnd = length;
+            }
+
+            // The space in "operator bool()" or "someNamespace::operator bool()" doesn't separate a return type.
+            if (firstSpace >= 0 && firstSpace < nameEnd && !isOperatorKeywordEnd(name, firstSpace)) {
+                nameStart = firstSpace + 1;
+            }
+            if (lastSeparator >= nameStart) {
+                separator = lastSeparator;
             }
         }
+    }
 
-        // Then, strip out the return type, we assume that the return type is separated by the first space,
-        // however the space in "operator bool()" or "someNamespace::operator bool()" is an exception.
-        int returnTypeSeparatorIndex = separatorIndexOutsideOfTemplateInfo(functionFullName, " ", false);
-        if (returnTypeSeparatorIndex >= 0) {
-            String returnType = functionFullName.substring(0, returnTypeSeparatorIndex);
-            if (!returnType.equals("operator") && !returnType.endsWith("::operator")) {
-                functionFullName = functionFullName.substring(returnTypeSeparatorIndex + 1);
+    /**
+     * Fields of a parsed full name, from which models are created.
+     */
+    static final class ParsedName {
+        enum Kind {
+            CPP_FUNCTION, JAVA_METHOD, SYSCALL
+        }
+
+        @NotNull final Kind myKind;
+        @NotNull final String myName;
+        @NotNull final String myClassName;
+        @NotNull final String myParameters;
+
+        private ParsedName(@NotNull Kind kind, @NotNull String name, @NotNull String className, @NotNull String parameters) {
+            myKind = kind;
+            myName = name;
+            myClassName = className;
+            myParameters = parameters;
+        }
+
+        @NotNull
+        static ParsedName of(@NotNull String fullName, @NotNull SymbolScan scan) {
+            // C/C++ methods are represented as "Namespace::Class::MethodName()" in simpleperf. Check for the presence of "(".
+            if (scan.hasParenthesis) {
+                return cppName(fullName, scan);
+            }
+            else if (scan.hasDot) {
+                // Method is in the format "java.package.Class.method".
+                String className = scan.javaSeparator < 0 ? "" : fullName.substring(0, scan.javaSeparator);
+                return new ParsedName(Kind.JAVA_METHOD, fullName.substring(scan.javaSeparator + 1, scan.javaNameEnd), className, "");
+            }
+            else {
+                // Node represents a syscall.
+                return new ParsedName(Kind.SYSCALL, fullName, "", "");
             }
         }
 
-        String name = functionFullName;
-        String classOrNamespace = "";
+        @NotNull
+        static ParsedName cppName(@NotNull String fullName, @NotNull SymbolScan scan) {
+            int nameStart = scan.separator < 0 ? scan.nameStart : scan.separator + 2;
+            String name = isOperatorOverload(fullName, nameStart, scan.nameEnd)
+                          ? fullName.substring(nameStart, scan.nameEnd)
+                          : removeTemplateInfo(fullName, nameStart, scan.nameEnd);
+            String classOrNamespace = scan.separator < 0 ? "" : removeTemplateInfo(fullName, scan.nameStart, scan.separator);
+            String parameters = scan.paramsStart < 0 ? "" : removeTemplateInfo(fullName, scan.paramsStart + 1, scan.paramsEnd);
+            return new ParsedName(Kind.CPP_FUNCTION, name, classOrNamespace, parameters);
+        }
 
-        int methodNameSeparatorIndex = separatorIndexOutsideOfTemplateInfo(functionFullName, "::", true);
-        if (methodNameSeparatorIndex != -1) {
-            classOrNamespace = functionFullName.substring(0, methodNameSeparatorIndex);
-            name = functionFullName.substring(methodNameSeparatorIndex + 2);
+        /**
+         * @param internedNames equal strings by string, to which strings not found yet are added.
+         * @return the same name with fields equal to a string of {@code internedNames} replaced by that string.
+         */
+        @NotNull
+        ParsedName intern(@NotNull Map<String, String> internedNames) {
+            return new ParsedName(myKind, intern(myName, internedNames), intern(myClassName, internedNames),
+                                  intern(myParameters, internedNames));
         }
 
-        return new CppFunctionModel.Builder(isOperatorOverload(name) ? name : removeTemplateInfo(name))
-                .setClassOrNamespace(removeTemplateInfo(classOrNamespace))
-                .setIsUserCode(isUserWritten)
-                .setParameters(removeTemplateInfo(parameters))
-                .setFileName(fileName)
-                .setTag(tagFromFileName(fileName))
-                .setVAddress(vAddress)
-                .build();
-    }
+        @NotNull
+        private static String intern(@NotNull String string, @NotNull Map<String, String> internedNames) {
+            String interned = internedNames.putIfAbsent(string, string);
+            return interned == null ? string : interned;
+        }
 
-    @NotNull
-    public static CppFunctionModel createCppFunctionModel(String functionFullName, boolean isUserWritten) {
-        return createCppFunctionModel(functionFullName, isUserWritten, null, -1);
+        /**
+         * @return the name with its original class and method names if it's an obfuscated Java name of the mapping, or the name itself.
+         */
+        @NotNull
+        ParsedName deobfuscatedBy(@NotNull ProguardMapping mapping) {
+            if (myKind != Kind.JAVA_METHOD) {
+                return this;
+            }
+            String originalName = mapping.getOriginalMethodName(myClassName, myName);
+            return originalName == null ? this : parseName(originalName);
+        }
+
+        /**
+         * @param tag the tag of {@code fileName}, see {@link #tagFromFileName(String)}.
+         */
+        @NotNull
+        CaptureNodeModel toModel(boolean isUserWritten, @Nullable String fileName, @Nullable String tag, long vAddress) {
+            return toModel(isUserWritten, fileName, tag, vAddress, CaptureNodeModel.NO_DENSE_ID);
+        }
+
+        /**
+         * @param denseId the dense id of the model in its capture, see {@link CaptureNodeModel#getDenseId()}.
+         */
+        @NotNull
+        CaptureNodeModel toModel(boolean isUserWritten, @Nullable String fileName, @Nullable String tag, long vAddress, int denseId) {
+            switch (myKind) {
+                case JAVA_METHOD:
+                    return new JavaMethodModel(myName, myClassName, "", denseId);
+                case SYSCALL:
+                    return new SyscallModel(tag, myName, denseId);
+                default:
+                    return toCppFunctionModel(isUserWritten, fileName, tag, vAddress, denseId);
+            }
+        }
+
+        @NotNull
+        CppFunctionModel toCppFunctionModel(boolean isUserWritten, @Nullable String fileName, @Nullable String tag, long vAddress) {
+            return toCppFunctionModel(isUserWritten, fileName, tag, vAddress, CaptureNodeModel.NO_DENSE_ID);
+        }
+
+        @NotNull
+        private CppFunctionModel toCppFunctionModel(boolean isUserWritten, @Nullable String fileName, @Nullable String tag, long vAddress,
+                                                    int denseId) {
+            return new CppFunctionModel.Builder(myName)
+                    .setClassOrNamespace(myClassName)
+                    .setIsUserCode(isUserWritten)
+                    .setParameters(myParameters)
+                    .setFileName(fileName)
+                    .setTag(tag)
+                    .setVAddress(vAddress)
+                    .setDenseId(denseId)
+                    .build();
+        }
     }
 
     /**
-     * @param functionFullName - a function full name where to search for the occurrence index.
-     * @param separator        - a separator which should be searched.
-     * @param lastIndex        - whether to return the last occurrence index or the first.
-     * @return occurrence index of {@param separator} which is outside of all CPP templates in the given {@param functionFullName}.
+     * @return whether the given index is right after the "operator" keyword, e.g. the space in "operator bool" or "ns::operator bool".
      */
-    private static int separatorIndexOutsideOfTemplateInfo(String functionFullName, String separator, boolean lastIndex) {
-        int open = 0;
-        int lastOccurrenceIndex = -1;
-        for (int index = 0; index <= functionFullName.length() - separator.length(); index++) {
-            char ch = functionFullName.charAt(index);
-            if (ch == '<') {
-                ++open;
-            }
-            else if (ch == '>') {
-                --open;
-            }
-            else if (open == 0 && functionFullName.startsWith(separator, index)) {
-                if (!lastIndex) {
-                    return index;
-                }
-                lastOccurrenceIndex = index;
-            }
-        }
-        return lastOccurrenceIndex;
+    private static boolean isOperatorKeywordEnd(@NotNull String name, int index) {
+        int keywordStart = index - OPERATOR.length();
+        return keywordStart >= 0 && name.startsWith(OPERATOR, keywordStart)
+               && (keywordStart == 0 || (keywordStart >= 2 && name.startsWith("::", keywordStart - 2)));
     }
 
     /**
-     * @param functionName - the given function name, i.e "myMethod", "my_method", "myMethod<int>", "operator<<", "my_operator"
-     * @return true, if the given {@param functionName} describes an operator overloading.
+     * @return true, if the function name between the given indices, i.e "myMethod", "my_method", "myMethod<int>", "operator<<",
+     * "my_operator", describes an operator overloading.
      */
-    private static boolean isOperatorOverload(@NotNull String functionName) {
-        final String operator = "operator";
-        if (!functionName.startsWith(operator)) {
+    private static boolean isOperatorOverload(@NotNull String name, int start, int end) {
+        if (!name.startsWith(OPERATOR, start) || start + OPERATOR.length() > end) {
             return false;
         }
         // whether function's name is operator.
-        if (operator.length() == functionName.length()) {
+        if (start + OPERATOR.length() == end) {
             return true;
         }
 
-        return !isCppIdentifierChar(functionName.charAt(operator.length()));
+        return !isCppIdentifierChar(name.charAt(start + OPERATOR.length()));
     }
 
     private static boolean isCppIdentifierChar(char ch) {
@@ -172,30 +364,34 @@ public class NodeNameParser {
     }
 
     /**
-     * Simplifies a C++ symbol (e.g. function name, or namespace) by removing the template instantiation information including template
-     * arguments. Essentially, removes angle brackets and everything between them. For example:
+     * Simplifies the C++ symbol (e.g. function name, or namespace) between the given indices by removing the template instantiation
+     * information including template arguments. Essentially, removes angle brackets and everything between them. For example:
      * "Type1<int> Type2<float>::FuncTemplate<Type3<2>>(Type4<bool>)" -> "Type1 Type2::FuncTemplate(Type4)"
      *
-     * If it can't find matching angle brackets, falls back to the full symbol string.
+     * If it can't find matching angle brackets, falls back to the full symbol string. Symbols without angle brackets are copied as is.
      */
     @NotNull
-    private static String removeTemplateInfo(@NotNull String fullSymbol) {
-        StringBuilder filteredName = new StringBuilder();
+    private static String removeTemplateInfo(@NotNull String name, int start, int end) {
+        StringBuilder filteredName = null;
         int open = 0;
-        for (int i = 0; i < fullSymbol.length(); ++i) {
-            char ch = fullSymbol.charAt(i);
-            if (ch == '<') {
-                ++open;
-            }
-            else if (ch == '>') {
-                --open;
+        for (int i = start; i < end; ++i) {
+            char ch = name.charAt(i);
+            if (ch == '<' || ch == '>') {
+                if (filteredName == null) {
+                    filteredName = new StringBuilder(end - start).append(name, start, i);
+                }
+                open += ch == '<' ? 1 : -1;
             }
-            else if (open == 0) {
+            else if (open == 0 && filteredName != null) {
                 filteredName.append(ch);
             }
         }
 
+        if (filteredName == null) {
+            return name.substring(start, end);
+        }
         if (open != 0) {
+            String fullSymbol = name.substring(start, end);
             getLogger().warn(String.format("Native function signature (%s) without matching angle brackets.", fullSymbol));
             return fullSymbol;
         }
@@ -203,52 +399,18 @@ public class NodeNameParser {
     }
 
     /**
-     * Returns the index of the opening parenthesis, i.e. '(', that matches the closing one, i.e. ')' of a string representing a function
-     * name, or -1 if a corresponding opening parenthesis can't be found.
+     * @return the tag of the nodes of the given ELF file: its path, or a wildcard path for the common system directories.
      */
-    private static int findMatchingOpeningParenthesisIndex(String functionName, int endIndex) {
-        assert functionName.charAt(endIndex) == ')';
-        int count = 0;
-        for (int i = endIndex; i >= 0; --i) {
-            Character ch = functionName.charAt(i);
-            if (ch == ')') {
-                count++;
-            }
-            else if (ch == '(') {
-                count--;
-            }
-            if (count == 0) {
-                return i;
+    @Nullable
+    static String tagFromFileName(@Nullable String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        for (int i = 0; i < COMMON_PATH_PREFIXES.length; i++) {
+            if (fileName.startsWith(COMMON_PATH_PREFIXES[i])) {
+                return COMMON_PATH_PREFIXES_DISPLAY[i];
             }
         }
-        getLogger().warn(String.format("Native function signature (%s) without matching parentheses.", functionName));
-        return -1;
-    }
-
-    /**
-     * Receives a full method name and returns a {@link JavaMethodModel} containing its class name and its (simple) name.
-     * @param fullName The method's full qualified name (e.g. java.lang.Object.equals)
-     */
-    private static JavaMethodModel createJavaMethodModel(String fullName) {
-        // First, we should extract the method name, which is the name after the last "." character.
-        String[] splittedMethod = JAVA_SEPARATOR_PATTERN.split(fullName);
-        int methodNameIndex = splittedMethod.length - 1;
-        String methodName = splittedMethod[methodNameIndex];
-
-        // Everything else composes the class name.
-        StringBuilder className = new StringBuilder(splittedMethod[0]);
-        for (int i = 1; i < methodNameIndex; i++) {
-            className.append(".");
-            className.append(splittedMethod[i]);
-        }
-        return new JavaMethodModel(methodName, className.toString(), "");
-    }
-
-    private static String tagFromFileName(String fileName) {
-        return fileName == null ? null :
-                IntStream.range(0, COMMON_PATH_PREFIXES.length)
-                        .filter(i -> fileName.startsWith(COMMON_PATH_PREFIXES[i]))
-                        .mapToObj(i -> COMMON_PATH_PREFIXES_DISPLAY[i])
-                        .findAny().orElse(fileName);
+        return fileName;
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf;
+
+import com.android.tools.profilers.cpu.CpuCapture;
+import com.android.tools.profilers.cpu.ModelReplacement;
+import com.android.tools.profilers.cpu.capturedetails.ModelTable;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel;
+import com.android.tools.profilers.cpu.nodemodel.NoSymbolModel;
+import com.android.tools.profilers.cpu.simpleperf.symbols.ProguardMapping;
+import com.android.tools.profilers.cpu.simpleperf.symbols.SymbolResolver;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Re-symbolizes a capture parsed by {@link SimpleperfTraceParser} once better symbols are available, e.g. unstripped libraries, a
+ * kallsyms dump or a mapping file, without parsing its trace again. The models are replaced in place, see
+ * {@link CpuCapture#replaceModels(ModelReplacement)}:
+ * <ul>
+ *   <li>the instructions still without symbol are looked up with the {@link SymbolResolver}, like the parser does;</li>
+ *   <li>the Java methods are deobfuscated with the {@link ProguardMapping}.</li>
+ * </ul>
+ * Functions symbolized by an earlier pass are kept as is, since their models don't record the addresses they were resolved from, and
+ * so are Java methods deobfuscated by an earlier mapping.
+ */
+public final class SimpleperfResymbolizer implements ModelReplacement {
+
+    @NotNull private final ModelTable myModelTable;
+    @Nullable private final SymbolResolver myResolver;
+    @Nullable private final ProguardMapping myMapping;
+
+    /**
+     * Distinct addresses without symbol of each file, ascending, and the name of the function containing each of them, or null.
+     */
+    @NotNull private final Map<String, long[]> myAddresses = new HashMap<>();
+    @NotNull private final Map<String, String[]> myNames = new HashMap<>();
+
+    /**
+     * The resolved functions by file and name, shared by all their addresses.
+     */
+    @NotNull private final Map<String, Map<String, Symbol>> mySymbols = new HashMap<>();
+    @NotNull private final Map<String, String> myTags = new HashMap<>();
+
+    /**
+     * Deobfuscated Java methods by original name, which don't depend on their call site and are shared by all their nodes.
+     */
+    @NotNull private final Map<String, CaptureNodeModel> myJavaMethods = new HashMap<>();
+
+    /**
+     * @param modelTable the table of the capture, see {@link CpuCapture#getModelTable()}, which assigns the dense ids of the new models.
+     */
+    public SimpleperfResymbolizer(@NotNull ModelTable modelTable, @Nullable SymbolResolver resolver, @Nullable ProguardMapping mapping) {
+        myModelTable = modelTable;
+        myResolver = resolver;
+        myMapping = mapping;
+    }
+
+    /**
+     * @return the number of nodes of the capture whose model was replaced.
+     */
+    public static int resymbolize(@NotNull CpuCapture capture, @Nullable SymbolResolver resolver, @Nullable ProguardMapping mapping) {
+        return capture.replaceModels(new SimpleperfResymbolizer(capture.getModelTable(), resolver, mapping));
+    }
+
+    /**
+     * Resolves the distinct addresses without symbol of the capture, querying the resolver for the files in parallel.
+     */
+    @Override
+    public void prepare(@NotNull Collection<CaptureNodeModel> models) {
+        if (myResolver == null) {
+            return;
+        }
+        Map<String, LongStream.Builder> addressesByFile = new HashMap<>();
+        for (CaptureNodeModel model : models) {
+            if (model instanceof NoSymbolModel && ((NoSymbolModel)model).getFileName() != null) {
+                NoSymbolModel noSymbol = (NoSymbolModel)model;
+                addressesByFile.computeIfAbsent(noSymbol.getFileName(), file -> LongStream.builder()).add(noSymbol.getVAddressInFile());
+            }
+        }
+        addressesByFile.forEach((file, builder) -> myAddresses.put(file, builder.build().sorted().distinct().toArray()));
+        myNames.putAll(myAddresses.entrySet().parallelStream()
+                               .map(entry -> new AbstractMap.SimpleImmutableEntry<>(entry.getKey(),
+                                                                                    myResolver.resolve(entry.getKey(), entry.getValue())))
+                               .filter(entry -> entry.getValue() != null)
+                               .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+    }
+
+    @Nullable
+    @Override
+    public CaptureNodeModel replace(@NotNull CaptureNodeModel model) {
+        if (model instanceof NoSymbolModel) {
+            return replaceNoSymbol((NoSymbolModel)model);
+        }
+        if (model instanceof JavaMethodModel && myMapping != null) {
+            return replaceJavaMethod((JavaMethodModel)model, myMapping);
+        }
+        return null;
+    }
+
+    @Nullable
+    private CaptureNodeModel replaceNoSymbol(@NotNull NoSymbolModel model) {
+        String file = model.getFileName();
+        String[] names = file == null ? null : myNames.get(file);
+        if (names == null) {
+            return null;
+        }
+        int index = Arrays.binarySearch(myAddresses.get(file), model.getVAddressInFile());
+        String name = index < 0 ? null : names[index];
+        if (name == null) {
+            return null;
+        }
+        String tag = myTags.computeIfAbsent(file, NodeNameParser::tagFromFileName);
+        Symbol symbol = mySymbols.computeIfAbsent(file, f -> new HashMap<>()).get(name);
+        if (symbol == null) {
+            NodeNameParser.ParsedName parsedName = NodeNameParser.parseName(name);
+            if (myMapping != null) {
+                parsedName = parsedName.deobfuscatedBy(myMapping);
+            }
+            int denseId = myModelTable.keyOf(parsedName.toModel(model.isUserCode(), file, tag, model.getVAddress()));
+            symbol = new Symbol(parsedName, denseId);
+            mySymbols.get(file).put(name, symbol);
+        }
+        return symbol.myName.toModel(model.isUserCode(), file, tag, model.getVAddress(), symbol.myDenseId);
+    }
+
+    @Nullable
+    private CaptureNodeModel replaceJavaMethod(@NotNull JavaMethodModel model, @NotNull ProguardMapping mapping) {
+        String originalName = mapping.getOriginalMethodName(model.getClassName(), model.getName());
+        if (originalName == null || originalName.equals(model.getFullName())) {
+            return null;
+        }
+        return myJavaMethods.computeIfAbsent(originalName, name -> {
+            NodeNameParser.ParsedName parsedName = NodeNameParser.parseName(name);
+            int denseId = myModelTable.keyOf(parsedName.toModel(false, null, null, -1));
+            return parsedName.toModel(false, null, null, -1, denseId);
+        });
+    }
+
+    private static final class Symbol {
+        @NotNull final NodeNameParser.ParsedName myName;
+        final int myDenseId;
+
+        Symbol(@NotNull NodeNameParser.ParsedName name, int denseId) {
+            myName = name;
+            myDenseId = denseId;
+        }
+    }
+}
@@ -21,11 +21,13 @@ import com.android.tools.profiler.proto.Cpu;
 import com.android.tools.profiler.proto.SimpleperfReport;
 import com.android.tools.profilers.cpu.*;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
-import com.android.tools.profilers.cpu.nodemodel.NoSymbolModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import com.android.tools.profilers.cpu.simpleperf.symbols.ProguardMapping;
+import com.android.tools.profilers.cpu.simpleperf.symbols.SymbolResolver;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,6 +38,8 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 /**
  * Parses a trace file obtained using simpleperf to a map threadId -> {@link CaptureNode}.
@@ -81,9 +85,14 @@ public class SimpleperfTraceParser implements TraceParser {
     private int myTraceVersion;
 
     /**
-     * Maps a file id to its correspondent {@link SimpleperfReport.File}.
+     * File records, in the order they're read from the trace. Their symbols are read from the mapped trace file on demand.
      */
-    private final Map<Integer, SimpleperfReport.File> myFiles;
+    private final List<SymbolFileRecord> myFiles;
+
+    /**
+     * Maps a file id to its correspondent {@link SimpleperfReport.File} and its metadata. Built once all the records are read.
+     */
+    private SymbolFileTable mySymbolFiles;
 
     /**
      * Maps a thread id to its corresponding {@link SimpleperfReport.Thread} object.
@@ -138,30 +147,64 @@ public class SimpleperfTraceParser implements TraceParser {
 
     private Set<String> myTags = new TreeSet<>(TAG_COMPARATOR);
 
+    /**
+     * Time spent in each tag per thread id, accumulated while finalizing the thread trees.
+     */
+    private final Map<Integer, TagBreakdown> myTagBreakdowns = new HashMap<>();
+
+    /**
+     * Samples of each function by address of the leaf instruction, accumulated while the samples are parsed.
+     */
+    private final InstructionHistograms.Builder myInstructionHistograms = new InstructionHistograms.Builder();
+
+    /**
+     * Source of symbols for the instructions simpleperf couldn't symbolize, or null to name them after their address.
+     */
+    @Nullable private final SymbolResolver mySymbolResolver;
+
+    /**
+     * Original names of the obfuscated Java classes and methods of the app, or null to keep the names of the trace.
+     */
+    @Nullable private final ProguardMapping myMapping;
+
     public SimpleperfTraceParser() {
-        myFiles = new HashMap<>();
-        mySamples = new ArrayList<>();
-        myCaptureTrees = new HashMap<>();
-        myThreads = new HashMap<>();
+        this(null);
+    }
+
+    /**
+     * @param symbolResolver source of symbols for the instructions simpleperf couldn't symbolize on the device, e.g. an
+     *                       {@link com.android.tools.profilers.cpu.simpleperf.symbols.ElfSymbolizer} reading unstripped libraries.
+     */
+    public SimpleperfTraceParser(@Nullable SymbolResolver symbolResolver) {
+        this(symbolResolver, null);
     }
 
     /**
-     * Given Unix-like path string (e.g. /system/my-path/file.so), returns the file name (e.g. file.so).
+     * @param mapping original names of the Java classes and methods of the app, if it was obfuscated by R8 or ProGuard.
      */
-    private static String fileNameFromPath(String path) {
-        String[] splitPath = path.split("/");
-        return splitPath[splitPath.length - 1];
+    public SimpleperfTraceParser(@Nullable SymbolResolver symbolResolver, @Nullable ProguardMapping mapping) {
+        myFiles = new ArrayList<>();
+        mySamples = new ArrayList<>();
+        myCaptureTrees = new HashMap<>();
+        myThreads = new HashMap<>();
+        mySymbolResolver = symbolResolver;
+        myMapping = mapping;
     }
 
-    private static boolean equals(SimpleperfReport.Sample.CallChainEntry c1, SimpleperfReport.Sample.CallChainEntry c2) {
+    private boolean equals(SimpleperfReport.Sample.CallChainEntry c1, SimpleperfReport.Sample.CallChainEntry c2) {
         boolean isSameFileAndSymbolId = c1.getFileId() == c2.getFileId() && c1.getSymbolId() == c2.getSymbolId();
         if (!isSameFileAndSymbolId) {
             // Call chain entries need to be obtained from the same file and have the same symbol id in order to be equal.
             return false;
         }
         if (c1.getSymbolId() == -1) {
-            // Symbol is invalid, fallback to vaddress
-            return c1.getVaddrInFile() == c2.getVaddrInFile();
+            // Symbol is invalid, fallback to vaddress, or to the function containing it if it was resolved offline.
+            if (c1.getVaddrInFile() == c2.getVaddrInFile()) {
+                return true;
+            }
+            SymbolFileTable.SymbolFile file = mySymbolFiles.get(c1.getFileId());
+            int resolvedSymbol = file.getResolvedSymbol(c1.getVaddrInFile());
+            return resolvedSymbol >= 0 && resolvedSymbol == file.getResolvedSymbol(c2.getVaddrInFile());
         }
         // Both file and symbol id match, and symbol is valid
         return true;
@@ -185,13 +228,18 @@ public class SimpleperfTraceParser implements TraceParser {
         parseSampleData();
         return new BaseCpuCapture(traceId, Cpu.CpuTraceType.SIMPLEPERF,
                 isThreadTimeSupported(), isThreadTimeSupported() ? null : DUAL_CLOCK_DISABLED_MESSAGE,
-                myCaptureRange, getCaptureTrees(), myTags);
+                myCaptureRange, getCaptureTrees(), myTags, myTagBreakdowns, myInstructionHistograms.build(),
+                mySymbolFiles.getModelTable());
     }
 
     public Map<CpuThreadInfo, CaptureNode> getCaptureTrees() {
         return myCaptureTrees;
     }
 
+    public Map<Integer, TagBreakdown> getTagBreakdowns() {
+        return myTagBreakdowns;
+    }
+
     public long getLostSampleCount() {
         return myLostSampleCount;
     }
@@ -229,7 +277,7 @@ public class SimpleperfTraceParser implements TraceParser {
      * message Record(record_N) (having record_size_N bytes)
      * LittleEndian32(0)
      * <p>
-     * Parsed data is stored in {@link #myFiles} and {@link #mySamples}.
+     * Parsed data is stored in {@link #mySymbolFiles} and {@link #mySamples}.
      */
     @VisibleForTesting
     void parseTraceFile(File trace) throws IOException {
@@ -242,6 +290,15 @@ public class SimpleperfTraceParser implements TraceParser {
 
         // 0 is used to indicate the end of the trace
         while (recordSize != 0) {
+            // File records are read in place, as most of their symbols are never referenced by a sample.
+            int recordOffset = buffer.position();
+            if (MappedSymbolFileRecord.isFileRecord(buffer, recordOffset, recordSize)) {
+                myFiles.add(MappedSymbolFileRecord.parse(buffer, recordOffset, recordSize));
+                buffer.position(recordOffset + recordSize);
+                recordSize = buffer.getInt();
+                continue;
+            }
+
             // The next recordSize bytes should represent the record
             byte[] recordBytes = new byte[recordSize];
             buffer.get(recordBytes);
@@ -249,8 +306,7 @@ public class SimpleperfTraceParser implements TraceParser {
 
             switch (record.getRecordDataCase()) {
                 case FILE:
-                    SimpleperfReport.File file = record.getFile();
-                    myFiles.put(file.getId(), file);
+                    myFiles.add(SymbolFileRecord.of(record.getFile()));
                     break;
                 case LOST:
                     // Only one occurrence of LOST type is expected.
@@ -286,6 +342,7 @@ public class SimpleperfTraceParser implements TraceParser {
         }
 
         myCpuClockEventTypeId = myEventTypes.indexOf(CPU_CLOCK_EVENT);
+        mySymbolFiles = new SymbolFileTable(myFiles, myAppDataFolderPrefix, true, myMapping);
     }
 
     /**
@@ -320,6 +377,10 @@ public class SimpleperfTraceParser implements TraceParser {
         long endTimestamp = mySamples.get(mySamples.size() - 1).getTime();
         myCaptureRange.set(TimeUnit.NANOSECONDS.toMicros(startTimestamp), TimeUnit.NANOSECONDS.toMicros(endTimestamp));
 
+        if (mySymbolResolver != null) {
+            resolveUnsymbolizedAddresses(mySymbolResolver);
+        }
+
         // Split the samples per thread.
         Map<Integer, List<SimpleperfReport.Sample>> threadSamples = splitSamplesPerThread();
 
@@ -329,6 +390,31 @@ public class SimpleperfTraceParser implements TraceParser {
         }
     }
 
+    /**
+     * Resolves the distinct addresses without symbol of all the samples, querying the resolver for the files in parallel.
+     */
+    private void resolveUnsymbolizedAddresses(@NotNull SymbolResolver resolver) {
+        Map<SymbolFileTable.SymbolFile, LongStream.Builder> addressesByFile = new HashMap<>();
+        for (SimpleperfReport.Sample sample : mySamples) {
+            for (SimpleperfReport.Sample.CallChainEntry entry : sample.getCallchainList()) {
+                if (entry.getSymbolId() == INVALID_SYMBOL_ID) {
+                    addressesByFile.computeIfAbsent(mySymbolFiles.get(entry.getFileId()), file -> LongStream.builder())
+                            .add(entry.getVaddrInFile());
+                }
+            }
+        }
+        Map<SymbolFileTable.SymbolFile, long[]> addresses = new HashMap<>();
+        addressesByFile.forEach((file, builder) -> addresses.put(file, builder.build().sorted().distinct().toArray()));
+        // Resolvers may take a while to load the symbols of a file, so only they run in parallel. Symbols are added sequentially,
+        // as the symbol file table isn't thread safe.
+        Map<SymbolFileTable.SymbolFile, String[]> names = addresses.entrySet().parallelStream()
+                .map(entry -> new AbstractMap.SimpleImmutableEntry<>(entry.getKey(),
+                                                                     resolver.resolve(entry.getKey().getPath(), entry.getValue())))
+                .filter(entry -> entry.getValue() != null)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        names.forEach((file, fileNames) -> file.setResolvedSymbols(addresses.get(file), fileNames));
+    }
+
     /**
      * Group the samples collected by thread.
      */
@@ -374,7 +460,9 @@ public class SimpleperfTraceParser implements TraceParser {
         // ArtTraceHandler.
         long threadTimeNs = firstTimestamp;
         SimpleperfReport.Thread thread = myThreads.get(threadId);
-        CaptureNode root = createCaptureNode(new SingleNameModel(thread.getThreadName()), firstTimestamp, threadTimeNs);
+        String threadName = thread.getThreadName();
+        int threadDenseId = mySymbolFiles.getModelTable().keyOf(new SingleNameModel(threadName));
+        CaptureNode root = createCaptureNode(new SingleNameModel(threadName, threadDenseId), firstTimestamp, threadTimeNs);
         root.setDepth(0);
         myCaptureTrees.put(new CpuThreadInfo(threadId, thread.getThreadName(), threadId == thread.getProcessId()), root);
 
@@ -383,6 +471,8 @@ public class SimpleperfTraceParser implements TraceParser {
         // Node used to traverse the tree. In the first traversal we pass an empty list as previous call chain and root as last visited node.
         CaptureNode lastVisitedNode = parseCallChain(previousCallChain, Collections.emptyList(), firstTimestamp,
                 threadTimeNs, root);
+        addSelfSample(lastVisitedNode);
+        addLeafInstruction(threadSamples.get(0), lastVisitedNode);
 
         // Now parse all the rest of the samples collected for this thread
         for (int i = 1; i < threadSamples.size(); i++) {
@@ -397,6 +487,8 @@ public class SimpleperfTraceParser implements TraceParser {
             }
             // TODO: when --trace-offcpu is supported, we will need to call updateAncestorsEndTime if sample has a "schedule" out event.
             lastVisitedNode = parseCallChain(callChain, previousCallChain, sample.getTime(), threadTimeNs, lastVisitedNode);
+            addSelfSample(lastVisitedNode);
+            addLeafInstruction(sample, lastVisitedNode);
             previousCallChain = callChain;
         }
 
@@ -406,6 +498,43 @@ public class SimpleperfTraceParser implements TraceParser {
         updateAncestorsEndTime(lastTimestamp, threadTimeNs, lastVisitedNode);
         // update the root timestamp
         setNodeEndTime(root, lastTimestamp, threadTimeNs);
+        TagBreakdown.Builder tagBreakdown = new TagBreakdown.Builder();
+        updateSampleCounts(root, tagBreakdown);
+        myTagBreakdowns.put(threadId, tagBreakdown.build());
+    }
+
+    /**
+     * The last visited node after parsing a call chain is its leaf, so the sample is attributed to that node's self time.
+     */
+    private static void addSelfSample(CaptureNode leaf) {
+        leaf.setSelfSampleCount(leaf.getSelfSampleCount() + 1);
+    }
+
+    /**
+     * Counts the sample at the address of its leaf instruction, in the histogram of the function of the leaf node.
+     */
+    private void addLeafInstruction(SimpleperfReport.Sample sample, CaptureNode leaf) {
+        if (sample.getCallchainCount() == 0) {
+            return;
+        }
+        SimpleperfReport.Sample.CallChainEntry entry = sample.getCallchain(0);
+        myInstructionHistograms.add(leaf.getData(), mySymbolFiles.get(entry.getFileId()).getPath(), entry.getVaddrInFile());
+    }
+
+    /**
+     * Sets the sample count of a node and all its descendants from their self sample counts, as every sample containing a node
+     * ends either in the node itself or in one of its descendants. The nodes are final by then, so the same walk accumulates the
+     * time spent in each tag.
+     */
+    private static long updateSampleCounts(CaptureNode node, TagBreakdown.Builder tagBreakdown) {
+        boolean outermostOfTag = tagBreakdown.enter(node);
+        long sampleCount = node.getSelfSampleCount();
+        for (CaptureNode child : node.getChildren()) {
+            sampleCount += updateSampleCounts(child, tagBreakdown);
+        }
+        node.setSampleCount(sampleCount);
+        tagBreakdown.exit(node, outermostOfTag);
+        return sampleCount;
     }
 
     /**
@@ -491,21 +620,14 @@ public class SimpleperfTraceParser implements TraceParser {
 
     private CaptureNodeModel methodModelFromCallchainEntry(SimpleperfReport.Sample.CallChainEntry callChainEntry, long parentVAddress) {
         int symbolId = callChainEntry.getSymbolId();
-        SimpleperfReport.File symbolFile = myFiles.get(callChainEntry.getFileId());
-        if (symbolFile == null) {
-            throw new IllegalStateException("Symbol file with id \"" + callChainEntry.getFileId() + "\" not found.");
-        }
+        SymbolFileTable.SymbolFile symbolFile = mySymbolFiles.get(callChainEntry.getFileId());
         if (symbolId == INVALID_SYMBOL_ID) {
-            // if symbol_id is -1, we report the method as fileName+vAddress (e.g. program.so+0x3039)
-            String hexAddress = "0x" + Long.toHexString(callChainEntry.getVaddrInFile());
-            String methodName = fileNameFromPath(symbolFile.getPath()) + "+" + hexAddress;
-            return nodeWithTagAdded(new NoSymbolModel(symbolFile.getPath(), methodName));
+            // if symbol_id is -1, we report the method resolved offline if any, or as fileName+vAddress (e.g. program.so+0x3039)
+            return nodeWithTagAdded(symbolFile.createUnsymbolizedModel(callChainEntry.getVaddrInFile(), parentVAddress));
         }
         // Otherwise, read the method from the symbol table and parse it into a CaptureNodeModel. User's code symbols come from
-        // files located inside the app's directory, therefore we check if the symbol path has the same prefix of such directory.
-        boolean isUserWritten = symbolFile.getPath().startsWith(myAppDataFolderPrefix);
-        return nodeWithTagAdded(NodeNameParser.parseNodeName(symbolFile.getSymbol(symbolId),
-                isUserWritten, symbolFile.getPath(), parentVAddress));
+        // files located inside the app's directory, which the symbol file table checked once per file.
+        return nodeWithTagAdded(symbolFile.createModel(symbolId, parentVAddress));
     }
 
     private CaptureNodeModel nodeWithTagAdded(CaptureNodeModel node) {
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf;
+
+import com.android.tools.profiler.proto.SimpleperfReport;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An ELF file referenced by the samples of a trace, i.e. the content of a {@link SimpleperfReport.File} record, whose symbols may be
+ * decoded on demand.
+ */
+interface SymbolFileRecord {
+
+    int getId();
+
+    @NotNull
+    String getPath();
+
+    int getSymbolCount();
+
+    @NotNull
+    String getSymbol(int symbolId);
+
+    /**
+     * @return a record reading the symbols of an already parsed {@link SimpleperfReport.File}.
+     */
+    @NotNull
+    static SymbolFileRecord of(@NotNull SimpleperfReport.File file) {
+        return new SymbolFileRecord() {
+            @Override
+            public int getId() {
+                return file.getId();
+            }
+
+            @NotNull
+            @Override
+            public String getPath() {
+                return file.getPath();
+            }
+
+            @Override
+            public int getSymbolCount() {
+                return file.getSymbolCount();
+            }
+
+            @NotNull
+            @Override
+            public String getSymbol(int symbolId) {
+                return file.getSymbol(symbolId);
+            }
+        };
+    }
+}
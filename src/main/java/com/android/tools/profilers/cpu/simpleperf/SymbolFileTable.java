@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf;
+
+import com.android.tools.profiler.proto.SimpleperfReport;
+import com.android.tools.profilers.cpu.capturedetails.ModelTable;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.NoSymbolModel;
+import com.android.tools.profilers.cpu.simpleperf.symbols.ProguardMapping;
+import com.android.tools.profilers.cpu.util.LongIntHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The {@link SimpleperfReport.File} records of a trace, indexed by file id, with the metadata the parser needs for every call chain
+ * entry computed once per file: whether the file is part of the user-written code, its display name, its tag, and the parsed names
+ * of its symbols. A symbol is only read and parsed the first time a call chain entry references it, so resolving an entry only takes
+ * array lookups.
+ *
+ * The parsed names can optionally be interned: the methods of a class or namespace all share its name, which would otherwise be
+ * copied for each of them. Java names can optionally be deobfuscated, which is then done once per referenced symbol too.
+ *
+ * The models get the dense id of their symbol, see {@link CaptureNodeModel#getDenseId()}, assigned with the {@link ModelTable} of the
+ * table the first time the symbol is referenced, so only one model per symbol ever builds its id string.
+ */
+class SymbolFileTable {
+
+    /**
+     * Files by id, null for ids without a file record.
+     */
+    @NotNull private final SymbolFile[] myFiles;
+
+    /**
+     * Fields of the parsed names, to share equal ones. Null if names aren't interned.
+     */
+    @Nullable private final Map<String, String> myInternedNames;
+
+    /**
+     * Original names of the obfuscated Java classes and methods, or null to keep the names of the trace.
+     */
+    @Nullable private final ProguardMapping myMapping;
+
+    /**
+     * Table of the dense ids of the models created from the files.
+     */
+    @NotNull private final ModelTable myModelTable = new ModelTable(true);
+
+    /**
+     * @param appDataFolderPrefix prefix of the folder of the app being profiled, whose files are part of the user-written code.
+     * @param internNames         whether to share the equal fields of the parsed symbol names.
+     */
+    SymbolFileTable(@NotNull Collection<? extends SymbolFileRecord> files, @Nullable String appDataFolderPrefix, boolean internNames) {
+        this(files, appDataFolderPrefix, internNames, null);
+    }
+
+    /**
+     * @param mapping original names of the obfuscated Java classes and methods of the app, or null if it isn't obfuscated.
+     */
+    SymbolFileTable(@NotNull Collection<? extends SymbolFileRecord> files, @Nullable String appDataFolderPrefix, boolean internNames,
+                    @Nullable ProguardMapping mapping) {
+        myInternedNames = internNames ? new HashMap<>() : null;
+        myMapping = mapping;
+        int maxId = -1;
+        for (SymbolFileRecord file : files) {
+            maxId = Math.max(maxId, file.getId());
+        }
+        myFiles = new SymbolFile[maxId + 1];
+        for (SymbolFileRecord file : files) {
+            boolean isUserCode = appDataFolderPrefix != null && file.getPath().startsWith(appDataFolderPrefix);
+            myFiles[file.getId()] = new SymbolFile(file, isUserCode);
+        }
+    }
+
+    @NotNull
+    SymbolFile get(int fileId) {
+        SymbolFile file = fileId >= 0 && fileId < myFiles.length ? myFiles[fileId] : null;
+        if (file == null) {
+            throw new IllegalStateException("Symbol file with id \"" + fileId + "\" not found.");
+        }
+        return file;
+    }
+
+    /**
+     * @return the table of the dense ids of the models created so far, whose keys are their dense ids.
+     */
+    @NotNull
+    ModelTable getModelTable() {
+        return myModelTable;
+    }
+
+    @NotNull
+    private NodeNameParser.ParsedName parseName(@NotNull String fullName) {
+        NodeNameParser.ParsedName name = NodeNameParser.parseName(fullName);
+        if (myMapping != null) {
+            // Java methods are compiled from any dex file, e.g. into the JIT cache, so they're looked up whatever their file.
+            name = name.deobfuscatedBy(myMapping);
+        }
+        return myInternedNames == null ? name : name.intern(myInternedNames);
+    }
+
+    final class SymbolFile {
+        @NotNull private final SymbolFileRecord myFile;
+
+        private final boolean myIsUserCode;
+
+        /**
+         * Name of the file, without its directory (e.g. file.so).
+         */
+        @NotNull private final String myName;
+
+        @Nullable private final String myTag;
+
+        /**
+         * Parsed names by symbol id, allocated when the first symbol of the file is referenced.
+         */
+        @Nullable private NodeNameParser.ParsedName[] mySymbols;
+
+        /**
+         * Dense ids of the models of {@link #mySymbols}, {@link CaptureNodeModel#NO_DENSE_ID} for symbols without model yet.
+         */
+        @Nullable private int[] mySymbolDenseIds;
+
+        /**
+         * Indices in {@link #myResolvedSymbols} of the functions containing the addresses without symbol resolved offline.
+         */
+        @Nullable private LongIntHashMap myResolvedAddresses;
+
+        /**
+         * Distinct functions resolved offline.
+         */
+        @NotNull private final List<NodeNameParser.ParsedName> myResolvedSymbols = new ArrayList<>();
+
+        /**
+         * Dense ids of the models of {@link #myResolvedSymbols}, like {@link #mySymbolDenseIds}.
+         */
+        @NotNull private int[] myResolvedDenseIds = new int[0];
+
+        /**
+         * Dense ids of the models of the addresses without symbol, by address.
+         */
+        @Nullable private LongIntHashMap myNoSymbolDenseIds;
+
+        private SymbolFile(@NotNull SymbolFileRecord file, boolean isUserCode) {
+            myFile = file;
+            myIsUserCode = isUserCode;
+            String path = file.getPath();
+            myName = path.substring(path.lastIndexOf('/') + 1);
+            myTag = NodeNameParser.tagFromFileName(path);
+        }
+
+        @NotNull
+        String getPath() {
+            return myFile.getPath();
+        }
+
+        boolean isUserCode() {
+            return myIsUserCode;
+        }
+
+        @NotNull
+        String getName() {
+            return myName;
+        }
+
+        @Nullable
+        String getTag() {
+            return myTag;
+        }
+
+        /**
+         * @param vAddress virtual address of the instruction calling into the next function of the call chain, stored by native models.
+         * @return a new model of the given symbol of the file.
+         */
+        @NotNull
+        CaptureNodeModel createModel(int symbolId, long vAddress) {
+            if (mySymbols == null) {
+                mySymbols = new NodeNameParser.ParsedName[myFile.getSymbolCount()];
+                mySymbolDenseIds = new int[mySymbols.length];
+                Arrays.fill(mySymbolDenseIds, CaptureNodeModel.NO_DENSE_ID);
+            }
+            NodeNameParser.ParsedName symbol = mySymbols[symbolId];
+            if (symbol == null) {
+                symbol = parseName(myFile.getSymbol(symbolId));
+                mySymbols[symbolId] = symbol;
+                mySymbolDenseIds[symbolId] = denseIdOf(symbol, vAddress);
+            }
+            return symbol.toModel(myIsUserCode, myFile.getPath(), myTag, vAddress, mySymbolDenseIds[symbolId]);
+        }
+
+        /**
+         * Sets the functions containing addresses of the file without symbol, e.g. as resolved by a
+         * {@link com.android.tools.profilers.cpu.simpleperf.symbols.SymbolResolver}.
+         *
+         * @param names the name of the function containing each address, or null for addresses that weren't resolved.
+         */
+        void setResolvedSymbols(@NotNull long[] vAddressesInFile, @NotNull String[] names) {
+            myResolvedAddresses = new LongIntHashMap(vAddressesInFile.length);
+            myResolvedSymbols.clear();
+            Map<String, Integer> symbolsByName = new HashMap<>();
+            for (int i = 0; i < vAddressesInFile.length; i++) {
+                String name = names[i];
+                if (name == null) {
+                    continue;
+                }
+                Integer symbol = symbolsByName.get(name);
+                if (symbol == null) {
+                    symbol = myResolvedSymbols.size();
+                    symbolsByName.put(name, symbol);
+                    myResolvedSymbols.add(parseName(name));
+                }
+                myResolvedAddresses.put(vAddressesInFile[i], symbol);
+            }
+            myResolvedDenseIds = new int[myResolvedSymbols.size()];
+            Arrays.fill(myResolvedDenseIds, CaptureNodeModel.NO_DENSE_ID);
+        }
+
+        /**
+         * @return an identifier of the function containing the given address, resolved offline, or -1 if it wasn't resolved. Addresses
+         * of the same function have the same identifier.
+         */
+        int getResolvedSymbol(long vAddressInFile) {
+            return myResolvedAddresses == null ? -1 : myResolvedAddresses.get(vAddressInFile, -1);
+        }
+
+        /**
+         * @param vAddress virtual address of the instruction calling into the next function of the call chain, stored by native models.
+         * @return a new model of the function containing the given address of the file, resolved offline, or a {@link NoSymbolModel} if
+         * it wasn't resolved.
+         */
+        @NotNull
+        CaptureNodeModel createUnsymbolizedModel(long vAddressInFile, long vAddress) {
+            int symbol = getResolvedSymbol(vAddressInFile);
+            if (symbol < 0) {
+                return createNoSymbolModel(vAddressInFile, vAddress);
+            }
+            NodeNameParser.ParsedName name = myResolvedSymbols.get(symbol);
+            if (myResolvedDenseIds[symbol] == CaptureNodeModel.NO_DENSE_ID) {
+                myResolvedDenseIds[symbol] = denseIdOf(name, vAddress);
+            }
+            return name.toModel(myIsUserCode, myFile.getPath(), myTag, vAddress, myResolvedDenseIds[symbol]);
+        }
+
+        /**
+         * @param vAddress virtual address of the instruction calling into the next function of the call chain, stored by native models.
+         * @return a new model of an instruction of the file without symbol, named after the file and the address of the instruction in
+         * the file (e.g. program.so+0x3039).
+         */
+        @NotNull
+        NoSymbolModel createNoSymbolModel(long vAddressInFile, long vAddress) {
+            String name = myName + "+0x" + Long.toHexString(vAddressInFile);
+            if (myNoSymbolDenseIds == null) {
+                myNoSymbolDenseIds = new LongIntHashMap();
+            }
+            int denseId = myNoSymbolDenseIds.get(vAddressInFile, CaptureNodeModel.NO_DENSE_ID);
+            if (denseId == CaptureNodeModel.NO_DENSE_ID) {
+                denseId = myModelTable.keyOf(new NoSymbolModel(myFile.getPath(), name));
+                myNoSymbolDenseIds.put(vAddressInFile, denseId);
+            }
+            return new NoSymbolModel(myFile.getPath(), name, vAddressInFile, vAddress, myIsUserCode, denseId);
+        }
+
+        /**
+         * @return the dense id of the models of the given symbol, shared with the symbols of any file with the same model id.
+         */
+        private int denseIdOf(@NotNull NodeNameParser.ParsedName symbol, long vAddress) {
+            return myModelTable.keyOf(symbol.toModel(myIsUserCode, myFile.getPath(), myTag, vAddress));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import com.android.tools.profilers.cpu.simpleperf.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resolves addresses of native libraries to source lines, from the {@code .debug_line} section of their unstripped copies. Libraries
+ * are matched to local files like {@link ElfSymbolizer} does.
+ *
+ * Decoding the line number programs of a large library takes a while, so the line table of each library is decoded once and cached in
+ * memory, and optionally on disk by GNU build id, from where later resolvers map it instead of decoding it again.
+ */
+public final class DwarfLineResolver {
+
+    @NotNull private final LocalElfFiles myLocalFiles;
+    @Nullable private final File myCacheDirectory;
+
+    /**
+     * Line tables of the local files read so far, empty for files that couldn't be read or have no line table.
+     */
+    @NotNull private final Map<File, Optional<DwarfLineTable>> myTables = new ConcurrentHashMap<>();
+
+    /**
+     * @param symbolDirectory directory containing the unstripped files, possibly in subdirectories.
+     * @param cacheDirectory  directory where to cache the line tables of the files by build id, or null to not cache them on disk.
+     */
+    public DwarfLineResolver(@NotNull File symbolDirectory, @Nullable File cacheDirectory) {
+        myLocalFiles = new LocalElfFiles(symbolDirectory);
+        myCacheDirectory = cacheDirectory;
+    }
+
+    private static Logger getLogger() {
+        return Logger.getInstance(DwarfLineResolver.class);
+    }
+
+    /**
+     * @param path     path of the ELF file on the device, or only its name, e.g. {@link
+     *                 com.android.tools.profilers.cpu.nodemodel.CppFunctionModel#getFileName()}.
+     * @param vAddress virtual address in the file.
+     * @return the source line of the instruction at the given address, or null if it's unknown.
+     */
+    @Nullable
+    public SourceLocation findLocation(@NotNull String path, long vAddress) {
+        DwarfLineTable table = getLineTable(path);
+        return table == null ? null : table.findLocation(vAddress);
+    }
+
+    /**
+     * @return the line table of the given file of the device, or null if there is no local copy of the file with a line table.
+     */
+    @Nullable
+    public DwarfLineTable getLineTable(@NotNull String path) {
+        File localFile = myLocalFiles.find(path);
+        if (localFile == null) {
+            return null;
+        }
+        return myTables.computeIfAbsent(localFile, file -> Optional.ofNullable(readTable(file))).orElse(null);
+    }
+
+    @Nullable
+    private DwarfLineTable readTable(@NotNull File file) {
+        try {
+            ElfFile elf = ElfFile.open(file);
+            String buildId = elf.getBuildId();
+            File cachedTable = myCacheDirectory == null || buildId == null ? null : new File(myCacheDirectory, buildId + ".lines");
+            if (cachedTable != null && cachedTable.isFile()) {
+                try {
+                    return DwarfLineTable.load(cachedTable);
+                }
+                catch (IOException e) {
+                    getLogger().warn("Ignoring the cached line table of " + file + ": " + e);
+                }
+            }
+            DwarfLineTable table = DwarfLineTable.read(elf);
+            if (table != null && cachedTable != null) {
+                LocalElfFiles.writeCacheFile(cachedTable, table::write);
+            }
+            return table;
+        }
+        catch (IOException | RuntimeException e) {
+            getLogger().warn("Can't read the line table of " + file + ": " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,662 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The source lines of the instructions of an ELF file, decoded from the line number programs of its {@code .debug_line} section, DWARF
+ * versions 2 to 5. The rows of all the programs are flattened into a single array sorted by address, where a row gives the location
+ * of the instructions from its address to the address of the next row, and only the rows that change the location are kept.
+ *
+ * The table can be written to a file and loaded back. A loaded table isn't copied: the rows are looked up directly in the
+ * memory-mapped file, so loading it costs next to nothing whatever the size of the library.
+ */
+public final class DwarfLineTable {
+
+    private static final int FILE_MAGIC = 0x45444C4E; // "EDLN"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 16;
+
+    private static final int DW_LNS_COPY = 1;
+    private static final int DW_LNS_ADVANCE_PC = 2;
+    private static final int DW_LNS_ADVANCE_LINE = 3;
+    private static final int DW_LNS_SET_FILE = 4;
+    private static final int DW_LNS_CONST_ADD_PC = 8;
+    private static final int DW_LNS_FIXED_ADVANCE_PC = 9;
+
+    private static final int DW_LNE_END_SEQUENCE = 1;
+    private static final int DW_LNE_SET_ADDRESS = 2;
+    private static final int DW_LNE_DEFINE_FILE = 3;
+
+    private static final int DW_LNCT_PATH = 1;
+    private static final int DW_LNCT_DIRECTORY_INDEX = 2;
+
+    private static final int DW_FORM_DATA2 = 0x05;
+    private static final int DW_FORM_DATA4 = 0x06;
+    private static final int DW_FORM_DATA8 = 0x07;
+    private static final int DW_FORM_STRING = 0x08;
+    private static final int DW_FORM_BLOCK = 0x09;
+    private static final int DW_FORM_DATA1 = 0x0B;
+    private static final int DW_FORM_STRP = 0x0E;
+    private static final int DW_FORM_UDATA = 0x0F;
+    private static final int DW_FORM_DATA16 = 0x1E;
+    private static final int DW_FORM_LINE_STRP = 0x1F;
+
+    /**
+     * Index in {@link #myFileNames} of the rows of instructions without location, e.g. the end of a sequence or code generated by the
+     * compiler.
+     */
+    private static final int NO_FILE = -1;
+
+    /**
+     * Addresses of the rows, ascending.
+     */
+    @NotNull private final LongBuffer myAddresses;
+
+    /**
+     * Index of the source file of each row in {@link #myFileNames}, or {@link #NO_FILE}.
+     */
+    @NotNull private final IntBuffer myFiles;
+    @NotNull private final IntBuffer myLines;
+    @NotNull private final String[] myFileNames;
+
+    private DwarfLineTable(@NotNull LongBuffer addresses, @NotNull IntBuffer files, @NotNull IntBuffer lines, @NotNull String[] fileNames) {
+        myAddresses = addresses;
+        myFiles = files;
+        myLines = lines;
+        myFileNames = fileNames;
+    }
+
+    /**
+     * Decodes the line number programs of the given file. Units of versions or forms that aren't supported are skipped, as well as the
+     * sequences of functions removed by the linker, which start at address 0.
+     *
+     * @return the table of the file, or null if it has no {@code .debug_line} section.
+     */
+    @Nullable
+    public static DwarfLineTable read(@NotNull ElfFile elf) {
+        ElfFile.Section lineSection = elf.findSection(".debug_line");
+        if (lineSection == null) {
+            return null;
+        }
+        ElfFile.Section lineStrings = elf.findSection(".debug_line_str");
+        ElfFile.Section strings = elf.findSection(".debug_str");
+        Rows rows = new Rows(lineStrings == null ? null : elf.getContent(lineStrings), strings == null ? null : elf.getContent(strings));
+        ByteBuffer data = elf.getContent(lineSection);
+        while (data.remaining() >= 4) {
+            long unitLength = data.getInt() & 0xFFFFFFFFL;
+            int offsetSize = 4;
+            if (unitLength == 0xFFFFFFFFL) {
+                unitLength = data.getLong();
+                offsetSize = 8;
+            }
+            if (unitLength > data.remaining()) {
+                break;
+            }
+            int unitEnd = data.position() + (int)unitLength;
+            ByteBuffer unit = data.duplicate().order(data.order());
+            unit.limit(unitEnd);
+            try {
+                rows.addUnit(unit, offsetSize);
+            }
+            catch (IllegalArgumentException | BufferUnderflowException e) {
+                // Keep the sequences decoded before the unsupported part of the unit.
+            }
+            rows.discardSequence();
+            data.position(unitEnd);
+        }
+        return rows.toTable();
+    }
+
+    /**
+     * Loads a table written by {@link #write(File)}, keeping its rows in the memory-mapped file.
+     */
+    @NotNull
+    public static DwarfLineTable load(@NotNull File file) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        }
+        if (buffer.remaining() < FILE_HEADER_SIZE || buffer.getInt(0) != FILE_MAGIC || buffer.getInt(4) != FILE_VERSION) {
+            throw new IOException("Unsupported line table file " + file);
+        }
+        int count = buffer.getInt(8);
+        int fileCount = buffer.getInt(12);
+        long namesOffset = FILE_HEADER_SIZE + count * 16L;
+        if (count < 0 || fileCount < 0 || buffer.remaining() < namesOffset + fileCount * 4L) {
+            throw new IOException("Truncated line table file " + file);
+        }
+        buffer.position(FILE_HEADER_SIZE);
+        LongBuffer addresses = buffer.slice().asLongBuffer();
+        addresses.limit(count);
+        buffer.position(FILE_HEADER_SIZE + count * 8);
+        IntBuffer files = buffer.slice().asIntBuffer();
+        files.limit(count);
+        buffer.position(FILE_HEADER_SIZE + count * 12);
+        IntBuffer lines = buffer.slice().asIntBuffer();
+        lines.limit(count);
+
+        String[] fileNames = new String[fileCount];
+        buffer.position((int)namesOffset);
+        for (int i = 0; i < fileCount; i++) {
+            if (buffer.remaining() < 4) {
+                throw new IOException("Truncated line table file " + file);
+            }
+            byte[] name = new byte[buffer.getInt()];
+            if (buffer.remaining() < name.length) {
+                throw new IOException("Truncated line table file " + file);
+            }
+            buffer.get(name);
+            fileNames[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        return new DwarfLineTable(addresses, files, lines, fileNames);
+    }
+
+    public void write(@NotNull File file) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeInt(size());
+            output.writeInt(myFileNames.length);
+            for (int i = 0; i < size(); i++) {
+                output.writeLong(myAddresses.get(i));
+            }
+            for (int i = 0; i < size(); i++) {
+                output.writeInt(myFiles.get(i));
+            }
+            for (int i = 0; i < size(); i++) {
+                output.writeInt(myLines.get(i));
+            }
+            for (String fileName : myFileNames) {
+                byte[] bytes = fileName.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+        }
+    }
+
+    public int size() {
+        return myAddresses.limit();
+    }
+
+    /**
+     * @return the index of the row giving the location of the instruction at the given address, or -1 if it has no known location.
+     */
+    public int findRow(long address) {
+        int low = 0;
+        int high = size() - 1;
+        // Find the last row at or before the address.
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(myAddresses.get(mid), address) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && myFiles.get(high) != NO_FILE ? high : -1;
+    }
+
+    /**
+     * @return the location of the instruction at the given address, or null if it has no known location.
+     */
+    @Nullable
+    public SourceLocation findLocation(long address) {
+        int row = findRow(address);
+        return row < 0 ? null : new SourceLocation(getFile(row), getLine(row));
+    }
+
+    public long getAddress(int row) {
+        return myAddresses.get(row);
+    }
+
+    @NotNull
+    public String getFile(int row) {
+        return myFileNames[myFiles.get(row)];
+    }
+
+    public int getLine(int row) {
+        return myLines.get(row);
+    }
+
+    /**
+     * Rows decoded from line number programs, grouped by sequence of contiguous instructions, and the source files they refer to.
+     */
+    private static final class Rows {
+        @Nullable private final ByteBuffer myLineStrings;
+        @Nullable private final ByteBuffer myStrings;
+
+        private int myCount;
+        private long[] myAddresses = new long[1024];
+        private int[] myFiles = new int[1024];
+        private int[] myLines = new int[1024];
+
+        /**
+         * First row of the sequence being decoded.
+         */
+        private int mySequenceStart;
+
+        /**
+         * First row, end row (exclusive) and end address of the sequences decoded so far.
+         */
+        private int mySequenceCount;
+        private int[] mySequenceStarts = new int[64];
+        private int[] mySequenceEnds = new int[64];
+        private long[] mySequenceEndAddresses = new long[64];
+
+        @NotNull private final List<String> myFileNames = new ArrayList<>();
+        @NotNull private final Map<String, Integer> myFileIndices = new HashMap<>();
+
+        Rows(@Nullable ByteBuffer lineStrings, @Nullable ByteBuffer strings) {
+            myLineStrings = lineStrings;
+            myStrings = strings;
+        }
+
+        /**
+         * Decodes the header and runs the line number program of the unit following the unit length.
+         */
+        void addUnit(@NotNull ByteBuffer unit, int offsetSize) {
+            int version = unit.getShort() & 0xFFFF;
+            if (version < 2 || version > 5) {
+                return;
+            }
+            if (version >= 5) {
+                // Address and segment selector sizes, the former being implied by the size of DW_LNE_set_address anyway.
+                unit.getShort();
+            }
+            long headerLength = offsetSize == 8 ? unit.getLong() : unit.getInt() & 0xFFFFFFFFL;
+            long programStart = unit.position() + headerLength;
+            int minInstructionLength = unit.get() & 0xFF;
+            if (version >= 4) {
+                // Maximum operations per instruction, which only matters for VLIW architectures.
+                unit.get();
+            }
+            // Default is_stmt.
+            unit.get();
+            int lineBase = unit.get();
+            int lineRange = unit.get() & 0xFF;
+            int opcodeBase = unit.get() & 0xFF;
+            if (lineRange == 0 || opcodeBase == 0 || programStart > unit.limit()) {
+                throw new IllegalArgumentException("Invalid line number program header");
+            }
+            int[] argumentCounts = new int[opcodeBase];
+            for (int i = 1; i < opcodeBase; i++) {
+                argumentCounts[i] = unit.get() & 0xFF;
+            }
+            List<Integer> files = version >= 5 ? readFilesV5(unit, offsetSize) : readFiles(unit);
+            unit.position((int)programStart);
+
+            long address = 0;
+            int file = 1;
+            int line = 1;
+            while (unit.hasRemaining()) {
+                int opcode = unit.get() & 0xFF;
+                if (opcode >= opcodeBase) {
+                    int adjustedOpcode = opcode - opcodeBase;
+                    address += (long)(adjustedOpcode / lineRange) * minInstructionLength;
+                    line += lineBase + adjustedOpcode % lineRange;
+                    add(address, files, file, line);
+                    continue;
+                }
+                switch (opcode) {
+                    case 0:
+                        long length = readUnsignedLeb128(unit);
+                        if (length <= 0 || length > unit.remaining()) {
+                            throw new IllegalArgumentException("Invalid extended opcode");
+                        }
+                        int end = unit.position() + (int)length;
+                        int extendedOpcode = unit.get() & 0xFF;
+                        if (extendedOpcode == DW_LNE_END_SEQUENCE) {
+                            endSequence(address);
+                            address = 0;
+                            file = 1;
+                            line = 1;
+                        }
+                        else if (extendedOpcode == DW_LNE_SET_ADDRESS) {
+                            address = readAddress(unit, end - unit.position());
+                        }
+                        else if (extendedOpcode == DW_LNE_DEFINE_FILE) {
+                            // The directory, modification time and length of the file are skipped with the opcode.
+                            files.add(internFile(readString(unit)));
+                        }
+                        unit.position(end);
+                        break;
+                    case DW_LNS_COPY:
+                        add(address, files, file, line);
+                        break;
+                    case DW_LNS_ADVANCE_PC:
+                        address += readUnsignedLeb128(unit) * minInstructionLength;
+                        break;
+                    case DW_LNS_ADVANCE_LINE:
+                        line += (int)readSignedLeb128(unit);
+                        break;
+                    case DW_LNS_SET_FILE:
+                        file = (int)readUnsignedLeb128(unit);
+                        break;
+                    case DW_LNS_CONST_ADD_PC:
+                        address += (long)((255 - opcodeBase) / lineRange) * minInstructionLength;
+                        break;
+                    case DW_LNS_FIXED_ADVANCE_PC:
+                        address += unit.getShort() & 0xFFFF;
+                        break;
+                    default:
+                        // Opcodes that don't change the address or the location, e.g. columns, and opcodes of later versions.
+                        for (int i = 0; i < argumentCounts[opcode]; i++) {
+                            readUnsignedLeb128(unit);
+                        }
+                }
+            }
+        }
+
+        /**
+         * Reads the include directories and file names of a header before version 5, where file 0 doesn't exist and directory 0 is
+         * the compilation directory, which isn't part of the header.
+         */
+        @NotNull
+        private List<Integer> readFiles(@NotNull ByteBuffer unit) {
+            List<String> directories = new ArrayList<>();
+            directories.add(null);
+            for (String directory = readString(unit); !directory.isEmpty(); directory = readString(unit)) {
+                directories.add(directory);
+            }
+            List<Integer> files = new ArrayList<>();
+            files.add(NO_FILE);
+            for (String name = readString(unit); !name.isEmpty(); name = readString(unit)) {
+                long directory = readUnsignedLeb128(unit);
+                // Modification time and length.
+                readUnsignedLeb128(unit);
+                readUnsignedLeb128(unit);
+                files.add(internFile(join(directory < directories.size() ? directories.get((int)directory) : null, name)));
+            }
+            return files;
+        }
+
+        /**
+         * Reads the directory and file name entries of a version 5 header, laid out as described by their entry formats.
+         */
+        @NotNull
+        private List<Integer> readFilesV5(@NotNull ByteBuffer unit, int offsetSize) {
+            List<String> directories = new ArrayList<>();
+            int[] directoryFormat = readEntryFormat(unit);
+            long directoryCount = readUnsignedLeb128(unit);
+            for (long i = 0; i < directoryCount; i++) {
+                String path = null;
+                for (int j = 0; j < directoryFormat.length; j += 2) {
+                    long value = readForm(unit, directoryFormat[j + 1], offsetSize);
+                    if (directoryFormat[j] == DW_LNCT_PATH) {
+                        path = getFormString(unit, directoryFormat[j + 1], value);
+                    }
+                }
+                directories.add(path);
+            }
+            List<Integer> files = new ArrayList<>();
+            int[] fileFormat = readEntryFormat(unit);
+            long fileCount = readUnsignedLeb128(unit);
+            for (long i = 0; i < fileCount; i++) {
+                String path = null;
+                long directory = 0;
+                for (int j = 0; j < fileFormat.length; j += 2) {
+                    long value = readForm(unit, fileFormat[j + 1], offsetSize);
+                    if (fileFormat[j] == DW_LNCT_PATH) {
+                        path = getFormString(unit, fileFormat[j + 1], value);
+                    }
+                    else if (fileFormat[j] == DW_LNCT_DIRECTORY_INDEX) {
+                        directory = value;
+                    }
+                }
+                files.add(path == null ? NO_FILE
+                                       : internFile(join(directory < directories.size() ? directories.get((int)directory) : null, path)));
+            }
+            return files;
+        }
+
+        /**
+         * @return the content type and form of each field of an entry, in pairs.
+         */
+        @NotNull
+        private static int[] readEntryFormat(@NotNull ByteBuffer unit) {
+            int[] format = new int[(unit.get() & 0xFF) * 2];
+            for (int i = 0; i < format.length; i++) {
+                format[i] = (int)readUnsignedLeb128(unit);
+            }
+            return format;
+        }
+
+        /**
+         * Reads a field of an entry.
+         *
+         * @return the value of a constant, the offset of a string, or 0 for the forms whose value doesn't matter here.
+         */
+        private static long readForm(@NotNull ByteBuffer unit, int form, int offsetSize) {
+            switch (form) {
+                case DW_FORM_DATA1:
+                    return unit.get() & 0xFF;
+                case DW_FORM_DATA2:
+                    return unit.getShort() & 0xFFFF;
+                case DW_FORM_DATA4:
+                    return unit.getInt() & 0xFFFFFFFFL;
+                case DW_FORM_DATA8:
+                    return unit.getLong();
+                case DW_FORM_UDATA:
+                    return readUnsignedLeb128(unit);
+                case DW_FORM_DATA16:
+                    unit.position(unit.position() + 16);
+                    return 0;
+                case DW_FORM_BLOCK:
+                    long length = readUnsignedLeb128(unit);
+                    unit.position(Math.toIntExact(unit.position() + length));
+                    return 0;
+                case DW_FORM_STRING:
+                    int start = unit.position();
+                    readString(unit);
+                    return start;
+                case DW_FORM_STRP:
+                case DW_FORM_LINE_STRP:
+                    return offsetSize == 8 ? unit.getLong() : unit.getInt() & 0xFFFFFFFFL;
+                default:
+                    throw new IllegalArgumentException("Unsupported form " + form);
+            }
+        }
+
+        @NotNull
+        private String getFormString(@NotNull ByteBuffer unit, int form, long value) {
+            ByteBuffer strings = form == DW_FORM_STRING ? unit : form == DW_FORM_LINE_STRP ? myLineStrings : form == DW_FORM_STRP ? myStrings : null;
+            if (strings == null || value < 0 || value >= strings.limit()) {
+                throw new IllegalArgumentException("Unsupported string form " + form);
+            }
+            return ElfFile.readString(strings, (int)value);
+        }
+
+        private int internFile(@NotNull String path) {
+            return myFileIndices.computeIfAbsent(path, p -> {
+                myFileNames.add(p);
+                return myFileNames.size() - 1;
+            });
+        }
+
+        private void add(long address, @NotNull List<Integer> files, int file, int line) {
+            int fileIndex = file >= 0 && file < files.size() ? files.get(file) : NO_FILE;
+            add(address, line > 0 ? fileIndex : NO_FILE, fileIndex == NO_FILE ? 0 : line);
+        }
+
+        private void add(long address, int file, int line) {
+            // The last row at an address wins, and a row at the location of the previous one adds nothing.
+            while (myCount > mySequenceStart && myAddresses[myCount - 1] == address) {
+                myCount--;
+            }
+            if (myCount > mySequenceStart && myFiles[myCount - 1] == file && myLines[myCount - 1] == line) {
+                return;
+            }
+            if (myCount == myAddresses.length) {
+                myAddresses = Arrays.copyOf(myAddresses, myCount * 2);
+                myFiles = Arrays.copyOf(myFiles, myCount * 2);
+                myLines = Arrays.copyOf(myLines, myCount * 2);
+            }
+            myAddresses[myCount] = address;
+            myFiles[myCount] = file;
+            myLines[myCount++] = line;
+        }
+
+        private void endSequence(long address) {
+            if (myCount == mySequenceStart) {
+                return;
+            }
+            add(address, NO_FILE, 0);
+            if (mySequenceCount == mySequenceStarts.length) {
+                mySequenceStarts = Arrays.copyOf(mySequenceStarts, mySequenceCount * 2);
+                mySequenceEnds = Arrays.copyOf(mySequenceEnds, mySequenceCount * 2);
+                mySequenceEndAddresses = Arrays.copyOf(mySequenceEndAddresses, mySequenceCount * 2);
+            }
+            mySequenceStarts[mySequenceCount] = mySequenceStart;
+            mySequenceEnds[mySequenceCount] = myCount;
+            mySequenceEndAddresses[mySequenceCount++] = address;
+            mySequenceStart = myCount;
+        }
+
+        /**
+         * Drops the rows of a sequence that wasn't ended.
+         */
+        void discardSequence() {
+            myCount = mySequenceStart;
+        }
+
+        @NotNull
+        DwarfLineTable toTable() {
+            // Each sequence is sorted already, so sorting the sequences sorts the rows.
+            Integer[] order = new Integer[mySequenceCount];
+            for (int i = 0; i < mySequenceCount; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compareUnsigned(myAddresses[mySequenceStarts[a]], myAddresses[mySequenceStarts[b]]));
+
+            long[] addresses = new long[myCount];
+            int[] files = new int[myCount];
+            int[] lines = new int[myCount];
+            int count = 0;
+            long previousEnd = 0;
+            for (int sequence : order) {
+                int start = mySequenceStarts[sequence];
+                int end = mySequenceEnds[sequence];
+                long startAddress = myAddresses[start];
+                long endAddress = mySequenceEndAddresses[sequence];
+                // Skip the sequences of removed functions, and the ones overlapping a sequence kept already.
+                if (startAddress == 0 || Long.compareUnsigned(endAddress, startAddress) <= 0
+                    || Long.compareUnsigned(startAddress, previousEnd) < 0) {
+                    continue;
+                }
+                // The end of the previous sequence is replaced by the start of this one if they're contiguous.
+                if (count > 0 && addresses[count - 1] == startAddress) {
+                    count--;
+                }
+                System.arraycopy(myAddresses, start, addresses, count, end - start);
+                System.arraycopy(myFiles, start, files, count, end - start);
+                System.arraycopy(myLines, start, lines, count, end - start);
+                count += end - start;
+                previousEnd = endAddress;
+            }
+            return new DwarfLineTable(LongBuffer.wrap(Arrays.copyOf(addresses, count)), IntBuffer.wrap(Arrays.copyOf(files, count)),
+                                      IntBuffer.wrap(Arrays.copyOf(lines, count)), myFileNames.toArray(new String[0]));
+        }
+
+        @NotNull
+        private static String join(@Nullable String directory, @NotNull String name) {
+            if (directory == null || directory.isEmpty() || name.startsWith("/")) {
+                return name;
+            }
+            return directory.endsWith("/") ? directory + name : directory + "/" + name;
+        }
+
+        private static long readAddress(@NotNull ByteBuffer unit, int size) {
+            switch (size) {
+                case 8:
+                    return unit.getLong();
+                case 4:
+                    return unit.getInt() & 0xFFFFFFFFL;
+                case 2:
+                    return unit.getShort() & 0xFFFF;
+                default:
+                    throw new IllegalArgumentException("Unsupported address size " + size);
+            }
+        }
+
+        @NotNull
+        private static String readString(@NotNull ByteBuffer unit) {
+            String string = ElfFile.readString(unit, unit.position());
+            int end = unit.position();
+            while (end < unit.limit() && unit.get(end) != 0) {
+                end++;
+            }
+            if (end == unit.limit()) {
+                throw new IllegalArgumentException("Unterminated string");
+            }
+            unit.position(end + 1);
+            return string;
+        }
+
+        private static long readUnsignedLeb128(@NotNull ByteBuffer unit) {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = unit.get();
+                if (shift < 64) {
+                    value |= (long)(b & 0x7F) << shift;
+                }
+                shift += 7;
+            }
+            while (b < 0);
+            return value;
+        }
+
+        private static long readSignedLeb128(@NotNull ByteBuffer unit) {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = unit.get();
+                if (shift < 64) {
+                    value |= (long)(b & 0x7F) << shift;
+                }
+                shift += 7;
+            }
+            while (b < 0);
+            if (shift < 64 && (b & 0x40) != 0) {
+                value |= -1L << shift;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Read-only view of the sections of a memory-mapped ELF file, 32 or 64-bit, little or big-endian. Only what the offline symbolizers
+ * need is decoded: the section headers, the build id of the file, and compressed sections.
+ */
+public final class ElfFile {
+
+    public static final int SHT_SYMTAB = 2;
+    public static final int SHT_STRTAB = 3;
+    public static final int SHT_NOTE = 7;
+    public static final int SHT_DYNSYM = 11;
+
+    public static final int SHF_COMPRESSED = 0x800;
+
+    public static final int EM_ARM = 40;
+
+    private static final int ELFCOMPRESS_ZLIB = 1;
+
+    private static final int NT_GNU_BUILD_ID = 3;
+
+    private static final byte[] MAGIC = {0x7F, 'E', 'L', 'F'};
+
+    public static final class Section {
+        @NotNull private final String myName;
+        private final int myType;
+        private final long myFlags;
+        private final long myAddress;
+        private final long myOffset;
+        private final long mySize;
+        private final int myLink;
+        private final long myEntrySize;
+
+        private Section(@NotNull String name, int type, long flags, long address, long offset, long size, int link, long entrySize) {
+            myName = name;
+            myType = type;
+            myFlags = flags;
+            myAddress = address;
+            myOffset = offset;
+            mySize = size;
+            myLink = link;
+            myEntrySize = entrySize;
+        }
+
+        @NotNull
+        public String getName() {
+            return myName;
+        }
+
+        public int getType() {
+            return myType;
+        }
+
+        public long getFlags() {
+            return myFlags;
+        }
+
+        /**
+         * @return the virtual address of the section once loaded, 0 if it isn't loaded.
+         */
+        public long getAddress() {
+            return myAddress;
+        }
+
+        public long getSize() {
+            return mySize;
+        }
+
+        /**
+         * @return the index of the section linked to this one, e.g. the string table of a symbol table.
+         */
+        public int getLink() {
+            return myLink;
+        }
+
+        public long getEntrySize() {
+            return myEntrySize;
+        }
+    }
+
+    @NotNull private final ByteBuffer myBuffer;
+    private final boolean myIs64Bit;
+    private final int myMachine;
+    @NotNull private final List<Section> mySections;
+
+    private ElfFile(@NotNull ByteBuffer buffer) {
+        myBuffer = buffer;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                throw new IllegalArgumentException("Not an ELF file.");
+            }
+        }
+        myIs64Bit = buffer.get(4) == 2;
+        buffer.order(buffer.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        myMachine = buffer.getShort(0x12) & 0xFFFF;
+
+        long sectionHeadersOffset = myIs64Bit ? buffer.getLong(0x28) : buffer.getInt(0x20) & 0xFFFFFFFFL;
+        int headerSize = buffer.getShort(myIs64Bit ? 0x3A : 0x2E) & 0xFFFF;
+        int sectionCount = buffer.getShort(myIs64Bit ? 0x3C : 0x30) & 0xFFFF;
+        int namesIndex = buffer.getShort(myIs64Bit ? 0x3E : 0x32) & 0xFFFF;
+
+        List<long[]> headers = new ArrayList<>(sectionCount);
+        for (int i = 0; i < sectionCount; i++) {
+            int offset = Math.toIntExact(sectionHeadersOffset + (long)i * headerSize);
+            headers.add(readSectionHeader(offset));
+        }
+        List<Section> sections = new ArrayList<>(sectionCount);
+        long[] names = namesIndex < sectionCount ? headers.get(namesIndex) : null;
+        for (long[] h : headers) {
+            String name = names == null ? "" : readString(names[3] + h[0]);
+            sections.add(new Section(name, (int)h[1], h[7], h[2], h[3], h[4], (int)h[5], h[6]));
+        }
+        mySections = Collections.unmodifiableList(sections);
+    }
+
+    /**
+     * Maps the given file. The mapping stays valid after the file is closed.
+     */
+    @NotNull
+    public static ElfFile open(@NotNull File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            return of(input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length()));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the buffer doesn't hold an ELF file.
+     */
+    @NotNull
+    public static ElfFile of(@NotNull ByteBuffer buffer) {
+        return new ElfFile(buffer.duplicate());
+    }
+
+    public boolean is64Bit() {
+        return myIs64Bit;
+    }
+
+    public int getMachine() {
+        return myMachine;
+    }
+
+    @NotNull
+    public List<Section> getSections() {
+        return mySections;
+    }
+
+    @Nullable
+    public Section findSection(@NotNull String name) {
+        for (Section section : mySections) {
+            if (section.getName().equals(name)) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the content of the section, sharing the memory of the file and in its byte order.
+     */
+    @NotNull
+    public ByteBuffer getData(@NotNull Section section) {
+        ByteBuffer data = myBuffer.duplicate();
+        data.position(Math.toIntExact(section.myOffset));
+        data.limit(Math.toIntExact(section.myOffset + section.mySize));
+        return data.slice().order(myBuffer.order());
+    }
+
+    /**
+     * @return the content of the section, inflated if it's compressed, e.g. the debug sections linked with
+     * {@code --compress-debug-sections=zlib}. Uncompressed sections share the memory of the file.
+     * @throws IllegalArgumentException if the section is compressed in an unsupported format.
+     */
+    @NotNull
+    public ByteBuffer getContent(@NotNull Section section) {
+        ByteBuffer data = getData(section);
+        if ((section.myFlags & SHF_COMPRESSED) == 0) {
+            return data;
+        }
+        int type = data.getInt(0);
+        long size = myIs64Bit ? data.getLong(8) : data.getInt(4) & 0xFFFFFFFFL;
+        int headerSize = myIs64Bit ? 24 : 12;
+        if (type != ELFCOMPRESS_ZLIB) {
+            throw new IllegalArgumentException("Unsupported compression " + type + " of section " + section.myName);
+        }
+        byte[] compressed = new byte[data.limit() - headerSize];
+        data.position(headerSize);
+        data.get(compressed);
+        byte[] content = new byte[Math.toIntExact(size)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < content.length && !inflater.finished()) {
+                int inflated = inflater.inflate(content, length, content.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != content.length) {
+                throw new IllegalArgumentException("Truncated compressed section " + section.myName);
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted compressed section " + section.myName, e);
+        }
+        finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(content).order(myBuffer.order());
+    }
+
+    /**
+     * @return the GNU build id of the file in hexadecimal, or null if it has none.
+     */
+    @Nullable
+    public String getBuildId() {
+        for (Section section : mySections) {
+            if (section.getType() != SHT_NOTE) {
+                continue;
+            }
+            ByteBuffer notes = getData(section);
+            while (notes.remaining() >= 12) {
+                int nameSize = notes.getInt();
+                int descriptorSize = notes.getInt();
+                int type = notes.getInt();
+                int nameStart = notes.position();
+                int descriptorStart = nameStart + align4(nameSize);
+                if (descriptorStart + descriptorSize > notes.limit()) {
+                    break;
+                }
+                if (type == NT_GNU_BUILD_ID && nameSize == 4 && notes.get(nameStart) == 'G' && notes.get(nameStart + 1) == 'N'
+                    && notes.get(nameStart + 2) == 'U') {
+                    StringBuilder buildId = new StringBuilder(descriptorSize * 2);
+                    for (int i = 0; i < descriptorSize; i++) {
+                        buildId.append(String.format("%02x", notes.get(descriptorStart + i)));
+                    }
+                    return buildId.toString();
+                }
+                notes.position(Math.min(notes.limit(), descriptorStart + align4(descriptorSize)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the null-terminated string at the given offset of the file.
+     */
+    @NotNull
+    String readString(long offset) {
+        return readString(myBuffer, Math.toIntExact(offset));
+    }
+
+    @NotNull
+    static String readString(@NotNull ByteBuffer buffer, int offset) {
+        int end = offset;
+        while (end < buffer.limit() && buffer.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the name offset, type, address, offset, size, link, entry size and flags of the section header at the given offset.
+     */
+    @NotNull
+    private long[] readSectionHeader(int offset) {
+        long[] header = new long[8];
+        header[0] = myBuffer.getInt(offset) & 0xFFFFFFFFL;
+        header[1] = myBuffer.getInt(offset + 4);
+        if (myIs64Bit) {
+            header[2] = myBuffer.getLong(offset + 0x10);
+            header[3] = myBuffer.getLong(offset + 0x18);
+            header[4] = myBuffer.getLong(offset + 0x20);
+            header[5] = myBuffer.getInt(offset + 0x28);
+            header[6] = myBuffer.getLong(offset + 0x38);
+            header[7] = myBuffer.getLong(offset + 0x08);
+        }
+        else {
+            header[2] = myBuffer.getInt(offset + 0x0C) & 0xFFFFFFFFL;
+            header[3] = myBuffer.getInt(offset + 0x10) & 0xFFFFFFFFL;
+            header[4] = myBuffer.getInt(offset + 0x14) & 0xFFFFFFFFL;
+            header[5] = myBuffer.getInt(offset + 0x18);
+            header[6] = myBuffer.getInt(offset + 0x24) & 0xFFFFFFFFL;
+            header[7] = myBuffer.getInt(offset + 0x08) & 0xFFFFFFFFL;
+        }
+        return header;
+    }
+
+    private static int align4(int size) {
+        return (size + 3) & ~3;
+    }
+}
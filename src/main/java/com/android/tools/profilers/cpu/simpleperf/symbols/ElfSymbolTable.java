@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The functions of an ELF file, from its {@code .symtab} and {@code .dynsym} sections, as an index of address intervals sorted by start
+ * address. Names are kept as null-terminated UTF-8 bytes and only decoded when looked up.
+ *
+ * The table can be written to a file and loaded back, which is much cheaper than reading the symbol tables of a large library again:
+ * the intervals are read in one go and the names stay in the memory-mapped file.
+ */
+public final class ElfSymbolTable {
+
+    private static final int STT_FUNC = 2;
+    private static final int STT_GNU_IFUNC = 10;
+
+    private static final int FILE_MAGIC = 0x45535942; // "ESYB"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 16;
+
+    /**
+     * Intervals [start, end) of the functions, sorted by start and not overlapping the start of the next function.
+     */
+    @NotNull private final long[] myStarts;
+    @NotNull private final long[] myEnds;
+
+    /**
+     * Offsets of the names of the functions in {@link #myNames}.
+     */
+    @NotNull private final int[] myNameOffsets;
+    @NotNull private final ByteBuffer myNames;
+
+    private ElfSymbolTable(@NotNull long[] starts, @NotNull long[] ends, @NotNull int[] nameOffsets, @NotNull ByteBuffer names) {
+        myStarts = starts;
+        myEnds = ends;
+        myNameOffsets = nameOffsets;
+        myNames = names;
+    }
+
+    /**
+     * Reads the function symbols of the given file. Symbols of {@code .symtab} take precedence over the ones of {@code .dynsym} at the
+     * same address, and the function of a symbol without size is assumed to end where the next one starts.
+     */
+    @NotNull
+    public static ElfSymbolTable read(@NotNull ElfFile elf) {
+        Symbols symbols = new Symbols();
+        for (int type : new int[]{ElfFile.SHT_SYMTAB, ElfFile.SHT_DYNSYM}) {
+            for (ElfFile.Section section : elf.getSections()) {
+                if (section.getType() == type) {
+                    symbols.addAll(elf, section);
+                }
+            }
+        }
+        return symbols.toTable();
+    }
+
+    /**
+     * Loads a table written by {@link #write(File)}.
+     */
+    @NotNull
+    public static ElfSymbolTable load(@NotNull File file) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        }
+        if (buffer.remaining() < FILE_HEADER_SIZE || buffer.getInt(0) != FILE_MAGIC || buffer.getInt(4) != FILE_VERSION) {
+            throw new IOException("Unsupported symbol table file " + file);
+        }
+        int count = buffer.getInt(8);
+        int namesSize = buffer.getInt(12);
+        if (buffer.remaining() != FILE_HEADER_SIZE + count * 20L + namesSize) {
+            throw new IOException("Truncated symbol table file " + file);
+        }
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        int[] nameOffsets = new int[count];
+        buffer.position(FILE_HEADER_SIZE);
+        buffer.asLongBuffer().get(starts);
+        buffer.position(FILE_HEADER_SIZE + count * 8);
+        buffer.asLongBuffer().get(ends);
+        buffer.position(FILE_HEADER_SIZE + count * 16);
+        buffer.asIntBuffer().get(nameOffsets);
+        buffer.position(FILE_HEADER_SIZE + count * 20);
+        return new ElfSymbolTable(starts, ends, nameOffsets, buffer.slice());
+    }
+
+    public void write(@NotNull File file) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeInt(size());
+            output.writeInt(myNames.limit());
+            for (long start : myStarts) {
+                output.writeLong(start);
+            }
+            for (long end : myEnds) {
+                output.writeLong(end);
+            }
+            for (int offset : myNameOffsets) {
+                output.writeInt(offset);
+            }
+            for (int i = 0; i < myNames.limit(); i++) {
+                output.write(myNames.get(i));
+            }
+        }
+    }
+
+    public int size() {
+        return myStarts.length;
+    }
+
+    /**
+     * @return the index of the function containing the given address, or -1 if there is none.
+     */
+    public int findSymbol(long address) {
+        int low = 0;
+        int high = myStarts.length - 1;
+        // Find the last function starting at or before the address.
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(myStarts[mid], address) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && Long.compareUnsigned(address, myEnds[high]) < 0 ? high : -1;
+    }
+
+    public long getStart(int index) {
+        return myStarts[index];
+    }
+
+    public long getEnd(int index) {
+        return myEnds[index];
+    }
+
+    @NotNull
+    public String getName(int index) {
+        return ElfFile.readString(myNames, myNameOffsets[index]);
+    }
+
+    /**
+     * Function symbols read from symbol tables, with their names copied into a single buffer.
+     */
+    private static final class Symbols {
+        private int myCount;
+        private long[] myStarts = new long[1024];
+        private long[] mySizes = new long[1024];
+        private int[] myNameOffsets = new int[1024];
+        private byte[] myNames = new byte[16 * 1024];
+        private int myNamesSize;
+
+        void addAll(@NotNull ElfFile elf, @NotNull ElfFile.Section symbolSection) {
+            ElfFile.Section stringSection = elf.getSections().get(symbolSection.getLink());
+            ByteBuffer symbolData = elf.getData(symbolSection);
+            ByteBuffer strings = elf.getData(stringSection);
+            int entrySize = elf.is64Bit() ? 24 : 16;
+            boolean thumb = elf.getMachine() == ElfFile.EM_ARM;
+            for (int offset = 0; offset + entrySize <= symbolData.limit(); offset += entrySize) {
+                int name = symbolData.getInt(offset);
+                int info;
+                int sectionIndex;
+                long value;
+                long size;
+                if (elf.is64Bit()) {
+                    info = symbolData.get(offset + 4);
+                    sectionIndex = symbolData.getShort(offset + 6) & 0xFFFF;
+                    value = symbolData.getLong(offset + 8);
+                    size = symbolData.getLong(offset + 16);
+                }
+                else {
+                    value = symbolData.getInt(offset + 4) & 0xFFFFFFFFL;
+                    size = symbolData.getInt(offset + 8) & 0xFFFFFFFFL;
+                    info = symbolData.get(offset + 12);
+                    sectionIndex = symbolData.getShort(offset + 14) & 0xFFFF;
+                }
+                int type = info & 0xF;
+                if ((type != STT_FUNC && type != STT_GNU_IFUNC) || sectionIndex == 0 || name == 0) {
+                    continue;
+                }
+                // The lowest bit of the address of ARM functions tells whether they're Thumb code.
+                add(thumb ? value & ~1L : value, size, strings, name);
+            }
+        }
+
+        private void add(long start, long size, @NotNull ByteBuffer strings, int nameOffset) {
+            if (myCount == myStarts.length) {
+                myStarts = Arrays.copyOf(myStarts, myCount * 2);
+                mySizes = Arrays.copyOf(mySizes, myCount * 2);
+                myNameOffsets = Arrays.copyOf(myNameOffsets, myCount * 2);
+            }
+            int nameEnd = nameOffset;
+            while (nameEnd < strings.limit() && strings.get(nameEnd) != 0) {
+                nameEnd++;
+            }
+            int length = nameEnd - nameOffset;
+            if (myNamesSize + length + 1 > myNames.length) {
+                myNames = Arrays.copyOf(myNames, Math.max(myNames.length * 2, myNamesSize + length + 1));
+            }
+            for (int i = 0; i < length; i++) {
+                myNames[myNamesSize + i] = strings.get(nameOffset + i);
+            }
+            myStarts[myCount] = start;
+            mySizes[myCount] = size;
+            myNameOffsets[myCount++] = myNamesSize;
+            myNamesSize += length + 1;
+        }
+
+        @NotNull
+        ElfSymbolTable toTable() {
+            // Stable sort by start, so the first symbol read at an address wins.
+            Integer[] order = new Integer[myCount];
+            for (int i = 0; i < myCount; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compareUnsigned(myStarts[a], myStarts[b]));
+
+            long[] starts = new long[myCount];
+            long[] ends = new long[myCount];
+            int[] nameOffsets = new int[myCount];
+            int count = 0;
+            for (int i = 0; i < myCount; i++) {
+                int symbol = order[i];
+                if (count > 0 && starts[count - 1] == myStarts[symbol]) {
+                    continue;
+                }
+                starts[count] = myStarts[symbol];
+                ends[count] = myStarts[symbol] + mySizes[symbol];
+                nameOffsets[count++] = myNameOffsets[symbol];
+            }
+            for (int i = 0; i < count; i++) {
+                long nextStart = i + 1 < count ? starts[i + 1] : -1L;
+                if (starts[i] == ends[i] || (i + 1 < count && Long.compareUnsigned(ends[i], nextStart) > 0)) {
+                    ends[i] = i + 1 < count ? nextStart : starts[i] + 1;
+                }
+            }
+            return new ElfSymbolTable(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count), Arrays.copyOf(nameOffsets, count),
+                                      ByteBuffer.wrap(Arrays.copyOf(myNames, myNamesSize)));
+        }
+    }
+}
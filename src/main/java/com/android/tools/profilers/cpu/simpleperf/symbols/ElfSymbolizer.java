@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import com.android.tools.profilers.cpu.simpleperf.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resolves addresses of native libraries from their unstripped copies, e.g. the intermediates of the build that produced a stripped
+ * release. A library of the device is matched by file name to the files of a local directory, preferring the ones in a directory of
+ * the same ABI, and its functions are read from the {@code .symtab} and {@code .dynsym} sections of the match.
+ *
+ * Reading the symbol tables of a large library takes a while, so the table of each library is cached in memory, and optionally on
+ * disk by GNU build id, which identifies the build of the library regardless of where it's copied.
+ *
+ * ELF symbols are mangled. The names are passed through the given demangler, if any, before being returned.
+ */
+public final class ElfSymbolizer implements SymbolResolver {
+
+    @NotNull private final LocalElfFiles myLocalFiles;
+    @Nullable private final File myCacheDirectory;
+    @NotNull private final UnaryOperator<String> myDemangler;
+
+    /**
+     * Symbol tables of the local files read so far, empty for files that couldn't be read.
+     */
+    @NotNull private final Map<File, Optional<ElfSymbolTable>> myTables = new ConcurrentHashMap<>();
+
+    /**
+     * @param symbolDirectory directory containing the unstripped files, possibly in subdirectories.
+     * @param cacheDirectory  directory where to cache the symbol tables of the files by build id, or null to not cache them on disk.
+     * @param demangler       demangler of the names of the symbols, or null to return mangled names.
+     */
+    public ElfSymbolizer(@NotNull File symbolDirectory, @Nullable File cacheDirectory, @Nullable UnaryOperator<String> demangler) {
+        myLocalFiles = new LocalElfFiles(symbolDirectory);
+        myCacheDirectory = cacheDirectory;
+        myDemangler = demangler == null ? UnaryOperator.identity() : demangler;
+    }
+
+    public ElfSymbolizer(@NotNull File symbolDirectory, @Nullable File cacheDirectory) {
+        this(symbolDirectory, cacheDirectory, null);
+    }
+
+    private static Logger getLogger() {
+        return Logger.getInstance(ElfSymbolizer.class);
+    }
+
+    @Nullable
+    @Override
+    public String[] resolve(@NotNull String path, @NotNull long[] vAddresses) {
+        File localFile = myLocalFiles.find(path);
+        if (localFile == null) {
+            return null;
+        }
+        ElfSymbolTable table = myTables.computeIfAbsent(localFile, file -> Optional.ofNullable(readTable(file))).orElse(null);
+        if (table == null) {
+            return null;
+        }
+        String[] names = new String[vAddresses.length];
+        int previousSymbol = -1;
+        for (int i = 0; i < vAddresses.length; i++) {
+            int symbol = table.findSymbol(vAddresses[i]);
+            if (symbol < 0) {
+                continue;
+            }
+            // Addresses are sorted, so the ones of a function are consecutive and share its name.
+            names[i] = symbol == previousSymbol ? names[i - 1] : myDemangler.apply(table.getName(symbol));
+            previousSymbol = symbol;
+        }
+        return names;
+    }
+
+    @Nullable
+    private ElfSymbolTable readTable(@NotNull File file) {
+        try {
+            ElfFile elf = ElfFile.open(file);
+            String buildId = elf.getBuildId();
+            File cachedTable = myCacheDirectory == null || buildId == null ? null : new File(myCacheDirectory, buildId + ".symbols");
+            if (cachedTable != null && cachedTable.isFile()) {
+                try {
+                    return ElfSymbolTable.load(cachedTable);
+                }
+                catch (IOException e) {
+                    getLogger().warn("Ignoring the cached symbols of " + file + ": " + e);
+                }
+            }
+            ElfSymbolTable table = ElfSymbolTable.read(elf);
+            if (cachedTable != null) {
+                LocalElfFiles.writeCacheFile(cachedTable, table::write);
+            }
+            return table;
+        }
+        catch (IOException | RuntimeException e) {
+            getLogger().warn("Can't read the symbols of " + file + ": " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resolves the kernel addresses of a trace, i.e. the addresses of the pseudo file {@code [kernel.kallsyms]}, from a dump of the
+ * {@code /proc/kallsyms} of the device taken while it was traced, e.g. with {@code adb shell su root cat /proc/kallsyms}.
+ *
+ * The dump lists the address, type and name of every kernel symbol, without sizes, so a function is assumed to end where the next
+ * symbol starts. Symbols other than functions are kept as bounds of the function before them. The addresses are kept in a sorted
+ * primitive array, and the names as offsets in the text of the dump, which is only decoded for the addresses looked up.
+ */
+public final class KallsymsResolver implements SymbolResolver {
+
+    public static final String KERNEL_PATH = "[kernel.kallsyms]";
+
+    /**
+     * Start addresses of the symbols, ascending as unsigned values.
+     */
+    @NotNull private final long[] myStarts;
+
+    /**
+     * Offset of the name of each symbol in {@link #myText}, or -1 for symbols that aren't functions.
+     */
+    @NotNull private final int[] myNameOffsets;
+    @NotNull private final int[] myNameLengths;
+    @NotNull private final byte[] myText;
+
+    private KallsymsResolver(@NotNull long[] starts, @NotNull int[] nameOffsets, @NotNull int[] nameLengths, @NotNull byte[] text) {
+        myStarts = starts;
+        myNameOffsets = nameOffsets;
+        myNameLengths = nameLengths;
+        myText = text;
+    }
+
+    /**
+     * @throws IOException if the file can't be read, or if the kernel hid the addresses when it was dumped.
+     */
+    @NotNull
+    public static KallsymsResolver load(@NotNull File file) throws IOException {
+        return parse(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * @param text content of a dump of {@code /proc/kallsyms}, which is kept by the resolver.
+     * @throws IOException if the kernel hid the addresses when it was dumped.
+     */
+    @NotNull
+    public static KallsymsResolver parse(@NotNull byte[] text) throws IOException {
+        Symbols symbols = new Symbols(text.length / 40 + 16);
+        boolean hiddenAddresses = false;
+        int position = 0;
+        while (position < text.length) {
+            int lineEnd = position;
+            while (lineEnd < text.length && text[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            // Lines look like "ffffffc010081000 T _text", followed by "\t[module]" for the symbols of modules.
+            long address = 0;
+            int i = position;
+            for (int digit; i < lineEnd && (digit = hexDigit(text[i])) >= 0; i++) {
+                address = address << 4 | digit;
+            }
+            if (i > position && i + 3 < lineEnd && text[i] == ' ' && text[i + 2] == ' ') {
+                int nameStart = i + 3;
+                int nameEnd = nameStart;
+                while (nameEnd < lineEnd && text[nameEnd] != '\t' && text[nameEnd] != ' ' && text[nameEnd] != '\r') {
+                    nameEnd++;
+                }
+                if (address == 0) {
+                    // The kernel shows null addresses to the users not allowed to see them, see kptr_restrict.
+                    hiddenAddresses = true;
+                }
+                else if (nameEnd > nameStart) {
+                    symbols.add(address, isFunction(text[i + 1]) ? nameStart : -1, nameEnd - nameStart);
+                }
+            }
+            position = lineEnd + 1;
+        }
+        if (symbols.myCount == 0 && hiddenAddresses) {
+            throw new IOException("The kernel symbol addresses are hidden, /proc/kallsyms has to be read as root");
+        }
+        return symbols.toResolver(text);
+    }
+
+    private static int hexDigit(byte c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return c >= 'A' && c <= 'F' ? c - 'A' + 10 : -1;
+    }
+
+    private static boolean isFunction(byte type) {
+        return type == 'T' || type == 't' || type == 'W' || type == 'w';
+    }
+
+    /**
+     * Resolves the addresses of {@link #KERNEL_PATH}, which simpleperf reports as absolute kernel addresses.
+     */
+    @Nullable
+    @Override
+    public String[] resolve(@NotNull String path, @NotNull long[] vAddresses) {
+        if (!path.equals(KERNEL_PATH)) {
+            return null;
+        }
+        String[] names = new String[vAddresses.length];
+        int previousSymbol = -1;
+        for (int i = 0; i < vAddresses.length; i++) {
+            int symbol = findSymbol(vAddresses[i]);
+            if (symbol < 0) {
+                continue;
+            }
+            // Addresses are sorted, so the ones of a function are consecutive and share its name.
+            names[i] = symbol == previousSymbol ? names[i - 1] : getName(symbol);
+            previousSymbol = symbol;
+        }
+        return names;
+    }
+
+    public int size() {
+        return myStarts.length;
+    }
+
+    /**
+     * @return the index of the function containing the given address, or -1 if there is none. The last symbol has no end, so the
+     * addresses after it aren't resolved.
+     */
+    public int findSymbol(long address) {
+        int low = 0;
+        int high = myStarts.length - 1;
+        // Find the last symbol starting at or before the address.
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(myStarts[mid], address) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && high < myStarts.length - 1 && myNameOffsets[high] >= 0 ? high : -1;
+    }
+
+    public long getStart(int index) {
+        return myStarts[index];
+    }
+
+    @NotNull
+    public String getName(int index) {
+        return new String(myText, myNameOffsets[index], myNameLengths[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Symbols in the order of the dump, where the symbols of each module follow the ones of the kernel.
+     */
+    private static final class Symbols {
+        private int myCount;
+        private long[] myStarts;
+        private int[] myNameOffsets;
+        private int[] myNameLengths;
+        private boolean mySorted = true;
+
+        Symbols(int expectedCount) {
+            myStarts = new long[expectedCount];
+            myNameOffsets = new int[expectedCount];
+            myNameLengths = new int[expectedCount];
+        }
+
+        void add(long start, int nameOffset, int nameLength) {
+            if (myCount == myStarts.length) {
+                myStarts = Arrays.copyOf(myStarts, myCount * 2);
+                myNameOffsets = Arrays.copyOf(myNameOffsets, myCount * 2);
+                myNameLengths = Arrays.copyOf(myNameLengths, myCount * 2);
+            }
+            if (myCount > 0 && Long.compareUnsigned(myStarts[myCount - 1], start) > 0) {
+                mySorted = false;
+            }
+            myStarts[myCount] = start;
+            myNameOffsets[myCount] = nameOffset;
+            myNameLengths[myCount++] = nameLength;
+        }
+
+        @NotNull
+        KallsymsResolver toResolver(@NotNull byte[] text) {
+            int[] order = mySorted ? null : sortedOrder();
+            long[] starts = new long[myCount];
+            int[] nameOffsets = new int[myCount];
+            int[] nameLengths = new int[myCount];
+            int count = 0;
+            for (int i = 0; i < myCount; i++) {
+                int symbol = order == null ? i : order[i];
+                if (count > 0 && starts[count - 1] == myStarts[symbol]) {
+                    // Aliases of a symbol: the first function wins.
+                    if (nameOffsets[count - 1] < 0 && myNameOffsets[symbol] >= 0) {
+                        nameOffsets[count - 1] = myNameOffsets[symbol];
+                        nameLengths[count - 1] = myNameLengths[symbol];
+                    }
+                    continue;
+                }
+                starts[count] = myStarts[symbol];
+                nameOffsets[count] = myNameOffsets[symbol];
+                nameLengths[count++] = myNameLengths[symbol];
+            }
+            return new KallsymsResolver(Arrays.copyOf(starts, count), Arrays.copyOf(nameOffsets, count), Arrays.copyOf(nameLengths, count),
+                                        text);
+        }
+
+        /**
+         * @return the indices of the symbols by ascending address. The dump is made of sorted runs, the kernel and then each module,
+         * whose address ranges don't overlap, so sorting the runs by their first address is enough. Runs that do overlap fall back to
+         * sorting every symbol.
+         */
+        @NotNull
+        private int[] sortedOrder() {
+            List<int[]> runs = new ArrayList<>();
+            int runStart = 0;
+            for (int i = 1; i <= myCount; i++) {
+                if (i == myCount || Long.compareUnsigned(myStarts[i - 1], myStarts[i]) > 0) {
+                    runs.add(new int[]{runStart, i});
+                    runStart = i;
+                }
+            }
+            runs.sort((a, b) -> Long.compareUnsigned(myStarts[a[0]], myStarts[b[0]]));
+            int[] order = new int[myCount];
+            int count = 0;
+            for (int[] run : runs) {
+                for (int i = run[0]; i < run[1]; i++) {
+                    order[count++] = i;
+                }
+            }
+            for (int i = 1; i < myCount; i++) {
+                if (Long.compareUnsigned(myStarts[order[i - 1]], myStarts[order[i]]) > 0) {
+                    Integer[] boxedOrder = new Integer[myCount];
+                    for (int j = 0; j < myCount; j++) {
+                        boxedOrder[j] = j;
+                    }
+                    // Stable, so the first of the aliases of a symbol comes first.
+                    Arrays.sort(boxedOrder, (a, b) -> Long.compareUnsigned(myStarts[a], myStarts[b]));
+                    for (int j = 0; j < myCount; j++) {
+                        order[j] = boxedOrder[j];
+                    }
+                    break;
+                }
+            }
+            return order;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import com.android.tools.profilers.cpu.simpleperf.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Local copies of the ELF files of a device, e.g. the unstripped intermediates of the build that produced a stripped release. A file
+ * of the device is matched by name to the files of a local directory, preferring the ones in a directory of the same ABI.
+ */
+final class LocalElfFiles {
+
+    /**
+     * ABI directories of the Android build, by the directory of the libraries of an app on the device.
+     */
+    private static final Map<String, String> ABI_BY_DEVICE_DIRECTORY = new HashMap<>();
+
+    static {
+        ABI_BY_DEVICE_DIRECTORY.put("arm64", "arm64-v8a");
+        ABI_BY_DEVICE_DIRECTORY.put("arm", "armeabi-v7a");
+        ABI_BY_DEVICE_DIRECTORY.put("x86_64", "x86_64");
+        ABI_BY_DEVICE_DIRECTORY.put("x86", "x86");
+    }
+
+    @NotNull private final File myDirectory;
+
+    /**
+     * Files of {@link #myDirectory} by name, listed the first time a file is looked up.
+     */
+    @Nullable private volatile Map<String, List<File>> myFilesByName;
+
+    LocalElfFiles(@NotNull File directory) {
+        myDirectory = directory;
+    }
+
+    private static Logger getLogger() {
+        return Logger.getInstance(LocalElfFiles.class);
+    }
+
+    /**
+     * @return the local file with the same name as the device file at the given path, or null if there is none.
+     */
+    @Nullable
+    File find(@NotNull String devicePath) {
+        int nameStart = devicePath.lastIndexOf('/') + 1;
+        List<File> candidates = getFilesByName().get(devicePath.substring(nameStart));
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        if (candidates.size() > 1 && nameStart > 1) {
+            String deviceDirectory = devicePath.substring(devicePath.lastIndexOf('/', nameStart - 2) + 1, nameStart - 1);
+            String abi = ABI_BY_DEVICE_DIRECTORY.get(deviceDirectory);
+            for (File candidate : candidates) {
+                File parent = candidate.getParentFile();
+                if (abi != null && parent != null && parent.getName().equals(abi)) {
+                    return candidate;
+                }
+            }
+        }
+        return candidates.get(0);
+    }
+
+    @NotNull
+    private Map<String, List<File>> getFilesByName() {
+        Map<String, List<File>> filesByName = myFilesByName;
+        if (filesByName == null) {
+            synchronized (this) {
+                filesByName = myFilesByName;
+                if (filesByName == null) {
+                    filesByName = listFiles(myDirectory);
+                    myFilesByName = filesByName;
+                }
+            }
+        }
+        return filesByName;
+    }
+
+    @NotNull
+    private static Map<String, List<File>> listFiles(@NotNull File directory) {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                    .map(Path::toFile)
+                    .sorted()
+                    .collect(Collectors.groupingBy(File::getName, HashMap::new, Collectors.toCollection(ArrayList::new)));
+        }
+        catch (IOException e) {
+            getLogger().warn("Can't list the symbol files of " + directory + ": " + e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Writes a file through a temporary file, so concurrent readers never see a partial file. Failures are only logged, as a cache
+     * is optional.
+     */
+    static void writeCacheFile(@NotNull File file, @NotNull CacheWriter writer) {
+        File temporary = null;
+        try {
+            File directory = file.getParentFile();
+            Files.createDirectories(directory.toPath());
+            temporary = File.createTempFile(file.getName(), ".tmp", directory);
+            writer.write(temporary);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            getLogger().warn("Can't write the cache file " + file + ": " + e);
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+    }
+
+    interface CacheWriter {
+        void write(@NotNull File file) throws IOException;
+    }
+}
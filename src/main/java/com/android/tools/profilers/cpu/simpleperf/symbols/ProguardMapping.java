@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import com.android.tools.profilers.cpu.simpleperf.Logger;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The original names of the classes and methods of an app obfuscated by R8 or ProGuard, from the {@code mapping.txt} of its build.
+ *
+ * Mapping files of large apps take hundreds of megabytes, so the mapping isn't kept in memory: it's converted once into an index, a
+ * hash table of the obfuscated class and method names to their original names, which is memory-mapped and only looked up for the
+ * names of the frames of a trace. The index is optionally cached on disk, from where later loads of the same mapping file map it
+ * directly.
+ *
+ * Frames only give the class and the name of a method, without signature or line, so the obfuscated name of a method is mapped to the
+ * outermost method of its entries, i.e. the one the others were inlined into. Distinct methods obfuscated to the same name are joined
+ * with '|', as they can't be told apart.
+ */
+public final class ProguardMapping {
+
+    private static final int FILE_MAGIC = 0x52384D49; // "R8MI"
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * magic, version, length and modification time of the mapping file, offset of the entries, number of slots and of entries.
+     */
+    private static final int FILE_HEADER_SIZE = 40;
+    private static final int ENTRY_SIZE = 16;
+
+    /**
+     * The index: the strings, length-prefixed UTF-8, then the entries, 64-bit hash of the key and offsets of the key and value
+     * strings, then the slots of the hash table, index of an entry plus one or 0 for empty slots.
+     */
+    @NotNull private final ByteBuffer myIndex;
+    private final long myMappingLength;
+    private final long myMappingLastModified;
+    private final int myEntriesOffset;
+    private final int mySlotsOffset;
+    private final int mySlotCount;
+    private final int myEntryCount;
+
+    private ProguardMapping(@NotNull File indexFile) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(indexFile, "r")) {
+            myIndex = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        }
+        if (myIndex.remaining() < FILE_HEADER_SIZE || myIndex.getInt(0) != FILE_MAGIC || myIndex.getInt(4) != FILE_VERSION) {
+            throw new IOException("Unsupported mapping index " + indexFile);
+        }
+        myMappingLength = myIndex.getLong(8);
+        myMappingLastModified = myIndex.getLong(16);
+        myEntriesOffset = myIndex.getInt(24);
+        mySlotCount = myIndex.getInt(28);
+        myEntryCount = myIndex.getInt(32);
+        long slotsOffset = myEntriesOffset + (long)myEntryCount * ENTRY_SIZE;
+        if (myEntriesOffset < FILE_HEADER_SIZE || Integer.bitCount(mySlotCount) != 1 || myEntryCount < 0 ||
+            myIndex.remaining() < slotsOffset + mySlotCount * 4L) {
+            throw new IOException("Truncated mapping index " + indexFile);
+        }
+        mySlotsOffset = (int)slotsOffset;
+    }
+
+    private static Logger getLogger() {
+        return Logger.getInstance(ProguardMapping.class);
+    }
+
+    /**
+     * @param mappingFile    the mapping file written by R8 or ProGuard.
+     * @param cacheDirectory directory where to cache the index of the mapping file, or null to index it for this load only.
+     * @throws IOException if the mapping file can't be read.
+     */
+    @NotNull
+    public static ProguardMapping load(@NotNull File mappingFile, @Nullable File cacheDirectory) throws IOException {
+        if (!mappingFile.isFile()) {
+            throw new FileNotFoundException("Missing mapping file " + mappingFile);
+        }
+        File cachedIndex = null;
+        if (cacheDirectory != null) {
+            String path = mappingFile.getAbsolutePath();
+            cachedIndex = new File(cacheDirectory, mappingFile.getName() + "-" + Integer.toHexString(path.hashCode()) + ".index");
+            if (cachedIndex.isFile()) {
+                try {
+                    ProguardMapping mapping = new ProguardMapping(cachedIndex);
+                    if (mapping.isIndexOf(mappingFile)) {
+                        return mapping;
+                    }
+                }
+                catch (IOException e) {
+                    getLogger().warn("Ignoring the cached index of " + mappingFile + ": " + e);
+                }
+            }
+            Files.createDirectories(cacheDirectory.toPath());
+        }
+        File index = File.createTempFile("mapping", ".index", cacheDirectory);
+        try {
+            writeIndex(mappingFile, index);
+        }
+        catch (IOException | RuntimeException e) {
+            index.delete();
+            throw e;
+        }
+        if (cachedIndex != null) {
+            // Moved into place once complete, so concurrent loads never see a partial index.
+            try {
+                Files.move(index.toPath(), cachedIndex.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return new ProguardMapping(cachedIndex);
+            }
+            catch (IOException e) {
+                getLogger().warn("Can't cache the index of " + mappingFile + ": " + e);
+            }
+        }
+        index.deleteOnExit();
+        return new ProguardMapping(index);
+    }
+
+    private boolean isIndexOf(@NotNull File mappingFile) {
+        return myMappingLength == mappingFile.length() && myMappingLastModified == mappingFile.lastModified();
+    }
+
+    /**
+     * @return the number of classes and methods with an original name.
+     */
+    public int size() {
+        return myEntryCount;
+    }
+
+    /**
+     * @return the original name of the given class, or null if it isn't in the mapping.
+     */
+    @Nullable
+    public String getOriginalClassName(@NotNull String className) {
+        return find(className);
+    }
+
+    /**
+     * @param className  obfuscated name of the class of the method.
+     * @param methodName obfuscated name of the method.
+     * @return the original full name of the method, e.g. "com.example.Renderer.draw", with the original name of its class and the
+     * original name of the method if the mapping has it. Null if the class isn't in the mapping.
+     */
+    @Nullable
+    public String getOriginalMethodName(@NotNull String className, @NotNull String methodName) {
+        String originalClassName = find(className);
+        if (originalClassName == null) {
+            return null;
+        }
+        String originalMethodName = find(methodKey(className, methodName));
+        if (originalMethodName == null) {
+            return originalClassName + '.' + methodName;
+        }
+        // Methods inlined from other classes are qualified by their class.
+        return originalMethodName.indexOf('.') >= 0 ? originalMethodName : originalClassName + '.' + originalMethodName;
+    }
+
+    @Nullable
+    private String find(@NotNull String key) {
+        long hash = hash(key);
+        int mask = mySlotCount - 1;
+        for (int slot = slotOf(hash, mask); ; slot = (slot + 1) & mask) {
+            int entry = myIndex.getInt(mySlotsOffset + slot * 4) - 1;
+            if (entry < 0) {
+                return null;
+            }
+            int entryOffset = myEntriesOffset + entry * ENTRY_SIZE;
+            if (myIndex.getLong(entryOffset) == hash && getString(myIndex.getInt(entryOffset + 8)).equals(key)) {
+                return getString(myIndex.getInt(entryOffset + 12));
+            }
+        }
+    }
+
+    @NotNull
+    private String getString(int offset) {
+        byte[] bytes = new byte[myIndex.getInt(FILE_HEADER_SIZE + offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = myIndex.get(FILE_HEADER_SIZE + offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Names can't have spaces, so the key of a method can't be the name of a class.
+     */
+    @NotNull
+    private static String methodKey(@NotNull String className, @NotNull String methodName) {
+        return className + ' ' + methodName;
+    }
+
+    /**
+     * 64-bit FNV-1a of the characters of the key, so the entries of different keys almost never have to be compared.
+     */
+    private static long hash(@NotNull String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static int slotOf(long hash, int mask) {
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static void writeIndex(@NotNull File mappingFile, @NotNull File indexFile) throws IOException {
+        IndexWriter writer;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+             BufferedReader input = Files.newBufferedReader(mappingFile.toPath(), StandardCharsets.UTF_8)) {
+            output.write(new byte[FILE_HEADER_SIZE]);
+            writer = new IndexWriter(output);
+            for (String line = input.readLine(); line != null; line = input.readLine()) {
+                writer.addLine(line);
+            }
+            writer.writeTable();
+        }
+        try (RandomAccessFile output = new RandomAccessFile(indexFile, "rw")) {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeLong(mappingFile.length());
+            output.writeLong(mappingFile.lastModified());
+            output.writeInt(writer.myEntriesOffset);
+            output.writeInt(writer.mySlotCount);
+            output.writeInt(writer.myEntryCount);
+        }
+    }
+
+    /**
+     * Writes the index while the mapping file is read, one class at a time: the strings are written as they're read, and only the
+     * entries are kept in memory until the hash table is written at the end.
+     *
+     * Mapping files list each class as "original.Class -> obfuscated.Class:", followed by its members indented, e.g.
+     * "1:3:void draw(int):12:14 -> a" for a method. Methods inlined into another one precede it with the same line range.
+     */
+    private static final class IndexWriter {
+        @NotNull private final DataOutputStream myOutput;
+
+        private long[] myHashes = new long[1024];
+        private int[] myKeyOffsets = new int[1024];
+        private int[] myValueOffsets = new int[1024];
+        private int myEntryCount;
+        private int myEntriesOffset;
+        private int mySlotCount;
+
+        /**
+         * Obfuscated name of the current class, or null before the first class.
+         */
+        @Nullable private String myClassName;
+
+        /**
+         * Original names of the methods of the current class, by obfuscated name.
+         */
+        @NotNull private final Map<String, Set<String>> myMethods = new LinkedHashMap<>();
+
+        /**
+         * Last method read, not added yet as it may be inlined into the next one.
+         */
+        @Nullable private String myPendingMethod;
+        @Nullable private String myPendingRange;
+        @Nullable private String myPendingName;
+
+        IndexWriter(@NotNull DataOutputStream output) {
+            myOutput = output;
+        }
+
+        void addLine(@NotNull String line) throws IOException {
+            int start = 0;
+            while (start < line.length() && Character.isWhitespace(line.charAt(start))) {
+                start++;
+            }
+            if (start == line.length() || line.charAt(start) == '#') {
+                return;
+            }
+            int arrow = line.indexOf(" -> ");
+            if (arrow < 0) {
+                return;
+            }
+            if (start == 0) {
+                endClass();
+                String originalName = line.substring(0, arrow).trim();
+                String name = line.substring(arrow + 4).trim();
+                if (name.endsWith(":")) {
+                    myClassName = name.substring(0, name.length() - 1);
+                    addEntry(myClassName, originalName);
+                }
+                return;
+            }
+            int parametersStart = line.indexOf('(');
+            if (myClassName == null || parametersStart < 0 || parametersStart > arrow) {
+                // Fields, and member comments.
+                return;
+            }
+            int rangeEnd = start;
+            while (rangeEnd < parametersStart && !Character.isLetter(line.charAt(rangeEnd)) && line.charAt(rangeEnd) != '_') {
+                rangeEnd++;
+            }
+            String range = line.substring(start, rangeEnd);
+            String originalName = line.substring(line.lastIndexOf(' ', parametersStart) + 1, parametersStart);
+            String name = line.substring(arrow + 4).trim();
+            if (!range.isEmpty() && range.equals(myPendingRange) && name.equals(myPendingMethod)) {
+                // The pending method was inlined into this one.
+                myPendingName = originalName;
+                return;
+            }
+            addPendingMethod();
+            myPendingMethod = name;
+            myPendingRange = range;
+            myPendingName = originalName;
+        }
+
+        private void addPendingMethod() {
+            if (myPendingMethod != null) {
+                myMethods.computeIfAbsent(myPendingMethod, method -> new LinkedHashSet<>()).add(myPendingName);
+                myPendingMethod = null;
+                myPendingRange = null;
+                myPendingName = null;
+            }
+        }
+
+        private void endClass() throws IOException {
+            addPendingMethod();
+            for (Map.Entry<String, Set<String>> method : myMethods.entrySet()) {
+                Set<String> originalNames = method.getValue();
+                String originalName;
+                if (originalNames.size() == 1) {
+                    originalName = originalNames.iterator().next();
+                }
+                else {
+                    Set<String> simpleNames = new LinkedHashSet<>();
+                    for (String name : originalNames) {
+                        simpleNames.add(name.substring(name.lastIndexOf('.') + 1));
+                    }
+                    originalName = String.join("|", simpleNames);
+                }
+                addEntry(methodKey(myClassName, method.getKey()), originalName);
+            }
+            myMethods.clear();
+            myClassName = null;
+        }
+
+        private void addEntry(@NotNull String key, @NotNull String value) throws IOException {
+            if (myEntryCount == myHashes.length) {
+                myHashes = Arrays.copyOf(myHashes, myEntryCount * 2);
+                myKeyOffsets = Arrays.copyOf(myKeyOffsets, myEntryCount * 2);
+                myValueOffsets = Arrays.copyOf(myValueOffsets, myEntryCount * 2);
+            }
+            myHashes[myEntryCount] = hash(key);
+            myKeyOffsets[myEntryCount] = writeString(key);
+            myValueOffsets[myEntryCount++] = writeString(value);
+        }
+
+        /**
+         * @return the offset of the string from the start of the strings.
+         */
+        private int writeString(@NotNull String string) throws IOException {
+            int offset = myOutput.size() - FILE_HEADER_SIZE;
+            if (offset < 0) {
+                throw new IOException("Mapping too large to be indexed");
+            }
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            myOutput.writeInt(bytes.length);
+            myOutput.write(bytes);
+            return offset;
+        }
+
+        void writeTable() throws IOException {
+            endClass();
+            myEntriesOffset = myOutput.size();
+            mySlotCount = 2;
+            while (mySlotCount < myEntryCount * 2L) {
+                mySlotCount <<= 1;
+            }
+            if (myEntriesOffset < 0 || myEntriesOffset + (long)myEntryCount * ENTRY_SIZE + mySlotCount * 4L > Integer.MAX_VALUE) {
+                throw new IOException("Mapping too large to be indexed");
+            }
+            int[] slots = new int[mySlotCount];
+            int mask = mySlotCount - 1;
+            for (int i = 0; i < myEntryCount; i++) {
+                myOutput.writeLong(myHashes[i]);
+                myOutput.writeInt(myKeyOffsets[i]);
+                myOutput.writeInt(myValueOffsets[i]);
+                int slot = slotOf(myHashes[i], mask);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = i + 1;
+            }
+            for (int slot : slots) {
+                myOutput.writeInt(slot);
+            }
+        }
+    }
+}
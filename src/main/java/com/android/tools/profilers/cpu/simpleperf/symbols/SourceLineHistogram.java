@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.InstructionHistograms;
+import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
+import com.android.tools.profilers.cpu.util.LongIntHashMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Samples and time of a native function by source line, sorted by descending sample count, to find the hot lines of a large function.
+ */
+public final class SourceLineHistogram {
+
+    @NotNull private final SourceLocation[] myLocations;
+    @NotNull private final long[] mySampleCounts;
+    @NotNull private final long[] myTimes;
+    private final long myUnresolvedSampleCount;
+
+    private SourceLineHistogram(@NotNull SourceLocation[] locations, @NotNull long[] sampleCounts, @NotNull long[] times,
+                                long unresolvedSampleCount) {
+        myLocations = locations;
+        mySampleCounts = sampleCounts;
+        myTimes = times;
+        myUnresolvedSampleCount = unresolvedSampleCount;
+    }
+
+    /**
+     * Attributes the calls made by the given function to the lines they're made from. Each call of a native function is recorded with
+     * the address of its call site in the caller, {@link CppFunctionModel#getVAddress()}, and its samples and time are counted on the
+     * line of that address.
+     *
+     * @param roots    roots of the trees where to look for the calls of the function, e.g. the threads of a capture.
+     * @param function the function, matched by dense id if it has one, which it then has to have in the capture of the trees, or by
+     *                 id otherwise.
+     * @param resolver resolver of the lines of the file of the function.
+     */
+    @NotNull
+    public static SourceLineHistogram ofCallSites(@NotNull Collection<CaptureNode> roots, @NotNull CppFunctionModel function,
+                                                  @NotNull DwarfLineResolver resolver) {
+        Builder builder = new Builder();
+        Deque<CaptureNode> stack = new ArrayDeque<>(roots);
+        while (!stack.isEmpty()) {
+            CaptureNode node = stack.pop();
+            boolean isFunction = function.getDenseId() >= 0 ? node.getData().getDenseId() == function.getDenseId()
+                                                            : node.getData().getId().equals(function.getId());
+            for (CaptureNode child : node.getChildren()) {
+                if (isFunction && child.getData() instanceof CppFunctionModel) {
+                    builder.add(((CppFunctionModel)child.getData()).getVAddress(), child.getSampleCount(), child.getEnd() - child.getStart());
+                }
+                stack.push(child);
+            }
+        }
+        return builder.build(resolver.getLineTable(function.getFileName()));
+    }
+
+    /**
+     * Attributes the samples of a function to the lines of their leaf instructions, i.e. the lines the function spends its self time
+     * on. The time of a single instruction isn't known, so lines only have samples.
+     *
+     * @param histogram samples of the function by instruction address, from {@link InstructionHistograms#getHistogram}.
+     * @param resolver  resolver of the lines of the file of the function.
+     */
+    @NotNull
+    public static SourceLineHistogram ofInstructions(@NotNull InstructionHistograms.Histogram histogram,
+                                                     @NotNull DwarfLineResolver resolver) {
+        Builder builder = new Builder();
+        for (int i = 0; i < histogram.getSize(); i++) {
+            builder.add(histogram.getAddress(i), histogram.getSampleCount(i), 0);
+        }
+        return builder.build(resolver.getLineTable(histogram.getFilePath()));
+    }
+
+    /**
+     * @return the number of lines with samples or time.
+     */
+    public int size() {
+        return myLocations.length;
+    }
+
+    @NotNull
+    public SourceLocation getLocation(int index) {
+        return myLocations[index];
+    }
+
+    public long getSampleCount(int index) {
+        return mySampleCounts[index];
+    }
+
+    public long getTime(int index) {
+        return myTimes[index];
+    }
+
+    /**
+     * @return the number of samples at addresses without known source line.
+     */
+    public long getUnresolvedSampleCount() {
+        return myUnresolvedSampleCount;
+    }
+
+    /**
+     * Accumulates samples and time by address, so each distinct address of a function is resolved once however many samples it has.
+     */
+    static final class Builder {
+        @NotNull private final LongIntHashMap myIndices = new LongIntHashMap();
+        private long[] myAddresses = new long[16];
+        private long[] mySampleCounts = new long[16];
+        private long[] myTimes = new long[16];
+
+        void add(long vAddress, long sampleCount, long time) {
+            int index = myIndices.get(vAddress, -1);
+            if (index < 0) {
+                index = myIndices.size();
+                myIndices.put(vAddress, index);
+                if (index == myAddresses.length) {
+                    myAddresses = Arrays.copyOf(myAddresses, index * 2);
+                    mySampleCounts = Arrays.copyOf(mySampleCounts, index * 2);
+                    myTimes = Arrays.copyOf(myTimes, index * 2);
+                }
+                myAddresses[index] = vAddress;
+            }
+            mySampleCounts[index] += sampleCount;
+            myTimes[index] += time;
+        }
+
+        @NotNull
+        SourceLineHistogram build(@Nullable DwarfLineTable table) {
+            Map<SourceLocation, long[]> totals = new HashMap<>();
+            long unresolvedSampleCount = 0;
+            for (int i = 0; i < myIndices.size(); i++) {
+                SourceLocation location = table == null ? null : table.findLocation(myAddresses[i]);
+                if (location == null) {
+                    unresolvedSampleCount += mySampleCounts[i];
+                    continue;
+                }
+                long[] total = totals.computeIfAbsent(location, l -> new long[2]);
+                total[0] += mySampleCounts[i];
+                total[1] += myTimes[i];
+            }
+            SourceLocation[] locations = totals.keySet().toArray(new SourceLocation[0]);
+            Arrays.sort(locations, (a, b) -> {
+                int bySamples = Long.compare(totals.get(b)[0], totals.get(a)[0]);
+                int byTime = Long.compare(totals.get(b)[1], totals.get(a)[1]);
+                int byFile = a.getFile().compareTo(b.getFile());
+                return bySamples != 0 ? bySamples : byTime != 0 ? byTime : byFile != 0 ? byFile : Integer.compare(a.getLine(), b.getLine());
+            });
+            long[] sampleCounts = new long[locations.length];
+            long[] times = new long[locations.length];
+            for (int i = 0; i < locations.length; i++) {
+                sampleCounts[i] = totals.get(locations[i])[0];
+                times[i] = totals.get(locations[i])[1];
+            }
+            return new SourceLineHistogram(locations, sampleCounts, times, unresolvedSampleCount);
+        }
+    }
+}
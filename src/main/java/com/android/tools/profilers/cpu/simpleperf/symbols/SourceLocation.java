@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A line of a source file, as recorded in the debug information of the file it was compiled into.
+ */
+public final class SourceLocation {
+
+    @NotNull private final String myFile;
+    private final int myLine;
+
+    public SourceLocation(@NotNull String file, int line) {
+        myFile = file;
+        myLine = line;
+    }
+
+    /**
+     * @return the path of the source file, as given to the compiler.
+     */
+    @NotNull
+    public String getFile() {
+        return myFile;
+    }
+
+    /**
+     * @return the line in the file, starting at 1.
+     */
+    public int getLine() {
+        return myLine;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SourceLocation)) {
+            return false;
+        }
+        SourceLocation location = (SourceLocation)o;
+        return myLine == location.myLine && myFile.equals(location.myFile);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * myFile.hashCode() + myLine;
+    }
+
+    @Override
+    public String toString() {
+        return myFile + ":" + myLine;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Source of symbols for the instructions that simpleperf couldn't symbolize on the device, e.g. because the ELF files there are
+ * stripped. Resolvers are queried once per file with all the unsymbolized addresses of a trace in that file, and may be queried for
+ * different files concurrently.
+ */
+public interface SymbolResolver {
+
+    /**
+     * @param path       path of the ELF file on the device, e.g. "/data/app/com.example-1/lib/arm64/libexample.so".
+     * @param vAddresses distinct virtual addresses in the file, ascending.
+     * @return the name of the function containing each address, null for the addresses it can't resolve, or null if it doesn't know
+     * the file at all.
+     */
+    @Nullable
+    String[] resolve(@NotNull String path, @NotNull long[] vAddresses);
+
+    /**
+     * @return a resolver combining the given ones, e.g. a {@link KallsymsResolver} for the kernel and an {@link ElfSymbolizer} for the
+     * libraries. Each address gets the name from the first resolver that resolves it.
+     */
+    @NotNull
+    static SymbolResolver firstOf(@NotNull SymbolResolver... resolvers) {
+        return (path, vAddresses) -> {
+            String[] names = null;
+            for (SymbolResolver resolver : resolvers) {
+                String[] resolvedNames = resolver.resolve(path, vAddresses);
+                if (resolvedNames == null) {
+                    continue;
+                }
+                if (names == null) {
+                    names = resolvedNames;
+                    continue;
+                }
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i] == null) {
+                        names[i] = resolvedNames[i];
+                    }
+                }
+            }
+            return names;
+        };
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from {@code long} keys to {@code int} values, which avoids boxing both of them on hot paths such as
+ * aggregating millions of capture nodes. Not thread safe.
+ */
+public final class LongIntHashMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] myKeys;
+    private int[] myValues;
+    private boolean[] myUsed;
+    private int mySize;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        myKeys = new long[capacity];
+        myValues = new int[capacity];
+        myUsed = new boolean[capacity];
+    }
+
+    public int size() {
+        return mySize;
+    }
+
+    /**
+     * @return the value mapped to the key, or {@code defaultValue} if there is none.
+     */
+    public int get(long key, int defaultValue) {
+        int slot = findSlot(key);
+        return myUsed[slot] ? myValues[slot] : defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        return myUsed[findSlot(key)];
+    }
+
+    public void put(long key, int value) {
+        int slot = findSlot(key);
+        myValues[slot] = value;
+        if (!myUsed[slot]) {
+            myKeys[slot] = key;
+            myUsed[slot] = true;
+            if (++mySize > myKeys.length * LOAD_FACTOR) {
+                rehash(myKeys.length * 2);
+            }
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the value mapped to the key, mapping it to {@code delta} if there is none.
+     *
+     * @return the new value
+     */
+    public int addTo(long key, int delta) {
+        int slot = findSlot(key);
+        if (myUsed[slot]) {
+            return myValues[slot] += delta;
+        }
+        put(key, delta);
+        return delta;
+    }
+
+    /**
+     * Calls the consumer with every key and its value, in no particular order.
+     */
+    public void forEach(LongIntConsumer consumer) {
+        for (int i = 0; i < myKeys.length; i++) {
+            if (myUsed[i]) {
+                consumer.accept(myKeys[i], myValues[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(myUsed, false);
+        mySize = 0;
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot where it would be inserted.
+     */
+    private int findSlot(long key) {
+        int mask = myKeys.length - 1;
+        int slot = mix(key) & mask;
+        while (myUsed[slot] && myKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = myKeys;
+        int[] values = myValues;
+        boolean[] used = myUsed;
+        myKeys = new long[capacity];
+        myValues = new int[capacity];
+        myUsed = new boolean[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                int slot = findSlot(keys[i]);
+                myKeys[slot] = keys[i];
+                myValues[slot] = values[i];
+                myUsed[slot] = true;
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public interface LongIntConsumer {
+        void accept(long key, int value);
+    }
+}
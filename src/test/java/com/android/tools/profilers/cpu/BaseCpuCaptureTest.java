@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profiler.proto.Cpu;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
+import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class BaseCpuCaptureTest {
+
+    private static final String SYSTEM_TAG = "/system/*";
+    private static final String VENDOR_TAG = "/vendor/*";
+
+    private CaptureNode myRoot;
+    private CaptureNode myApp;
+    private CaptureNode mySystem1;
+    private CaptureNode mySystem2;
+    private CaptureNode myAppCallback;
+    private CaptureNode myAppHelper;
+    private CaptureNode myOtherApp;
+    private BaseCpuCapture myCapture;
+
+    @Before
+    public void setUp() {
+        // root -> app -> system1 -> system2 -> appCallback
+        //             -> appHelper
+        //      -> otherApp
+        myRoot = newNode(new SingleNameModel("main"), 0, 100);
+        myApp = addChild(myRoot, new JavaMethodModel("run", "com.app.Main", ""), 0, 80);
+        mySystem1 = addChild(myApp, nativeModel("system1"), 10, 70);
+        mySystem2 = addChild(mySystem1, nativeModel("system2"), 20, 60);
+        myAppCallback = addChild(mySystem2, new JavaMethodModel("callback", "com.app.Main", ""), 30, 50);
+        myAppHelper = addChild(myApp, new JavaMethodModel("helper", "com.app.Main", ""), 70, 80);
+        myOtherApp = addChild(myRoot, new JavaMethodModel("other", "com.app.Main", ""), 80, 100);
+        myCapture = new BaseCpuCapture(0, Cpu.CpuTraceType.SIMPLEPERF, new Range(0, 100),
+                ImmutableMap.of(new CpuThreadInfo(1, "main", true), myRoot));
+    }
+
+    @Test
+    public void collapsedTreeSharesUntouchedSubtrees() {
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+
+        assertEquals(2, myRoot.getChildCount());
+        CaptureNode app = myRoot.getChildAt(0);
+        assertNotSame(myApp, app);
+        assertSame(myOtherApp, myRoot.getChildAt(1));
+
+        CaptureNode collapsed = app.getChildAt(0);
+        assertEquals("<<native code>>", collapsed.getData().getName());
+        assertEquals(10, collapsed.getStartGlobal());
+        assertEquals(70, collapsed.getEndGlobal());
+        assertEquals(2, collapsed.getDepth());
+        assertSame(app, collapsed.getParent());
+
+        // The merged system nodes moved the callback one level up, so it's copied rather than shared.
+        CaptureNode callback = collapsed.getChildAt(0);
+        assertEquals("callback", callback.getData().getName());
+        assertEquals(3, callback.getDepth());
+        assertSame(collapsed, callback.getParent());
+        assertEquals(4, myAppCallback.getDepth());
+    }
+
+    @Test
+    public void expandingRestoresUnabbreviatedTree() {
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG, "Java code"));
+        myCapture.collapseNodesWithTags(Collections.emptySet());
+
+        assertSame(myApp, myRoot.getChildAt(0));
+        assertSame(myOtherApp, myRoot.getChildAt(1));
+        assertSame(myApp, mySystem1.getParent());
+        assertSame(mySystem1, mySystem2.getParent());
+        assertSame(mySystem2, myAppCallback.getParent());
+    }
+
+    @Test
+    public void sharedSubtreesFollowTheViewShown() {
+        // The helper has nothing to collapse, so it's shared with the unabbreviated tree.
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        CaptureNode app = myRoot.getChildAt(0);
+        assertSame(myAppHelper, app.getChildAt(1));
+        assertSame(app, myAppHelper.getParent());
+        assertEquals(2, myAppHelper.getDepth());
+
+        myCapture.collapseNodesWithTags(Collections.emptySet());
+        assertSame(myApp, myAppHelper.getParent());
+
+        // Showing the cached view again attaches the shared subtree back to it.
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        assertSame(app, myRoot.getChildAt(0));
+        assertSame(app, myAppHelper.getParent());
+    }
+
+    @Test
+    public void leastRecentlyUsedViewsAreEvicted() {
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        CaptureNode app = myRoot.getChildAt(0);
+
+        // Switching between views that are all cached keeps the collapsed trees.
+        myCapture.collapseNodesWithTags(Collections.emptySet());
+        collapseOtherTagSets(7);
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        assertSame(app, myRoot.getChildAt(0));
+
+        // One more view evicts the least recently used one, so its trees are built again.
+        myCapture.collapseNodesWithTags(Collections.emptySet());
+        collapseOtherTagSets(8);
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        assertNotSame(app, myRoot.getChildAt(0));
+        assertEquals("<<native code>>", myRoot.getChildAt(0).getChildAt(0).getData().getName());
+    }
+
+    @Test
+    public void togglingATagReusesTheSubtreesWithoutIt() {
+        CaptureNode root = newNode(new SingleNameModel("main"), 0, 100);
+        CaptureNode app = addChild(root, new JavaMethodModel("run", "com.app.Main", ""), 0, 50);
+        addChild(app, nativeModel("system"), 10, 40);
+        CaptureNode vendor = addChild(root, vendorModel("vendor1"), 50, 100);
+        addChild(vendor, vendorModel("vendor2"), 60, 90);
+        BaseCpuCapture capture = new BaseCpuCapture(0, Cpu.CpuTraceType.SIMPLEPERF, new Range(0, 100),
+                ImmutableMap.of(new CpuThreadInfo(1, "main", true), root));
+
+        capture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        CaptureNode collapsedApp = root.getChildAt(0);
+        assertNotSame(app, collapsedApp);
+        assertSame(vendor, root.getChildAt(1));
+
+        // Only the subtree carrying the vendor tag is collapsed again, the app subtree is taken from the previous view.
+        capture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG, VENDOR_TAG));
+        assertSame(collapsedApp, root.getChildAt(0));
+        assertNotSame(vendor, root.getChildAt(1));
+        assertEquals("<<native code>>", root.getChildAt(1).getData().getName());
+        assertEquals(0, root.getChildAt(1).getChildCount());
+    }
+
+    @Test
+    public void togglingATagBelowASingleRootChildReusesItsOtherSubtrees() {
+        // root -> start -> a -> system -> callback
+        //               -> b -> vendor1 -> vendor2
+        CaptureNode root = newNode(new SingleNameModel("main"), 0, 100);
+        CaptureNode start = addChild(root, new JavaMethodModel("start", "com.app.Main", ""), 0, 100);
+        CaptureNode a = addChild(start, new JavaMethodModel("a", "com.app.Main", ""), 0, 50);
+        CaptureNode system = addChild(a, nativeModel("system"), 10, 40);
+        addChild(system, new JavaMethodModel("callback", "com.app.Main", ""), 20, 30);
+        CaptureNode b = addChild(start, new JavaMethodModel("b", "com.app.Main", ""), 50, 100);
+        CaptureNode vendor = addChild(b, vendorModel("vendor1"), 60, 90);
+        addChild(vendor, vendorModel("vendor2"), 70, 80);
+        BaseCpuCapture capture = new BaseCpuCapture(0, Cpu.CpuTraceType.SIMPLEPERF, new Range(0, 100),
+                ImmutableMap.of(new CpuThreadInfo(1, "main", true), root));
+
+        capture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        CaptureNode collapsedA = root.getChildAt(0).getChildAt(0);
+        assertNotSame(a, collapsedA);
+        assertSame(b, root.getChildAt(0).getChildAt(1));
+
+        // Only the way to the vendor nodes is abbreviated again, the collapsed system nodes below the same root child are reused.
+        capture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG, VENDOR_TAG));
+        CaptureNode collapsedStart = root.getChildAt(0);
+        assertSame(collapsedA, collapsedStart.getChildAt(0));
+        assertSame(collapsedStart, collapsedA.getParent());
+        CaptureNode collapsedB = collapsedStart.getChildAt(1);
+        assertNotSame(b, collapsedB);
+        assertEquals("<<native code>>", collapsedB.getChildAt(0).getData().getName());
+        assertEquals(0, collapsedB.getChildAt(0).getChildCount());
+
+        // Expanding the system nodes again keeps the collapsed vendor nodes.
+        capture.collapseNodesWithTags(ImmutableSet.of(VENDOR_TAG));
+        assertSame(a, root.getChildAt(0).getChildAt(0));
+        assertSame(collapsedB, root.getChildAt(0).getChildAt(1));
+        assertSame(root.getChildAt(0), collapsedB.getParent());
+        assertSame(root.getChildAt(0), a.getParent());
+    }
+
+    @Test
+    public void hiddenViewsFollowClockChanges() {
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        myCapture.updateClockType(ClockType.THREAD);
+        // The helper is merged into the collapsed app, so this view doesn't update it.
+        myCapture.collapseNodesWithTags(ImmutableSet.of("Java code"));
+        myCapture.updateClockType(ClockType.GLOBAL);
+
+        myCapture.collapseNodesWithTags(Collections.emptySet());
+        assertEquals(ClockType.GLOBAL, myAppHelper.getClockType());
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        assertEquals(ClockType.GLOBAL, myRoot.getChildAt(0).getClockType());
+        assertEquals(ClockType.GLOBAL, myRoot.getChildAt(0).getChildAt(0).getClockType());
+    }
+
+    @Test
+    public void tagBreakdownIgnoresCollapsedTags() {
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        TagBreakdown breakdown = myCapture.getTagBreakdown();
+        assertEquals(ImmutableSet.of(SYSTEM_TAG, "Java code"), breakdown.getTags());
+
+        TagBreakdown.TagTimes java = breakdown.getTimes("Java code");
+        // The callback is nested in app, so only app and otherApp count.
+        assertEquals(100, java.getInclusiveGlobalTime());
+        assertEquals(60, java.getSelfGlobalTime());
+
+        TagBreakdown.TagTimes system = myCapture.getTagBreakdown(1).getTimes(SYSTEM_TAG);
+        assertEquals(60, system.getInclusiveGlobalTime());
+        assertEquals(40, system.getSelfGlobalTime());
+    }
+
+    @Test
+    public void replacedModelsKeepTheTreesAndTheirTimes() {
+        myCapture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        CaptureNodeModel vendor = new CppFunctionModel.Builder("vendor").setTag("/vendor/*").build();
+        assertEquals(1, myCapture.replaceModels(model -> model.getName().equals("system2") ? vendor : null));
+
+        assertSame(vendor, mySystem2.getData());
+        assertEquals(20, mySystem2.getStartGlobal());
+        assertEquals(60, mySystem2.getEndGlobal());
+        assertEquals(ImmutableSet.of("Java code", SYSTEM_TAG, "/vendor/*"), myCapture.getTags());
+        assertEquals(40, myCapture.getTagBreakdown().getTimes("/vendor/*").getInclusiveGlobalTime());
+
+        // The collapsed tags are collapsed again, and the vendor function isn't part of the collapsed system code anymore.
+        assertEquals(ImmutableSet.of(SYSTEM_TAG), myCapture.getCollapsedTags());
+        CaptureNode collapsed = myRoot.getChildAt(0).getChildAt(0);
+        assertEquals("<<native code>>", collapsed.getData().getName());
+        assertEquals(10, collapsed.getStartGlobal());
+        assertEquals(70, collapsed.getEndGlobal());
+        assertSame(mySystem2, collapsed.getChildAt(0));
+        assertSame(myAppCallback, mySystem2.getChildAt(0));
+    }
+
+    @Test
+    public void modelsAreReplacedForEachNode() {
+        CaptureNode root = newNode(new SingleNameModel("main"), 0, 100);
+        CaptureNodeModel read = nativeModel("read");
+        CaptureNode read1 = addChild(root, read, 10, 20);
+        CaptureNode read2 = addChild(root, read, 30, 40);
+        BaseCpuCapture capture = new BaseCpuCapture(0, Cpu.CpuTraceType.SIMPLEPERF, new Range(0, 100),
+                ImmutableMap.of(new CpuThreadInfo(1, "main", true), root));
+
+        // Nodes sharing a model still get their own replacement, as a replacement may depend on the call site.
+        assertEquals(2, capture.replaceModels(model -> model == read ? new SingleNameModel("read") : null));
+        assertNotSame(read1.getData(), read2.getData());
+        assertEquals("read", read1.getData().getName());
+        assertEquals("read", read2.getData().getName());
+    }
+
+    @Test
+    public void tagBreakdownReportsTimesOfTheUnabbreviatedTrees() {
+        CaptureNode root = newNode(new SingleNameModel("main"), 0, 100);
+        CaptureNode app = addChild(root, new JavaMethodModel("run", "com.app.Main", ""), 0, 100);
+        addChild(app, nativeModel("read"), 10, 20);
+        addChild(app, nativeModel("write"), 30, 40);
+        BaseCpuCapture capture = new BaseCpuCapture(0, Cpu.CpuTraceType.SIMPLEPERF, new Range(0, 100),
+                ImmutableMap.of(new CpuThreadInfo(1, "main", true), root));
+
+        // The collapsed view merges both system calls into a single node over the app code between them, and that node has no tag.
+        capture.collapseNodesWithTags(ImmutableSet.of(SYSTEM_TAG));
+        CaptureNode collapsed = root.getChildAt(0).getChildAt(0);
+        assertEquals(1, root.getChildAt(0).getChildCount());
+        assertEquals(30, collapsed.getEndGlobal() - collapsed.getStartGlobal());
+        assertNull(collapsed.getData().getTag());
+
+        // The breakdown still reports the time actually spent in each tag.
+        TagBreakdown.TagTimes system = capture.getTagBreakdown(1).getTimes(SYSTEM_TAG);
+        assertEquals(20, system.getInclusiveGlobalTime());
+        assertEquals(20, system.getSelfGlobalTime());
+        TagBreakdown.TagTimes java = capture.getTagBreakdown().getTimes("Java code");
+        assertEquals(100, java.getInclusiveGlobalTime());
+        assertEquals(80, java.getSelfGlobalTime());
+    }
+
+    /**
+     * Collapses the given number of distinct tag sets, none of which is carried by any node.
+     */
+    private void collapseOtherTagSets(int count) {
+        for (int i = 0; i < count; i++) {
+            myCapture.collapseNodesWithTags(ImmutableSet.of("other" + i));
+        }
+    }
+
+    private static CaptureNodeModel vendorModel(String name) {
+        return new CppFunctionModel.Builder(name).setTag(VENDOR_TAG).build();
+    }
+
+    private static CaptureNodeModel nativeModel(String name) {
+        return new CppFunctionModel.Builder(name).setTag(SYSTEM_TAG).build();
+    }
+}
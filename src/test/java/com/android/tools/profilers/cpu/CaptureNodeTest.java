@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.filter.Filter;
+import com.android.tools.adtui.model.filter.FilterResult;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureNodeTest {
+
+    @Test
+    public void topKNodesAcrossTreesAreSortedByComparator() {
+        CaptureNode thread1 = newNode("thread1", 0, 100);
+        CaptureNode a = addChild(thread1, "a", 0, 60);
+        addChild(a, "b", 0, 50);
+        addChild(thread1, "c", 60, 90);
+        CaptureNode thread2 = newNode("thread2", 0, 80);
+        CaptureNode d = addChild(thread2, "d", 10, 80);
+        addChild(d, "e", 10, 15);
+
+        List<CaptureNode> top = CaptureNode.getTopKNodes(Arrays.asList(thread1, thread2), 3, node -> node.getDepth() > 0,
+                CaptureNode.DURATION_COMPARATOR);
+        assertEquals(Arrays.asList("d", "a", "b"), names(top));
+    }
+
+    @Test
+    public void topKNodesBySelfDuration() {
+        CaptureNode root = newNode("root", 0, 100);
+        CaptureNode a = addChild(root, "a", 0, 60);
+        addChild(a, "b", 0, 50);
+        addChild(root, "c", 60, 90);
+
+        List<CaptureNode> top = root.getTopKNodes(2, node -> true, CaptureNode.SELF_DURATION_COMPARATOR);
+        assertEquals(Arrays.asList("b", "c"), names(top));
+    }
+
+    @Test
+    public void topKNodesWithNonPositiveKIsEmpty() {
+        CaptureNode root = newNode("root", 0, 100);
+        addChild(root, "a", 0, 60);
+        assertTrue(root.getTopKNodes(0, node -> true, CaptureNode.DURATION_COMPARATOR).isEmpty());
+        assertTrue(CaptureNode.getTopKNodes(Arrays.asList(root), 0, node -> true, CaptureNode.DURATION_COMPARATOR).isEmpty());
+    }
+
+    @Test
+    public void filterAppliedToAllTreesIsCombined() {
+        CaptureNode thread1 = newNode("thread1", 0, 100);
+        CaptureNode a = addChild(thread1, "foo", 0, 60);
+        CaptureNode b = addChild(a, "bar", 0, 50);
+        CaptureNode c = addChild(thread1, "baz", 60, 90);
+        CaptureNode thread2 = newNode("thread2", 0, 80);
+        CaptureNode d = addChild(thread2, "foo", 10, 80);
+
+        FilterResult result = CaptureNode.applyFilter(Arrays.asList(thread1, thread2), new Filter("foo"));
+        assertEquals(new FilterResult(2, 6, true), result);
+        assertEquals(CaptureNode.FilterType.MATCH, thread1.getFilterType());
+        assertEquals(CaptureNode.FilterType.EXACT_MATCH, a.getFilterType());
+        assertEquals(CaptureNode.FilterType.MATCH, b.getFilterType());
+        assertEquals(CaptureNode.FilterType.UNMATCH, c.getFilterType());
+        assertEquals(CaptureNode.FilterType.EXACT_MATCH, d.getFilterType());
+    }
+
+    @Test
+    public void refinedFilterMatchesFullRecompute() {
+        CaptureNode refined = newNode("root", 0, 100);
+        CaptureNode a = addChild(refined, "foo", 0, 60);
+        addChild(a, "food", 0, 50);
+        addChild(refined, "bar", 60, 90);
+        CaptureNode b = addChild(refined, "Fork", 90, 100);
+        addChild(b, "fOOd", 90, 95);
+
+        refined.applyFilter(new Filter("fo"));
+        FilterResult refinedResult = refined.applyFilter(new Filter("foOD"));
+
+        CaptureNode expected = newNode("root", 0, 100);
+        CaptureNode c = addChild(expected, "foo", 0, 60);
+        addChild(c, "food", 0, 50);
+        addChild(expected, "bar", 60, 90);
+        CaptureNode d = addChild(expected, "Fork", 90, 100);
+        addChild(d, "fOOd", 90, 95);
+        FilterResult expectedResult = expected.applyFilter(new Filter("foOD"));
+
+        assertEquals(expectedResult, refinedResult);
+        assertEquals(filterTypes(expected), filterTypes(refined));
+    }
+
+    @Test
+    public void filteringAnAncestorInvalidatesTheLastFilterOfItsDescendants() {
+        CaptureNode refined = newNode("root", 0, 100);
+        CaptureNode c = addChild(refined, "c", 0, 60);
+        addChild(c, "abcd", 0, 30);
+        addChild(c, "ab", 30, 60);
+
+        c.applyFilter(new Filter("ab"));
+        refined.applyFilter(new Filter("xyz"));
+        // Not a refinement of "ab" anymore: the root filter marked every child of c as unmatched.
+        FilterResult refinedResult = c.applyFilter(new Filter("abc"));
+
+        CaptureNode expected = newNode("root", 0, 100);
+        CaptureNode d = addChild(expected, "c", 0, 60);
+        addChild(d, "abcd", 0, 30);
+        addChild(d, "ab", 30, 60);
+        FilterResult expectedResult = d.applyFilter(new Filter("abc"));
+
+        assertEquals(1, refinedResult.getMatchCount());
+        assertEquals(expectedResult, refinedResult);
+        assertEquals(filterTypes(d), filterTypes(c));
+    }
+
+    @Test
+    public void addingADescendantInvalidatesTheLastFilterOfAllAncestors() {
+        CaptureNode refined = newNode("root", 0, 100);
+        CaptureNode a = addChild(refined, "a", 0, 60);
+        CaptureNode b = addChild(a, "b", 0, 50);
+        refined.applyFilter(new Filter("fo"));
+        addChild(b, "food", 0, 40);
+        FilterResult refinedResult = refined.applyFilter(new Filter("foo"));
+
+        assertEquals(1, refinedResult.getMatchCount());
+        assertEquals(4, refinedResult.getTotalCount());
+    }
+
+    @Test
+    public void refinementRequiresPlainFiltersWithSameCaseSensitivity() {
+        assertTrue(new Filter("abc").isRefinementOf(new Filter("B")));
+        assertTrue(new Filter("abc").isRefinementOf(Filter.EMPTY_FILTER));
+        assertFalse(new Filter("abc", true, false).isRefinementOf(new Filter("B", true, false)));
+        assertFalse(new Filter("abc", false, true).isRefinementOf(new Filter("b", false, true)));
+        assertFalse(new Filter("abc").isRefinementOf(new Filter("b", true, false)));
+        assertFalse(Filter.EMPTY_FILTER.isRefinementOf(new Filter("b")));
+    }
+
+    @Test
+    public void abbreviatedTreeIsANewTreeWithItsOwnParents() {
+        CaptureNode root = newNode("root", 0, 100);
+        CaptureNode a = addChild(root, "a", 0, 60);
+        addChild(a, "x", 0, 20);
+        addChild(a, "x", 20, 40);
+        CaptureNode b = addChild(root, "b", 60, 100);
+        addChild(b, "c", 70, 90);
+        SingleNameModel abbreviation = new SingleNameModel("...");
+
+        CaptureNode abbreviated = root.abbreviatedBy(node -> node.getData().getName().equals("x"), abbreviation);
+        assertEquals(Arrays.asList("root", "a", "...", "b", "c"), names(abbreviated.getDescendantsStream().collect(Collectors.toList())));
+        // The b subtree has nothing to abbreviate, it's copied all the same.
+        assertTrue(abbreviated.getDescendantsStream().noneMatch(node -> root.getDescendantsStream().anyMatch(source -> source == node)));
+        abbreviated.getDescendantsStream().forEach(node -> {
+            assertSame(abbreviated, node.findRootNode());
+            node.getChildren().forEach(child -> {
+                assertSame(node, child.getParent());
+                assertEquals(node.getDepth() + 1, child.getDepth());
+            });
+        });
+        assertSame(root, b.getParent());
+
+        CaptureNode unchanged = root.abbreviatedBy(node -> false, abbreviation);
+        assertNotSame(root, unchanged);
+        assertEquals(6, unchanged.getDescendantsStream().count());
+        assertSame(unchanged, unchanged.getChildAt(1).getChildAt(0).findRootNode());
+    }
+
+    private static List<CaptureNode.FilterType> filterTypes(CaptureNode root) {
+        return root.getDescendantsStream().map(CaptureNode::getFilterType).collect(Collectors.toList());
+    }
+
+    private static List<String> names(List<CaptureNode> nodes) {
+        return nodes.stream().map(node -> node.getData().getName()).collect(Collectors.toList());
+    }
+}
@@ -15,12 +15,17 @@
  */
 package com.android.tools.profilers.cpu;
 
+import com.android.tools.profilers.cpu.capturedetails.CallTreeNode;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import com.google.protobuf.ByteString;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Common constants and methods used across CPU profiler tests.
@@ -50,4 +55,38 @@ public class CpuProfilerTestUtils {
     public static File getTraceFile(@NotNull String filename){
         return new File(CPU_TRACES_DIR, filename);
     }
+
+    @NotNull
+    public static CaptureNode newNode(@NotNull String name, long start, long end) {
+        return newNode(new SingleNameModel(name), start, end);
+    }
+
+    @NotNull
+    public static CaptureNode newNode(@NotNull CaptureNodeModel model, long start, long end) {
+        CaptureNode node = new CaptureNode(model);
+        node.setStartGlobal(start);
+        node.setEndGlobal(end);
+        return node;
+    }
+
+    /**
+     * Adds a node one level below the parent, after its other children.
+     */
+    @NotNull
+    public static CaptureNode addChild(@NotNull CaptureNode parent, @NotNull String name, long start, long end) {
+        return addChild(parent, new SingleNameModel(name), start, end);
+    }
+
+    @NotNull
+    public static CaptureNode addChild(@NotNull CaptureNode parent, @NotNull CaptureNodeModel model, long start, long end) {
+        CaptureNode child = newNode(model, start, end);
+        child.setDepth(parent.getDepth() + 1);
+        parent.addChild(child);
+        return child;
+    }
+
+    @NotNull
+    public static List<String> names(@NotNull List<? extends CallTreeNode> nodes) {
+        return nodes.stream().map(node -> node.getModel().getName()).collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InstructionHistogramsTest {
+
+    private static final String LIBRARY = "/data/app/com.example-1/lib/arm64/libexample.so";
+
+    @Test
+    public void countsSamplesByFunctionAndAddress() {
+        CppFunctionModel draw = newFunction("draw", 0x100);
+        InstructionHistograms histograms = newHistograms(draw);
+
+        assertEquals(2, histograms.getFunctionIds().size());
+        // Calls of a function from different call sites share its histogram.
+        InstructionHistograms.Histogram histogram = histograms.getHistogram(newFunction("draw", 0x200));
+        assertNotNull(histogram);
+        assertEquals(LIBRARY, histogram.getFilePath());
+        assertEquals(3, histogram.getSize());
+        assertEquals(0x1000, histogram.getAddress(0));
+        assertEquals(0x1004, histogram.getAddress(1));
+        assertEquals(0x1010, histogram.getAddress(2));
+        assertEquals(3, histogram.getSampleCount(0x1004L));
+        assertEquals(0, histogram.getSampleCount(0x1008L));
+        assertEquals(5, histogram.getTotalSampleCount());
+        assertNull(histograms.getHistogram("main"));
+    }
+
+    @Test
+    public void writtenHistogramsReadBack() throws IOException {
+        InstructionHistograms histograms = newHistograms(newFunction("draw", 0));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        histograms.write(output);
+        InstructionHistograms read = InstructionHistograms.read(new ByteArrayInputStream(output.toByteArray()));
+
+        assertEquals(histograms.getFunctionIds(), read.getFunctionIds());
+        for (String id : histograms.getFunctionIds()) {
+            InstructionHistograms.Histogram expected = histograms.getHistogram(id);
+            InstructionHistograms.Histogram actual = read.getHistogram(id);
+            assertEquals(expected.getFilePath(), actual.getFilePath());
+            assertEquals(expected.getSize(), actual.getSize());
+            for (int i = 0; i < expected.getSize(); i++) {
+                assertEquals(expected.getAddress(i), actual.getAddress(i));
+                assertEquals(expected.getSampleCount(i), actual.getSampleCount(i));
+            }
+        }
+    }
+
+    private static InstructionHistograms newHistograms(CppFunctionModel draw) {
+        InstructionHistograms.Builder builder = new InstructionHistograms.Builder();
+        builder.add(draw, LIBRARY, 0x1004);
+        builder.add(draw, LIBRARY, 0x1010);
+        builder.add(draw, LIBRARY, 0x1004);
+        builder.add(draw, LIBRARY, 0x1000);
+        builder.add(draw, LIBRARY, 0x1004);
+        builder.add(newFunction("update", 0x100), LIBRARY, 0x2000);
+        return builder.build();
+    }
+
+    private static CppFunctionModel newFunction(String name, long callSite) {
+        return new CppFunctionModel.Builder(name).setFileName(LIBRARY).setVAddress(callSite).build();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.filter.Filter;
+import com.android.tools.adtui.model.filter.FilterResult;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class MethodNameIndexTest {
+
+    private static final String[] NAMES = {"java.lang.Object.wait", "art::Thread::Run", "OBJECT.toString", "memcpy", "Foo.bar", "foo"};
+
+    @Test
+    public void substringAndPrefixQueries() {
+        MethodNameIndex index = new MethodNameIndex(Arrays.asList(randomTree(new Random(1), "thread")));
+
+        assertEquals(Arrays.asList("OBJECT.toString", "java.lang.Object.wait"), sortedNames(index, index.findNameIds(new Filter("object"))));
+        assertEquals(Arrays.asList("java.lang.Object.wait"), sortedNames(index, index.findNameIds(new Filter("Object", true, false))));
+        assertEquals(Arrays.asList("Foo.bar", "foo"), sortedNames(index, index.findNameIdsWithPrefix("FOO", false)));
+        assertEquals(Arrays.asList("foo"), sortedNames(index, index.findNameIdsWithPrefix("foo", true)));
+        assertEquals(Arrays.asList("memcpy"), sortedNames(index, index.findNameIds(new Filter("^mem", false, true))));
+    }
+
+    @Test
+    public void nodesAreGroupedByTree() {
+        CaptureNode thread1 = randomTree(new Random(2), "thread1");
+        CaptureNode thread2 = randomTree(new Random(3), "thread2");
+        MethodNameIndex index = new MethodNameIndex(Arrays.asList(thread1, thread2));
+
+        int memcpy = index.findNameIds(new Filter("memcpy", true, false))[0];
+        Map<CaptureNode, List<CaptureNode>> nodes = index.getNodes(memcpy);
+        for (CaptureNode root : Arrays.asList(thread1, thread2)) {
+            List<CaptureNode> expected =
+                    root.getDescendantsStream().filter(node -> node.getData().getFullName().equals("memcpy")).collect(Collectors.toList());
+            assertEquals(expected, nodes.get(root));
+        }
+    }
+
+    @Test
+    public void filterMarksNodesLikeTreeTraversal() {
+        List<Filter> filters = Arrays.asList(new Filter("o"), new Filter("objecT"), new Filter("Run", true, false),
+                new Filter("^f.*", false, true), new Filter("missing"), Filter.EMPTY_FILTER);
+        for (Filter filter : filters) {
+            CaptureNode indexed = randomTree(new Random(4), "thread");
+            CaptureNode traversed = randomTree(new Random(4), "thread");
+
+            FilterResult indexedResult = new MethodNameIndex(Arrays.asList(indexed)).applyFilter(filter);
+            FilterResult traversedResult = traversed.applyFilter(filter);
+
+            assertEquals(traversedResult, indexedResult);
+            assertEquals(filterTypes(traversed), filterTypes(indexed));
+        }
+    }
+
+    @Test
+    public void refinedFiltersMatchFullRecompute() {
+        CaptureNode indexed = randomTree(new Random(5), "thread");
+        MethodNameIndex index = new MethodNameIndex(Arrays.asList(indexed));
+        // Refinements, a filter that isn't one, then refinements of it again.
+        List<Filter> filters = Arrays.asList(new Filter("o"), new Filter("ob"), new Filter("object.t"), new Filter("me"),
+                new Filter("mem"), new Filter("memcpy", true, false));
+        for (Filter filter : filters) {
+            CaptureNode traversed = randomTree(new Random(5), "thread");
+            FilterResult traversedResult = traversed.applyFilter(filter);
+
+            assertEquals(traversedResult, index.applyFilter(filter));
+            assertEquals(filterTypes(traversed), filterTypes(indexed));
+        }
+    }
+
+    @Test
+    public void indexedFilterInvalidatesTheLastFilterOfSubtrees() {
+        CaptureNode indexed = randomTree(new Random(6), "thread");
+        CaptureNode subtree = indexed.getChildAt(0);
+        subtree.applyFilter(new Filter("o"));
+        new MethodNameIndex(Arrays.asList(indexed)).applyFilter(new Filter("missing"));
+        // Not a refinement of "o" anymore: the index marked the whole subtree as unmatched.
+        FilterResult refinedResult = subtree.applyFilter(new Filter("obj"));
+
+        CaptureNode traversed = randomTree(new Random(6), "thread").getChildAt(0);
+        assertEquals(traversed.applyFilter(new Filter("obj")), refinedResult);
+        assertEquals(filterTypes(traversed), filterTypes(subtree));
+    }
+
+    private static CaptureNode randomTree(Random random, String threadName) {
+        CaptureNode root = new CaptureNode(new SingleNameModel(threadName));
+        List<CaptureNode> nodes = new ArrayList<>(Arrays.asList(root));
+        for (int i = 0; i < 200; i++) {
+            CaptureNode parent = nodes.get(random.nextInt(nodes.size()));
+            CaptureNode child = new CaptureNode(new SingleNameModel(NAMES[random.nextInt(NAMES.length)]));
+            child.setDepth(parent.getDepth() + 1);
+            parent.addChild(child);
+            nodes.add(child);
+        }
+        return root;
+    }
+
+    private static List<String> sortedNames(MethodNameIndex index, int[] ids) {
+        return Arrays.stream(ids).mapToObj(index::getName).sorted().collect(Collectors.toList());
+    }
+
+    private static List<CaptureNode.FilterType> filterTypes(CaptureNode root) {
+        return root.getDescendantsStream().map(CaptureNode::getFilterType).collect(Collectors.toList());
+    }
+}
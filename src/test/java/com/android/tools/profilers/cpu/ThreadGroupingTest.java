@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.profiler.proto.Cpu;
+import com.android.tools.profilers.cpu.capturedetails.AggregatedCallTree;
+import com.google.common.collect.ImmutableMap;
+import kotlin.text.Regex;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ThreadGroupingTest {
+
+    @Test
+    public void capturingGroupsAreReplacedInGroupName() {
+        ThreadGrouping grouping = ThreadGrouping.DEFAULT;
+        assertEquals("pool-3-thread-*", grouping.getGroupName("pool-3-thread-12"));
+        assertEquals("DefaultDispatch*", grouping.getGroupName("DefaultDispatcher-worker-1"));
+        assertEquals("OkHttp *", grouping.getGroupName("OkHttp https://example.com/..."));
+        assertNull(grouping.getGroupName("main"));
+        assertEquals("pool-*-thread-*", new ThreadGrouping(Arrays.asList(new Regex("pool-(\\d+)-thread-(\\d+)"))).getGroupName("pool-3-thread-12"));
+    }
+
+    @Test
+    public void truncatedThreadNamesAreGrouped() {
+        // Thread names are truncated to 15 characters.
+        ThreadGrouping grouping = ThreadGrouping.DEFAULT;
+        assertEquals("DefaultDispatch*", grouping.getGroupName("DefaultDispatch"));
+        assertEquals("pool-3-thread-*", grouping.getGroupName("pool-3-thread-1"));
+        assertEquals("pool-12-thread-*", grouping.getGroupName("pool-12-thread-"));
+        assertEquals("OkHttp *", grouping.getGroupName("OkHttp https://e"));
+    }
+
+    @Test
+    public void groupsMergeTheirThreadTrees() {
+        CaptureNode main = newNode("main", 0, 100);
+        CaptureNode worker1 = newNode("pool-1-thread-1", 0, 100);
+        addChild(worker1, "run", 0, 40);
+        CaptureNode worker2 = newNode("pool-1-thread-2", 0, 100);
+        addChild(worker2, "run", 50, 80);
+        CpuCapture capture = new BaseCpuCapture(0, Cpu.CpuTraceType.SIMPLEPERF, new Range(0, 100),
+                ImmutableMap.of(new CpuThreadInfo(1, "main", true), main,
+                        new CpuThreadInfo(2, "pool-1-thread-1"), worker1,
+                        new CpuThreadInfo(3, "pool-1-thread-2"), worker2));
+
+        List<ThreadGroupInfo> groups = capture.getThreadGroups(ThreadGrouping.DEFAULT);
+        assertEquals(1, groups.size());
+        ThreadGroupInfo pool = groups.get(0);
+        assertEquals("pool-1-thread-*", pool.getName());
+        assertEquals(ThreadGrouping.FIRST_GROUP_ID, pool.getId());
+        assertEquals(Arrays.asList(2, 3), pool.getThreads().stream().map(CpuThreadInfo::getId).collect(Collectors.toList()));
+        assertSame(pool, capture.getThreadGroups(ThreadGrouping.DEFAULT).get(0));
+
+        AggregatedCallTree tree = capture.getAggregatedCallTree(pool);
+        assertEquals("pool-1-thread-*", tree.getRoot().getModel().getName());
+        assertEquals(200, tree.getRoot().getTotalTime());
+        assertEquals(70, tree.getRoot().getChildren().get(0).getTotalTime());
+        assertSame(tree, capture.getAggregatedCallTree(pool));
+    }
+}
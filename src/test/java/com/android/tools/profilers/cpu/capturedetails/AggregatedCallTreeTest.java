@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.names;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class AggregatedCallTreeTest {
+
+    @Test
+    public void callsThroughTheSamePathAreMerged() {
+        // main -> a -> b, main -> c, main -> a -> b -> b
+        CaptureNode main = newNode("main", 0, 100);
+        CaptureNode a1 = addChild(main, "a", 0, 30);
+        addChild(a1, "b", 0, 20);
+        addChild(main, "c", 30, 45);
+        CaptureNode a2 = addChild(main, "a", 50, 100);
+        CaptureNode b2 = addChild(a2, "b", 60, 90);
+        addChild(b2, "b", 70, 80);
+
+        CallTreeNode root = AggregatedCallTree.forThread(main).getRoot();
+        assertEquals("main", root.getModel().getName());
+        assertEquals(100, root.getTotalTime());
+        assertEquals(5, root.getSelfTime());
+        assertEquals(Arrays.asList("a", "c"), names(root.getChildren()));
+
+        CallTreeNode a = root.getChildren().get(0);
+        assertSame(root, a.getParent());
+        assertEquals(80, a.getTotalTime());
+        assertEquals(30, a.getSelfTime());
+        assertEquals(2, a.getCallCount());
+
+        CallTreeNode b = a.getChildren().get(0);
+        assertEquals(50, b.getTotalTime());
+        assertEquals(40, b.getSelfTime());
+        assertEquals(2, b.getCallCount());
+        assertEquals(Arrays.asList("b"), names(b.getChildren()));
+        assertEquals(1, b.getChildren().get(0).getCallCount());
+    }
+
+    @Test
+    public void threadsAreMergedUnderOneRoot() {
+        CaptureNode thread1 = newNode("thread1", 0, 100);
+        addChild(thread1, "a", 0, 60);
+        CaptureNode thread2 = newNode("thread2", 0, 50);
+        CaptureNode a = addChild(thread2, "a", 0, 40);
+        a.setSampleCount(4);
+        a.setSelfSampleCount(3);
+        addChild(thread2, "b", 40, 50);
+
+        AggregatedCallTree tree = AggregatedCallTree.forThreads(Arrays.asList(thread1, thread2));
+        CallTreeNode root = tree.getRoot();
+        assertSame(AggregatedCallTree.THREADS_ROOT_MODEL, root.getModel());
+        assertEquals(150, root.getTotalTime());
+        assertEquals(2, root.getCallCount());
+        assertEquals(Arrays.asList("a", "b"), names(root.getChildren()));
+        assertEquals(100, root.getChildren().get(0).getTotalTime());
+        assertEquals(4, root.getChildren().get(0).getSampleCount());
+        assertEquals(3, root.getChildren().get(0).getSelfSampleCount());
+        assertEquals(3, tree.getSize());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.names;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BottomUpCallTreeTest {
+
+    private CallTreeNode myRoot;
+
+    @Before
+    public void setUp() {
+        // main -> a -> memcpy
+        //      -> b -> memcpy
+        //      -> r -> r -> memcpy
+        CaptureNode main = newNode("main", 0, 100);
+        CaptureNode a = addChild(main, "a", 0, 20);
+        addChild(a, "memcpy", 0, 10);
+        CaptureNode b = addChild(main, "b", 20, 50);
+        addChild(b, "memcpy", 30, 50);
+        CaptureNode r1 = addChild(main, "r", 50, 90);
+        CaptureNode r2 = addChild(r1, "r", 55, 85);
+        addChild(r2, "memcpy", 60, 65);
+        myRoot = BottomUpCallTree.forThread(main).getRoot();
+    }
+
+    @Test
+    public void rootChildrenAreAllMethods() {
+        assertEquals(Arrays.asList("main", "r", "memcpy", "b", "a"), names(myRoot.getChildren()));
+        CallTreeNode memcpy = find(myRoot.getChildren(), "memcpy");
+        assertEquals(35, memcpy.getTotalTime());
+        assertEquals(35, memcpy.getSelfTime());
+        assertEquals(3, memcpy.getCallCount());
+        assertSame(myRoot, memcpy.getParent());
+    }
+
+    @Test
+    public void childrenAreCallers() {
+        CallTreeNode memcpy = find(myRoot.getChildren(), "memcpy");
+        assertEquals(Arrays.asList("b", "a", "r"), names(memcpy.getChildren()));
+
+        CallTreeNode viaR = find(memcpy.getChildren(), "r");
+        assertEquals(5, viaR.getTotalTime());
+        assertEquals(Arrays.asList("r"), names(viaR.getChildren()));
+        CallTreeNode viaRR = viaR.getChildren().get(0);
+        assertEquals(Arrays.asList("main"), names(viaRR.getChildren()));
+        assertTrue(viaRR.getChildren().get(0).getChildren().isEmpty());
+    }
+
+    @Test
+    public void recursiveCallsAreCountedOnceInTotalTime() {
+        CallTreeNode r = find(myRoot.getChildren(), "r");
+        assertEquals(2, r.getCallCount());
+        assertEquals(40, r.getTotalTime());
+        // 10 outside of the inner call, 25 outside of memcpy.
+        assertEquals(35, r.getSelfTime());
+        assertEquals(Arrays.asList("main", "r"), names(r.getChildren()));
+    }
+
+    private static CallTreeNode find(List<CallTreeNode> nodes, String name) {
+        return nodes.stream().filter(node -> node.getModel().getName().equals(name)).findFirst().get();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.profiler.proto.Cpu;
+import com.android.tools.profilers.cpu.BaseCpuCapture;
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CpuCapture;
+import com.android.tools.profilers.cpu.CpuThreadInfo;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CallTreeDiffTest {
+
+    @Test
+    public void pathsAreAlignedByModelAndNormalizedByDuration() {
+        // Baseline, 100us: main -> a [0, 50] -> b [0, 20]
+        //                       -> c [50, 60]
+        CaptureNode baselineMain = newNode("main", 0, 100);
+        CaptureNode a1 = addChild(baselineMain, "a", 0, 50);
+        addChild(a1, "b", 0, 20);
+        addChild(baselineMain, "c", 50, 60);
+        // Comparison, 200us: main -> a [0, 150] -> b [0, 100]
+        //                         -> d [150, 170]
+        CaptureNode comparisonMain = newNode("main", 0, 200);
+        CaptureNode a2 = addChild(comparisonMain, "a", 0, 150);
+        addChild(a2, "b", 0, 100);
+        addChild(comparisonMain, "d", 150, 170);
+
+        CallTreeDiff diff = CallTreeDiff.topDown(capture(baselineMain, 100), capture(comparisonMain, 200));
+        assertEquals(0.0, diff.getTotalTimeDelta(), 1e-9);
+        assertEquals(Arrays.asList("a", "d", "c"), names(diff.getChildren()));
+
+        CallTreeDiff a = diff.getChildren().get(0);
+        assertEquals(0.5, a.getBaselineTotalFraction(), 1e-9);
+        assertEquals(0.75, a.getComparisonTotalFraction(), 1e-9);
+        assertEquals(0.25, a.getTotalTimeDelta(), 1e-9);
+        assertEquals(-0.05, a.getSelfTimeDelta(), 1e-9);
+        assertEquals(0.3, a.getChildren().get(0).getTotalTimeDelta(), 1e-9);
+
+        CallTreeDiff c = diff.getChildren().get(2);
+        assertNull(c.getComparison());
+        assertEquals(-0.1, c.getTotalTimeDelta(), 1e-9);
+        CallTreeDiff d = diff.getChildren().get(1);
+        assertNull(d.getBaseline());
+        assertEquals(0.1, d.getTotalTimeDelta(), 1e-9);
+    }
+
+    @Test
+    public void bottomUpTreesAreAlignedByCallers() {
+        CaptureNode baselineMain = newNode("main", 0, 100);
+        CaptureNode a1 = addChild(baselineMain, "a", 0, 50);
+        addChild(a1, "memcpy", 0, 20);
+        CaptureNode comparisonMain = newNode("main", 0, 100);
+        CaptureNode a2 = addChild(comparisonMain, "a", 0, 50);
+        addChild(a2, "memcpy", 0, 40);
+
+        CallTreeDiff diff = CallTreeDiff.bottomUp(capture(baselineMain, 100), capture(comparisonMain, 100));
+        CallTreeDiff memcpy = diff.getChildren().stream().filter(it -> it.getModel().getName().equals("memcpy")).findFirst().get();
+        assertEquals(0.2, memcpy.getSelfTimeDelta(), 1e-9);
+        assertEquals(Arrays.asList("a"), names(memcpy.getChildren()));
+        assertEquals(0.2, memcpy.getChildren().get(0).getTotalTimeDelta(), 1e-9);
+    }
+
+    private static CpuCapture capture(CaptureNode root, long duration) {
+        return new BaseCpuCapture(0, Cpu.CpuTraceType.SIMPLEPERF, new Range(0, duration),
+                                  ImmutableMap.of(new CpuThreadInfo(1, "main", true), root));
+    }
+
+    private static List<String> names(List<CallTreeDiff> nodes) {
+        return nodes.stream().map(node -> node.getModel().getName()).collect(Collectors.toList());
+    }
+}
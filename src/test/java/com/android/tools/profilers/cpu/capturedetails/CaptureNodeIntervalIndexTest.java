@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.names;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+
+public class CaptureNodeIntervalIndexTest {
+
+    private CaptureNode myRoot;
+
+    @Before
+    public void setUp() {
+        // main [0, 100] -> a [0, 40] -> b [10, 30]
+        //               -> c [40, 60]
+        //               -> a [60, 100] -> b [70, 90] -> d [75, 80]
+        myRoot = newNode("main", 0, 100);
+        CaptureNode a1 = addChild(myRoot, "a", 0, 40);
+        addChild(a1, "b", 10, 30);
+        addChild(myRoot, "c", 40, 60);
+        CaptureNode a2 = addChild(myRoot, "a", 60, 100);
+        CaptureNode b2 = addChild(a2, "b", 70, 90);
+        addChild(b2, "d", 75, 80);
+    }
+
+    @Test
+    public void intersectingNodesMatchLinearScan() {
+        CaptureNodeIntervalIndex index = new CaptureNodeIntervalIndex(myRoot);
+        assertEquals(4, index.getDepthCount());
+        for (long start = -10; start <= 110; start += 5) {
+            for (long end = start; end <= 110; end += 5) {
+                long min = start;
+                long max = end;
+                List<CaptureNode> expected = myRoot.getDescendantsStream()
+                        .filter(node -> Math.max(node.getStart(), min) <= Math.min(node.getEnd(), max))
+                        .collect(Collectors.toList());
+                assertEquals(new HashSet<>(expected), new HashSet<>(index.getIntersectingNodes(min, max)));
+                assertEquals(expected.size(), index.getIntersectingNodes(min, max).size());
+            }
+        }
+    }
+
+    @Test
+    public void rangeAggregationClipsTimes() {
+        CaptureNodeIntervalIndex index = new CaptureNodeIntervalIndex(myRoot);
+        CallTreeNode root =
+                AggregatedCallTree.forRange(Collections.singletonList(index), 20, 78, myRoot.getData(), new ModelTable()).getRoot();
+        assertEquals(58, root.getTotalTime());
+        assertEquals(0, root.getSelfTime());
+        assertEquals(Arrays.asList("a", "c"), names(root.getChildren()));
+
+        CallTreeNode a = root.getChildren().get(0);
+        // [20, 40] and [60, 78]
+        assertEquals(38, a.getTotalTime());
+        assertEquals(2, a.getCallCount());
+        CallTreeNode b = a.getChildren().get(0);
+        // [20, 30] and [70, 78]
+        assertEquals(18, b.getTotalTime());
+        assertEquals(15, b.getSelfTime());
+        assertEquals(20, a.getSelfTime());
+        assertEquals(3, b.getChildren().get(0).getTotalTime());
+    }
+
+    @Test
+    public void rangeAggregationSkipsNodesTouchingItsBounds() {
+        CaptureNodeIntervalIndex index = new CaptureNodeIntervalIndex(myRoot);
+        // The first a ends at 40 and the second one starts at 60, neither was called within the range.
+        CallTreeNode root =
+                AggregatedCallTree.forRange(Collections.singletonList(index), 40, 60, myRoot.getData(), new ModelTable()).getRoot();
+        assertEquals(Arrays.asList("c"), names(root.getChildren()));
+        assertEquals(1, root.getChildren().get(0).getCallCount());
+        assertEquals(20, root.getChildren().get(0).getTotalTime());
+        assertEquals(0, root.getSelfTime());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LevelOfDetailIndexTest {
+
+    private CaptureNode myRoot;
+    private CaptureNode myWide;
+    private LevelOfDetailIndex myIndex;
+
+    @Before
+    public void setUp() {
+        // 100 nodes of 1us in [0, 200), one node of 500us, then 10 nodes of 1us in [700, 720).
+        myRoot = newNode("main", 0, 1000);
+        for (int i = 0; i < 100; i++) {
+            addChild(myRoot, "short", 2 * i, 2 * i + 1);
+        }
+        myWide = addChild(myRoot, "wide", 200, 700);
+        for (int i = 0; i < 10; i++) {
+            addChild(myRoot, "short", 700 + 2 * i, 700 + 2 * i + 1);
+        }
+        myIndex = new LevelOfDetailIndex(new CaptureNodeIntervalIndex(myRoot));
+    }
+
+    @Test
+    public void fineResolutionReturnsAllNodes() {
+        List<LevelOfDetailIndex.Span> spans = myIndex.getSpans(0, 1000, 1);
+        assertEquals(112, spans.size());
+        assertTrue(spans.stream().allMatch(span -> span.getNode() != null && span.getNodeCount() == 1));
+    }
+
+    @Test
+    public void shortNodesAreMergedAtCoarseResolution() {
+        long resolution = 10;
+        List<LevelOfDetailIndex.Span> spans = myIndex.getSpans(0, 1000, resolution);
+        assertSame(myRoot, spans.get(0).getNode());
+
+        List<LevelOfDetailIndex.Span> children = spans.stream().filter(span -> span.getDepth() == 1).collect(Collectors.toList());
+        assertEquals(110, children.stream().filter(span -> span.getNode() == null).mapToInt(LevelOfDetailIndex.Span::getNodeCount).sum());
+        assertEquals(1, children.stream().filter(span -> span.getNode() == myWide).count());
+        // A placeholder stops growing once it reaches the resolution, so there are at most a couple of spans per resolution unit.
+        assertTrue(children.size() <= 2 + 2 * 220 / resolution);
+        for (LevelOfDetailIndex.Span span : children) {
+            if (span.getNode() == null) {
+                assertTrue(span.getEnd() <= 200 || span.getStart() >= 700);
+            }
+        }
+    }
+
+    @Test
+    public void spansOutsideOfRangeAreSkipped() {
+        List<LevelOfDetailIndex.Span> spans = myIndex.getSpans(300, 400, 64);
+        assertEquals(2, spans.size());
+        assertSame(myWide, spans.get(1).getNode());
+        assertNull(myIndex.getSpans(2000, 3000, 64).stream().findFirst().orElse(null));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MethodIndexTest {
+
+    private CaptureNode myThread1;
+    private CaptureNode myThread2;
+    private MethodIndex myIndex;
+
+    @Before
+    public void setUp() {
+        // thread1 -> a [0, 40] -> f [0, 30] -> f [5, 25] -> g [10, 20]
+        //         -> b [40, 60] -> f [40, 50] -> h [40, 45]
+        // thread2 -> a [0, 10] -> f [0, 10]
+        myThread1 = newNode("thread1", 0, 100);
+        CaptureNode a = addChild(myThread1, "a", 0, 40);
+        CaptureNode f1 = addChild(a, "f", 0, 30);
+        CaptureNode f2 = addChild(f1, "f", 5, 25);
+        addChild(f2, "g", 10, 20);
+        CaptureNode b = addChild(myThread1, "b", 40, 60);
+        CaptureNode f3 = addChild(b, "f", 40, 50);
+        addChild(f3, "h", 40, 45);
+        myThread2 = newNode("thread2", 0, 10);
+        CaptureNode a2 = addChild(myThread2, "a", 0, 10);
+        addChild(a2, "f", 0, 10);
+        myIndex = new MethodIndex(Arrays.asList(myThread1, myThread2));
+    }
+
+    @Test
+    public void nodesOfAMethodAreIndexed() {
+        assertEquals(4, myIndex.getNodes(new SingleNameModel("f")).size());
+        assertEquals(1, myIndex.getNodes(new SingleNameModel("g")).size());
+        assertTrue(myIndex.getNodes(new SingleNameModel("missing")).isEmpty());
+    }
+
+    @Test
+    public void butterflyAggregatesCallersAndCallees() {
+        MethodIndex.Butterfly f = myIndex.getButterfly(new SingleNameModel("f"));
+        assertEquals(4, f.getCallCount());
+        assertEquals(2, f.getThreadCount());
+        // The recursive call is nested in [0, 30].
+        assertEquals(50, f.getTotalTime());
+        // 10 + 10 + 5 + 10
+        assertEquals(35, f.getSelfTime());
+
+        assertEquals(Arrays.asList("a", "f", "b"), names(f.getCallers()));
+        assertEquals(40, f.getCallers().get(0).getTime());
+        assertEquals(2, f.getCallers().get(0).getCallCount());
+        assertEquals(20, f.getCallers().get(1).getTime());
+
+        assertEquals(Arrays.asList("f", "g", "h"), names(f.getCallees()));
+        assertEquals(20, f.getCallees().get(0).getTime());
+        assertEquals(10, f.getCallees().get(1).getTime());
+        assertEquals(5, f.getCallees().get(2).getTime());
+    }
+
+    @Test
+    public void threadsOnlyIndexTheirOwnKeys() {
+        ModelTable table = new ModelTable();
+        table.keyOf(new SingleNameModel("h"));
+        for (int i = 0; i < 100_000; i++) {
+            table.keyOf(new SingleNameModel("unused" + i));
+        }
+        // The keys of thread1 aren't in order of first use: h was keyed before everything else.
+        MethodIndex index = new MethodIndex(Arrays.asList(myThread1, myThread2), table);
+        assertEquals(4, index.getNodes(new SingleNameModel("f")).size());
+        assertEquals(40, index.getNodes(new SingleNameModel("h")).get(0).getStart());
+        assertEquals(Arrays.asList(myThread1.getChildAt(0), myThread2.getChildAt(0)), index.getNodes(new SingleNameModel("a")));
+        assertTrue(index.getNodes(new SingleNameModel("unused0")).isEmpty());
+        assertEquals(35, index.getButterfly(new SingleNameModel("f")).getSelfTime());
+    }
+
+    private static List<String> names(List<MethodIndex.Contribution> contributions) {
+        return contributions.stream().map(it -> it.getModel().getName()).collect(Collectors.toList());
+    }
+}
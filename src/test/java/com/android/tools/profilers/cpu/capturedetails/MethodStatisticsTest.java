@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.assertEquals;
+
+public class MethodStatisticsTest {
+
+    @Test
+    public void statisticsAreMergedAcrossThreads() {
+        // thread1 -> r [0, 50] -> r [10, 40] -> leaf [20, 30]
+        //         -> leaf [50, 55]
+        // thread2 -> leaf [0, 100]
+        CaptureNode thread1 = newNode("thread1", 0, 100);
+        CaptureNode r1 = addChild(thread1, "r", 0, 50);
+        CaptureNode r2 = addChild(r1, "r", 10, 40);
+        addChild(r2, "leaf", 20, 30);
+        addChild(thread1, "leaf", 50, 55);
+        CaptureNode thread2 = newNode("thread2", 0, 100);
+        addChild(thread2, "leaf", 0, 100);
+
+        MethodStatistics statistics = new MethodStatistics(Arrays.asList(thread1, thread2));
+        assertEquals(2, statistics.getMethodCount());
+        assertEquals(-1, statistics.findRow(new SingleNameModel("thread1")));
+
+        int r = statistics.findRow(new SingleNameModel("r"));
+        assertEquals(50, statistics.getTotalTime(r));
+        assertEquals(40, statistics.getSelfTime(r));
+        assertEquals(2, statistics.getInvocationCount(r));
+        assertEquals(30, statistics.getMinDuration(r));
+        assertEquals(50, statistics.getMaxDuration(r));
+        assertEquals(40.0, statistics.getAverageDuration(r), 0.0);
+        assertEquals(1, statistics.getThreadCount(r));
+
+        int leaf = statistics.findRow(new SingleNameModel("leaf"));
+        assertEquals(115, statistics.getTotalTime(leaf));
+        assertEquals(115, statistics.getSelfTime(leaf));
+        assertEquals(3, statistics.getInvocationCount(leaf));
+        assertEquals(5, statistics.getMinDuration(leaf));
+        assertEquals(100, statistics.getMaxDuration(leaf));
+        assertEquals(2, statistics.getThreadCount(leaf));
+    }
+
+    @Test
+    public void denseIdsAreKeysOfTheirTable() {
+        ModelTable table = new ModelTable(true);
+        int threadId = table.keyOf(new SingleNameModel("thread"));
+        int leafId = table.keyOf(new SingleNameModel("leaf"));
+        CaptureNode thread = newNode(new SingleNameModel("thread", threadId), 0, 100);
+        CaptureNode leaf = newNode(new SingleNameModel("leaf", leafId), 10, 20);
+        leaf.setDepth(1);
+        thread.addChild(leaf);
+
+        MethodStatistics statistics = new MethodStatistics(Arrays.asList(thread), table);
+        assertEquals(2, table.getSize());
+        int row = statistics.findRow(new SingleNameModel("leaf", leafId));
+        assertEquals(10, statistics.getTotalTime(row));
+        // Models without dense id are found by id.
+        assertEquals(row, statistics.findRow(new SingleNameModel("leaf")));
+        assertEquals(-1, statistics.findRow(new SingleNameModel("other")));
+    }
+
+    @Test
+    public void threadsOnlyHoldTheMethodsTheyCall() {
+        ModelTable table = new ModelTable();
+        for (int i = 0; i < 100_000; i++) {
+            table.keyOf(new SingleNameModel("unused" + i));
+        }
+        // The methods are first called in another order than the one of their keys, and the threads share only one of them.
+        CaptureNode thread1 = newNode("thread1", 0, 100);
+        addChild(thread1, "c", 0, 10);
+        addChild(thread1, "a", 10, 30);
+        CaptureNode thread2 = newNode("thread2", 0, 100);
+        addChild(thread2, "b", 0, 40);
+        addChild(thread2, "a", 40, 45);
+        table.keyOf(new SingleNameModel("a"));
+        table.keyOf(new SingleNameModel("b"));
+
+        MethodStatistics statistics = new MethodStatistics(Arrays.asList(thread1, thread2), table);
+        assertEquals(3, statistics.getMethodCount());
+        int a = statistics.findRow(new SingleNameModel("a"));
+        assertEquals(25, statistics.getTotalTime(a));
+        assertEquals(2, statistics.getThreadCount(a));
+        assertEquals(5, statistics.getMinDuration(a));
+        assertEquals(1, statistics.getThreadCount(statistics.findRow(new SingleNameModel("b"))));
+        assertEquals(10, statistics.getTotalTime(statistics.findRow(new SingleNameModel("c"))));
+        assertEquals(-1, statistics.findRow(new SingleNameModel("unused0")));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MappedSymbolFileRecordTest {
+
+    @Test
+    public void symbolsAreReadFromTheBuffer() throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        writeTag(file, 1, 0);
+        writeVarint(file, 7);
+        writeString(file, 2, "/system/lib64/libhwui.so");
+        writeString(file, 3, "android::uirenderer::RenderThread::threadLoop()");
+        // Unknown fields are skipped.
+        writeTag(file, 9, 0);
+        writeVarint(file, 300);
+        writeString(file, 3, "\u03c3::f()");
+
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        // Bytes of the previous records.
+        trace.write(new byte[]{1, 2, 3});
+        writeTag(trace, 3, 2);
+        writeVarint(trace, file.size());
+        file.writeTo(trace);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(trace.size() + 4);
+        buffer.put(trace.toByteArray());
+
+        int recordSize = trace.size() - 3;
+        assertFalse(MappedSymbolFileRecord.isFileRecord(buffer, 0, 3));
+        assertTrue(MappedSymbolFileRecord.isFileRecord(buffer, 3, recordSize));
+        MappedSymbolFileRecord record = MappedSymbolFileRecord.parse(buffer, 3, recordSize);
+        assertEquals(7, record.getId());
+        assertEquals("/system/lib64/libhwui.so", record.getPath());
+        assertEquals(2, record.getSymbolCount());
+        assertEquals("\u03c3::f()", record.getSymbol(1));
+        assertEquals("android::uirenderer::RenderThread::threadLoop()", record.getSymbol(0));
+    }
+
+    private static void writeString(ByteArrayOutputStream out, int field, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeTag(out, field, 2);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeTag(ByteArrayOutputStream out, int field, int wireType) {
+        writeVarint(out, field << 3 | wireType);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf;
+
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
+import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel;
+import com.android.tools.profilers.cpu.nodemodel.SyscallModel;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NodeNameParserTest {
+
+    @Test
+    public void cppFunctionWithReturnTypeTemplatesAndModifiers() {
+        CppFunctionModel model = NodeNameParser.createCppFunctionModel(
+                "void std::__1::vector<int, std::__1::allocator<int>>::push_back<int>(int const&, Foo<Bar>) const", false);
+        assertEquals("push_back", model.getName());
+        assertEquals("std::__1::vector", model.getClassOrNamespace());
+        assertEquals(Arrays.asList("int const&", "Foo"), model.getParameters());
+    }
+
+    @Test
+    public void cppFunctionParametersAreWithinTheLastParentheses() {
+        CppFunctionModel model = NodeNameParser.createCppFunctionModel("art::Call(void (*)(int), char)", false);
+        assertEquals("Call", model.getName());
+        assertEquals("art", model.getClassOrNamespace());
+        assertEquals(Arrays.asList("void (*)(int)", "char"), model.getParameters());
+    }
+
+    @Test
+    public void cppOperators() {
+        CppFunctionModel conversion = NodeNameParser.createCppFunctionModel("ns::Type::operator bool()", false);
+        assertEquals("operator bool", conversion.getName());
+        assertEquals("ns::Type", conversion.getClassOrNamespace());
+
+        CppFunctionModel shift = NodeNameParser.createCppFunctionModel("std::ostream& std::operator<<(std::ostream&, int)", false);
+        assertEquals("operator<<", shift.getName());
+        assertEquals("std", shift.getClassOrNamespace());
+        assertEquals(Arrays.asList("std::ostream&", "int"), shift.getParameters());
+    }
+
+    @Test
+    public void unbalancedNamesAreKeptAsIs() {
+        CppFunctionModel model = NodeNameParser.createCppFunctionModel("ns::Fun<int(char)", false);
+        assertEquals("Fun<int", model.getName());
+        assertEquals("ns", model.getClassOrNamespace());
+        assertEquals(Collections.singletonList("char"), model.getParameters());
+    }
+
+    @Test
+    public void javaMethodAndSyscall() {
+        CaptureNodeModel java = NodeNameParser.parseNodeName("java.lang.String.toString", false);
+        assertTrue(java instanceof JavaMethodModel);
+        assertEquals("toString", java.getName());
+        assertEquals("java.lang.String", ((JavaMethodModel)java).getClassName());
+
+        CaptureNodeModel syscall = NodeNameParser.parseNodeName("ioctl", false, "/system/lib/libc.so", 0);
+        assertTrue(syscall instanceof SyscallModel);
+        assertEquals("ioctl", syscall.getName());
+        assertEquals("/system/*", syscall.getTag());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.profiler.proto.Cpu;
+import com.android.tools.profilers.cpu.BaseCpuCapture;
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CpuThreadInfo;
+import com.android.tools.profilers.cpu.InstructionHistograms;
+import com.android.tools.profilers.cpu.capturedetails.ModelTable;
+import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
+import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel;
+import com.android.tools.profilers.cpu.nodemodel.NoSymbolModel;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import com.android.tools.profilers.cpu.simpleperf.symbols.ProguardMapping;
+import com.android.tools.profilers.cpu.simpleperf.symbols.SymbolResolver;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.addChild;
+import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.newNode;
+import static org.junit.Assert.*;
+
+public class SimpleperfResymbolizerTest {
+
+    private static final String LIBRARY = "/data/app/com.example.app-1/lib/arm64/libapp.so";
+
+    private ModelTable myModelTable;
+    private CaptureNode myRoot;
+    private CaptureNode myObfuscated;
+    private CaptureNode myDraw1;
+    private CaptureNode myDraw2;
+    private CaptureNode myUnknown;
+    private BaseCpuCapture myCapture;
+
+    @Before
+    public void setUp() {
+        // root -> a.b.b -> libapp.so+0x10 -> libapp.so+0x20
+        //               -> libapp.so+0x30
+        myModelTable = new ModelTable(true);
+        myRoot = newNode(new SingleNameModel("main"), 0, 100);
+        myObfuscated = addChild(myRoot, new JavaMethodModel("b", "a.b", "", myModelTable.keyOf(new JavaMethodModel("b", "a.b", ""))), 0, 100);
+        myDraw1 = addChild(myObfuscated, noSymbolModel(0x10), 10, 60);
+        myDraw2 = addChild(myDraw1, noSymbolModel(0x20), 20, 50);
+        myUnknown = addChild(myObfuscated, noSymbolModel(0x30), 60, 90);
+
+        InstructionHistograms.Builder histograms = new InstructionHistograms.Builder();
+        histograms.add(myDraw2.getData(), LIBRARY, 0x20);
+        histograms.add(myDraw1.getData(), LIBRARY, 0x10);
+        histograms.add(myDraw2.getData(), LIBRARY, 0x20);
+        myCapture = new BaseCpuCapture(0, Cpu.CpuTraceType.SIMPLEPERF, true, null, new Range(0, 100),
+                                       ImmutableMap.of(new CpuThreadInfo(1, "main", true), myRoot), ImmutableSet.of(LIBRARY, "Java code"),
+                                       Collections.emptyMap(), histograms.build(), myModelTable);
+    }
+
+    @Test
+    public void unsymbolizedInstructionsAreResolved() {
+        SymbolResolver resolver = (path, vAddresses) -> {
+            if (!path.equals(LIBRARY)) {
+                return null;
+            }
+            assertArrayEquals(new long[]{0x10, 0x20, 0x30}, vAddresses);
+            return new String[]{"app::Renderer::draw(int)", "app::Renderer::draw(int)", null};
+        };
+        assertEquals(2, SimpleperfResymbolizer.resymbolize(myCapture, resolver, null));
+
+        CppFunctionModel draw1 = (CppFunctionModel)myDraw1.getData();
+        CppFunctionModel draw2 = (CppFunctionModel)myDraw2.getData();
+        assertEquals("draw", draw1.getName());
+        assertEquals("app::Renderer", draw1.getClassOrNamespace());
+        assertEquals(LIBRARY, draw1.getFileName());
+        assertEquals(NodeNameParser.tagFromFileName(LIBRARY), draw1.getTag());
+        assertTrue(draw1.isUserCode());
+        // The call sites are kept, and both addresses are in the same function.
+        assertEquals(0x510, draw1.getVAddress());
+        assertEquals(0x520, draw2.getVAddress());
+        assertEquals(draw1.getDenseId(), draw2.getDenseId());
+        assertEquals(draw1.getDenseId(), myModelTable.findKey(draw2));
+
+        assertTrue(myUnknown.getData() instanceof NoSymbolModel);
+        assertTrue(myObfuscated.getData() instanceof JavaMethodModel);
+        assertSame(myDraw1, myDraw2.getParent());
+        assertEquals(20, myDraw2.getStartGlobal());
+        assertEquals(50, myDraw2.getEndGlobal());
+        assertEquals(ImmutableSet.of("Java code", NodeNameParser.tagFromFileName(LIBRARY), LIBRARY), myCapture.getTags());
+
+        // Both addresses of the function are in its histogram now.
+        InstructionHistograms.Histogram histogram = myCapture.getInstructionHistograms().getHistogram(draw1);
+        assertNotNull(histogram);
+        assertEquals(2, histogram.getSize());
+        assertEquals(1, histogram.getSampleCount(0x10L));
+        assertEquals(2, histogram.getSampleCount(0x20L));
+    }
+
+    @Test
+    public void javaMethodsAreDeobfuscated() throws IOException {
+        File mappingFile = File.createTempFile("mapping", ".txt");
+        mappingFile.deleteOnExit();
+        Files.write(mappingFile.toPath(), ("com.example.Renderer -> a.b:\n" +
+                                           "    1:2:void update(long):50:51 -> b\n").getBytes(StandardCharsets.UTF_8));
+        ProguardMapping mapping = ProguardMapping.load(mappingFile, null);
+        assertEquals(1, SimpleperfResymbolizer.resymbolize(myCapture, null, mapping));
+
+        JavaMethodModel update = (JavaMethodModel)myObfuscated.getData();
+        assertEquals("com.example.Renderer.update", update.getFullName());
+        assertEquals(update.getDenseId(), myModelTable.findKey(update));
+        // Deobfuscated names are kept as they are by another pass.
+        assertEquals(0, SimpleperfResymbolizer.resymbolize(myCapture, null, mapping));
+    }
+
+    private NoSymbolModel noSymbolModel(long vAddressInFile) {
+        String name = String.format("libapp.so+0x%x", vAddressInFile);
+        int denseId = myModelTable.keyOf(new NoSymbolModel(LIBRARY, name));
+        return new NoSymbolModel(LIBRARY, name, vAddressInFile, 0x500 + vAddressInFile, true, denseId);
+    }
+}
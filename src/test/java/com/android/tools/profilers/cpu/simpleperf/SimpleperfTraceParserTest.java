@@ -20,6 +20,7 @@ import com.android.tools.profiler.proto.SimpleperfReport;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.CpuCapture;
 import com.android.tools.profilers.cpu.CpuThreadInfo;
+import com.android.tools.profilers.cpu.InstructionHistograms;
 import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
@@ -185,6 +186,18 @@ public class SimpleperfTraceParserTest {
         assertTrue(cppModelCount > 0);
     }
 
+    @Test
+    public void instructionHistogramsCountEverySampleOnce() throws IOException {
+        CpuCapture capture = myParser.parse(myTraceFile, 0);
+        InstructionHistograms histograms = capture.getInstructionHistograms();
+        long histogramSamples = 0;
+        for (String id : histograms.getFunctionIds()) {
+            histogramSamples += histograms.getHistogram(id).getTotalSampleCount();
+        }
+        long samplesWithCallChain = myParser.mySamples.stream().filter(sample -> sample.getCallchainCount() > 0).count();
+        assertEquals(samplesWithCallChain, histogramSamples);
+    }
+
     @Test
     public void mainProcessShouldBePresent() throws IOException {
         CpuCapture capture = myParser.parse(myTraceFile, 0);
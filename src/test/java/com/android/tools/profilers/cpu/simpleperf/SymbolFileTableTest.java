@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf;
+
+import com.android.tools.profiler.proto.SimpleperfReport;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
+import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel;
+import com.android.tools.profilers.cpu.nodemodel.NoSymbolModel;
+import com.android.tools.profilers.cpu.simpleperf.symbols.ProguardMapping;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SymbolFileTableTest {
+
+    private SymbolFileTable myTable;
+
+    @Before
+    public void setUp() {
+        SimpleperfReport.File system = SimpleperfReport.File.newBuilder()
+                .setId(0)
+                .setPath("/system/lib64/libart.so")
+                .addSymbol("art::Thread::Run()")
+                .addSymbol("java.lang.Thread.run")
+                .build();
+        SimpleperfReport.File app = SimpleperfReport.File.newBuilder()
+                .setId(2)
+                .setPath("/data/app/com.example.app-1/lib/arm64/libapp.so")
+                .addSymbol("app::Render(int)")
+                .build();
+        myTable = new SymbolFileTable(Arrays.asList(SymbolFileRecord.of(system), SymbolFileRecord.of(app)), "/data/app/com.example.app",
+                                      false);
+    }
+
+    @Test
+    public void metadataIsComputedPerFile() {
+        SymbolFileTable.SymbolFile system = myTable.get(0);
+        assertFalse(system.isUserCode());
+        assertEquals("libart.so", system.getName());
+        assertEquals("/system/*", system.getTag());
+
+        SymbolFileTable.SymbolFile app = myTable.get(2);
+        assertTrue(app.isUserCode());
+        assertEquals("libapp.so", app.getName());
+        assertEquals("/data/app/com.example.app-1/lib/arm64/libapp.so", app.getTag());
+    }
+
+    @Test
+    public void modelsOfTheSameSymbolKeepTheirOwnAddress() {
+        SymbolFileTable.SymbolFile system = myTable.get(0);
+        CppFunctionModel first = (CppFunctionModel)system.createModel(0, 10);
+        CppFunctionModel second = (CppFunctionModel)system.createModel(0, 20);
+        assertNotSame(first, second);
+        assertEquals("art::Thread::Run[]", first.getId());
+        assertEquals(first.getId(), second.getId());
+        assertEquals("/system/lib64/libart.so", first.getFileName());
+        assertEquals("/system/*", first.getTag());
+        assertEquals(10, first.getVAddress());
+        assertEquals(20, second.getVAddress());
+
+        CaptureNodeModel java = system.createModel(1, 30);
+        assertTrue(java instanceof JavaMethodModel);
+        assertEquals("java.lang.Thread.run", java.getFullName());
+
+        assertTrue(((CppFunctionModel)myTable.get(2).createModel(0, 0)).isUserCode());
+    }
+
+    @Test
+    public void internedNamesShareTheirFields() {
+        SimpleperfReport.File file = SimpleperfReport.File.newBuilder()
+                .setId(0)
+                .setPath("/system/lib64/libart.so")
+                .addSymbol("art::Thread::Run()")
+                .addSymbol("art::Thread::Stop()")
+                .build();
+        SymbolFileTable table = new SymbolFileTable(Arrays.asList(SymbolFileRecord.of(file)), null, true);
+        CppFunctionModel run = (CppFunctionModel)table.get(0).createModel(0, 0);
+        CppFunctionModel stop = (CppFunctionModel)table.get(0).createModel(1, 0);
+        assertEquals("art::Thread", run.getClassOrNamespace());
+        assertSame(run.getClassOrNamespace(), stop.getClassOrNamespace());
+    }
+
+    @Test
+    public void obfuscatedJavaNamesAreDeobfuscated() throws IOException {
+        File mappingFile = File.createTempFile("mapping", ".txt");
+        mappingFile.deleteOnExit();
+        Files.write(mappingFile.toPath(), "com.example.Renderer -> a.b:\n    void draw() -> a\n".getBytes(StandardCharsets.UTF_8));
+        SimpleperfReport.File file = SimpleperfReport.File.newBuilder()
+                .setId(0)
+                .setPath("/data/app/com.example.app-1/oat/arm64/base.odex")
+                .addSymbol("a.b.a")
+                .addSymbol("java.lang.Thread.run")
+                .build();
+        SymbolFileTable table = new SymbolFileTable(Arrays.asList(SymbolFileRecord.of(file)), null, true,
+                                                    ProguardMapping.load(mappingFile, null));
+        JavaMethodModel draw = (JavaMethodModel)table.get(0).createModel(0, 0);
+        assertEquals("com.example.Renderer", draw.getClassName());
+        assertEquals("draw", draw.getName());
+        assertEquals("java.lang.Thread.run", table.get(0).createModel(1, 0).getFullName());
+    }
+
+    @Test
+    public void modelsWithTheSameIdShareTheirDenseId() {
+        SimpleperfReport.File jit = SimpleperfReport.File.newBuilder()
+                .setId(3)
+                .setPath("/memfd:jit-cache (deleted)")
+                .addSymbol("java.lang.Thread.run")
+                .build();
+        SymbolFileTable table = new SymbolFileTable(Arrays.asList(SymbolFileRecord.of(jit), SymbolFileRecord.of(
+                SimpleperfReport.File.newBuilder().setId(0).setPath("/system/framework/arm64/boot.oat").addSymbol("art::Run()")
+                        .addSymbol("java.lang.Thread.run").build())), null, false);
+        CaptureNodeModel run = table.get(0).createModel(1, 10);
+        CaptureNodeModel art = table.get(0).createModel(0, 20);
+        assertEquals(0, run.getDenseId());
+        assertEquals(1, art.getDenseId());
+        assertEquals(run.getDenseId(), table.get(0).createModel(1, 30).getDenseId());
+        assertEquals(run.getDenseId(), table.get(3).createModel(0, 40).getDenseId());
+        assertEquals(2, table.get(3).createNoSymbolModel(0x10, 0x99).getDenseId());
+        assertEquals(2, table.get(3).createNoSymbolModel(0x10, 0x98).getDenseId());
+        assertEquals(3, table.getModelTable().getSize());
+        assertEquals("java.lang.Thread.run", table.getModelTable().getModel(run.getDenseId()).getFullName());
+    }
+
+    @Test
+    public void noSymbolModelsAreNamedAfterTheFile() {
+        NoSymbolModel model = myTable.get(2).createNoSymbolModel(0x3039, 0x99);
+        assertEquals("libapp.so+0x3039", model.getName());
+        assertEquals("/data/app/com.example.app-1/lib/arm64/libapp.so", model.getTag());
+        // The location of the instruction is kept, so it can be symbolized later.
+        assertEquals("/data/app/com.example.app-1/lib/arm64/libapp.so", model.getFileName());
+        assertEquals(0x3039, model.getVAddressInFile());
+        assertEquals(0x99, model.getVAddress());
+        assertTrue(model.isUserCode());
+    }
+
+    @Test
+    public void resolvedAddressesShareTheModelOfTheirFunction() {
+        SymbolFileTable.SymbolFile app = myTable.get(2);
+        app.setResolvedSymbols(new long[]{0x10, 0x18, 0x40}, new String[]{"app::Update(float)", "app::Update(float)", null});
+        assertEquals(app.getResolvedSymbol(0x10), app.getResolvedSymbol(0x18));
+        assertEquals(-1, app.getResolvedSymbol(0x40));
+        assertEquals(-1, app.getResolvedSymbol(0x20));
+
+        CppFunctionModel update = (CppFunctionModel)app.createUnsymbolizedModel(0x18, 0x99);
+        assertEquals("app::Update", update.getFullName());
+        assertEquals(0x99, update.getVAddress());
+        assertTrue(update.isUserCode());
+        assertEquals("libapp.so+0x40", app.createUnsymbolizedModel(0x40, 0x99).getName());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingFileThrows() {
+        myTable.get(1);
+    }
+}
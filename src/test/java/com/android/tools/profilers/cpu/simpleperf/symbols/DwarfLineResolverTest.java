@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.InstructionHistograms;
+import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DwarfLineResolverTest {
+
+    private static final byte[] BUILD_ID = {0x12, 0x34, 0x56, 0x78};
+
+    private File myDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        myDirectory = Files.createTempDirectory("lines").toFile();
+    }
+
+    @Test
+    public void decodesLineProgramsOfVersions4And5() {
+        DwarfLineTable table = DwarfLineTable.read(ElfFile.of(ByteBuffer.wrap(newLibrary().build())));
+        assertNotNull(table);
+        assertNull(table.findLocation(0xFFF));
+        assertEquals(new SourceLocation("src/draw.cpp", 10), table.findLocation(0x1000));
+        assertEquals(new SourceLocation("src/draw.cpp", 10), table.findLocation(0x100F));
+        assertEquals(new SourceLocation("src/draw.cpp", 12), table.findLocation(0x1010));
+        // The row repeating line 12 at 0x1014 isn't kept.
+        assertEquals(new SourceLocation("src/draw.cpp", 13), table.findLocation(0x101C));
+        assertEquals(new SourceLocation("util.h", 13), table.findLocation(0x1024));
+        assertEquals(new SourceLocation("src/draw.cpp", 10), table.findLocation(0x1034));
+        assertNull(table.findLocation(0x1044));
+        // The sequence of a function removed by the linker is dropped.
+        assertNull(table.findLocation(0x0));
+        assertEquals(new SourceLocation("/work/game/main.cpp", 5), table.findLocation(0x2000));
+        assertEquals(new SourceLocation("/work/game/main.cpp", 7), table.findLocation(0x2008));
+        assertNull(table.findLocation(0x2010));
+        assertEquals(9, table.size());
+    }
+
+    @Test
+    public void writtenTableLoadsBack() throws IOException {
+        DwarfLineTable table = DwarfLineTable.read(ElfFile.of(ByteBuffer.wrap(newLibrary().build())));
+        File file = new File(myDirectory, "table.lines");
+        table.write(file);
+        DwarfLineTable loaded = DwarfLineTable.load(file);
+        assertEquals(table.size(), loaded.size());
+        for (int i = 0; i < table.size(); i++) {
+            assertEquals(table.getAddress(i), loaded.getAddress(i));
+            assertEquals(table.findLocation(table.getAddress(i)), loaded.findLocation(loaded.getAddress(i)));
+        }
+    }
+
+    @Test
+    public void resolvesAndCachesByBuildId() throws IOException {
+        newLibrary().writeTo(new File(myDirectory, "obj/arm64-v8a/libgame.so"));
+        File cache = new File(myDirectory, "cache");
+        DwarfLineResolver resolver = new DwarfLineResolver(myDirectory, cache);
+        assertEquals(new SourceLocation("src/draw.cpp", 12), resolver.findLocation("/data/app/com.example.game-1/lib/arm64/libgame.so", 0x1010));
+        assertNull(resolver.findLocation("libc.so", 0x1010));
+        assertTrue(new File(cache, "12345678.lines").isFile());
+
+        DwarfLineResolver cached = new DwarfLineResolver(myDirectory, cache);
+        assertEquals(new SourceLocation("/work/game/main.cpp", 5), cached.findLocation("libgame.so", 0x2004));
+    }
+
+    @Test
+    public void histogramAttributesCallsToTheirCallSites() throws IOException {
+        newLibrary().writeTo(new File(myDirectory, "libgame.so"));
+        CppFunctionModel draw = new CppFunctionModel.Builder("draw").setFileName("libgame.so").setVAddress(0x2004).build();
+        CaptureNode root = newNode(new CppFunctionModel.Builder("main").setFileName("libgame.so").build(), 0, 100, 10);
+        CaptureNode drawNode = newNode(draw, 0, 100, 10);
+        root.addChild(drawNode);
+        // Two calls from line 12, one from line 13, and one from an address without line.
+        drawNode.addChild(newNode(callee(0x1010), 0, 20, 2));
+        drawNode.addChild(newNode(callee(0x1014), 20, 50, 3));
+        drawNode.addChild(newNode(callee(0x101C), 50, 90, 4));
+        drawNode.addChild(newNode(callee(0x3000), 90, 100, 1));
+
+        SourceLineHistogram histogram =
+                SourceLineHistogram.ofCallSites(Collections.singletonList(root), draw, new DwarfLineResolver(myDirectory, null));
+        assertEquals(2, histogram.size());
+        assertEquals(new SourceLocation("src/draw.cpp", 12), histogram.getLocation(0));
+        assertEquals(5, histogram.getSampleCount(0));
+        assertEquals(50, histogram.getTime(0));
+        assertEquals(new SourceLocation("src/draw.cpp", 13), histogram.getLocation(1));
+        assertEquals(4, histogram.getSampleCount(1));
+        assertEquals(1, histogram.getUnresolvedSampleCount());
+    }
+
+    @Test
+    public void histogramAttributesSamplesToTheirInstructions() throws IOException {
+        newLibrary().writeTo(new File(myDirectory, "libgame.so"));
+        CppFunctionModel draw = new CppFunctionModel.Builder("draw").setFileName("libgame.so").build();
+        InstructionHistograms.Builder instructions = new InstructionHistograms.Builder();
+        for (long address : new long[]{0x1000, 0x1008, 0x101C, 0x1020, 0x1034, 0x3000}) {
+            instructions.add(draw, "/data/app/com.example.game-1/lib/arm64/libgame.so", address);
+        }
+
+        SourceLineHistogram histogram =
+                SourceLineHistogram.ofInstructions(instructions.build().getHistogram(draw), new DwarfLineResolver(myDirectory, null));
+        assertEquals(2, histogram.size());
+        assertEquals(new SourceLocation("src/draw.cpp", 10), histogram.getLocation(0));
+        assertEquals(3, histogram.getSampleCount(0));
+        assertEquals(new SourceLocation("src/draw.cpp", 13), histogram.getLocation(1));
+        assertEquals(2, histogram.getSampleCount(1));
+        assertEquals(1, histogram.getUnresolvedSampleCount());
+    }
+
+    private static CppFunctionModel callee(long callSite) {
+        return new CppFunctionModel.Builder("callee" + callSite).setFileName("libgame.so").setVAddress(callSite).build();
+    }
+
+    private static CaptureNode newNode(CppFunctionModel model, long start, long end, long sampleCount) {
+        CaptureNode node = new CaptureNode(model);
+        node.setStartGlobal(start);
+        node.setEndGlobal(end);
+        node.setSampleCount(sampleCount);
+        return node;
+    }
+
+    private static TestElfBuilder newLibrary() {
+        Dwarf lineStrings = new Dwarf();
+        lineStrings.string("/work/game");
+        Dwarf lines = new Dwarf();
+        writeVersion4Unit(lines);
+        writeVersion5Unit(lines);
+        return new TestElfBuilder()
+                .addSection(".debug_line", 1, lines.toByteArray())
+                .addSection(".debug_line_str", 1, lineStrings.toByteArray())
+                .addBuildId(BUILD_ID);
+    }
+
+    private static void writeVersion4Unit(Dwarf lines) {
+        Dwarf header = new Dwarf();
+        // Minimum instruction length, maximum operations per instruction, default is_stmt, line base, line range, opcode base.
+        header.bytes(1, 1, 1, -5, 14, 13);
+        header.bytes(0, 1, 1, 1, 1, 0, 0, 0, 1, 0, 0, 1);
+        header.string("src").bytes(0);
+        header.string("draw.cpp").bytes(1, 0, 0);
+        header.string("util.h").bytes(0, 0, 0);
+        header.bytes(0);
+
+        Dwarf program = new Dwarf();
+        program.setAddress(0x1000).bytes(3).sleb(9).bytes(1);
+        program.bytes(2).uleb(0x10).bytes(3).sleb(2).bytes(1);
+        program.bytes(2).uleb(4).bytes(1);
+        // Special opcode advancing the address by 8 and the line by 1.
+        program.bytes(8 * 14 + 1 + 5 + 13);
+        program.bytes(4).uleb(2).bytes(2).uleb(8).bytes(1);
+        program.bytes(4).uleb(1).bytes(2).uleb(0x10).bytes(3).sleb(-3).bytes(1);
+        program.bytes(2).uleb(0x10).endSequence();
+        program.setAddress(0).bytes(3).sleb(99).bytes(1).bytes(2).uleb(4).endSequence();
+
+        lines.unit(4, header, program);
+    }
+
+    private static void writeVersion5Unit(Dwarf lines) {
+        Dwarf header = new Dwarf();
+        header.bytes(1, 1, 1, -5, 14, 13);
+        header.bytes(0, 1, 1, 1, 1, 0, 0, 0, 1, 0, 0, 1);
+        // One directory, whose path is in .debug_line_str.
+        header.bytes(1).uleb(1).uleb(0x1F).uleb(1).int32(0);
+        // One file, with an inline path and a directory index.
+        header.bytes(2).uleb(1).uleb(0x08).uleb(2).uleb(0x0F).uleb(1).string("main.cpp").uleb(0);
+
+        Dwarf program = new Dwarf();
+        program.setAddress(0x2000).bytes(4).uleb(0).bytes(3).sleb(4).bytes(1);
+        program.bytes(2).uleb(8).bytes(3).sleb(2).bytes(1);
+        program.bytes(2).uleb(8).endSequence();
+
+        lines.unit(5, header, program);
+    }
+
+    /**
+     * Little-endian DWARF encoder.
+     */
+    private static final class Dwarf {
+        private final ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+
+        Dwarf bytes(int... values) {
+            for (int value : values) {
+                myBytes.write(value);
+            }
+            return this;
+        }
+
+        Dwarf int32(int value) {
+            byte[] bytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+            myBytes.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Dwarf string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            myBytes.write(bytes, 0, bytes.length);
+            return bytes(0);
+        }
+
+        Dwarf uleb(long value) {
+            do {
+                int b = (int)(value & 0x7F);
+                value >>>= 7;
+                bytes(value != 0 ? b | 0x80 : b);
+            }
+            while (value != 0);
+            return this;
+        }
+
+        Dwarf sleb(long value) {
+            while (true) {
+                int b = (int)(value & 0x7F);
+                value >>= 7;
+                if ((value == 0 && (b & 0x40) == 0) || (value == -1 && (b & 0x40) != 0)) {
+                    return bytes(b);
+                }
+                bytes(b | 0x80);
+            }
+        }
+
+        Dwarf setAddress(long address) {
+            bytes(0, 9, 2);
+            byte[] bytes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(address).array();
+            myBytes.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Dwarf endSequence() {
+            return bytes(0, 1, 1);
+        }
+
+        Dwarf unit(int version, Dwarf header, Dwarf program) {
+            byte[] headerBytes = header.toByteArray();
+            byte[] programBytes = program.toByteArray();
+            int versionFieldsSize = version >= 5 ? 4 : 2;
+            int32(versionFieldsSize + 4 + headerBytes.length + programBytes.length);
+            bytes(version, 0);
+            if (version >= 5) {
+                // Address and segment selector sizes.
+                bytes(8, 0);
+            }
+            int32(headerBytes.length);
+            myBytes.write(headerBytes, 0, headerBytes.length);
+            myBytes.write(programBytes, 0, programBytes.length);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return myBytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ElfSymbolizerTest {
+
+    private static final byte[] BUILD_ID = {(byte)0xCA, (byte)0xFE, 0x01, 0x02};
+
+    private File myDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        myDirectory = Files.createTempDirectory("symbols").toFile();
+    }
+
+    @Test
+    public void readsBuildIdAndFunctions() {
+        ElfFile elf = ElfFile.of(ByteBuffer.wrap(newLibrary().build()));
+        assertEquals("cafe0102", elf.getBuildId());
+
+        ElfSymbolTable table = ElfSymbolTable.read(elf);
+        assertEquals(3, table.size());
+        assertEquals("_Z4drawv", table.getName(table.findSymbol(0x1000)));
+        assertEquals("_Z4drawv", table.getName(table.findSymbol(0x10FF)));
+        // A function without size ends where the next one starts.
+        assertEquals("update", table.getName(table.findSymbol(0x1500)));
+        assertEquals(0x2000, table.getEnd(table.findSymbol(0x1500)));
+        assertEquals("main", table.getName(table.findSymbol(0x2008)));
+        assertEquals(-1, table.findSymbol(0x2010));
+        assertEquals(-1, table.findSymbol(0x500));
+    }
+
+    @Test
+    public void writtenTableLoadsBack() throws IOException {
+        ElfSymbolTable table = ElfSymbolTable.read(ElfFile.of(ByteBuffer.wrap(newLibrary().build())));
+        File file = new File(myDirectory, "table.symbols");
+        table.write(file);
+        ElfSymbolTable loaded = ElfSymbolTable.load(file);
+        assertEquals(table.size(), loaded.size());
+        for (int i = 0; i < table.size(); i++) {
+            assertEquals(table.getStart(i), loaded.getStart(i));
+            assertEquals(table.getEnd(i), loaded.getEnd(i));
+            assertEquals(table.getName(i), loaded.getName(i));
+        }
+    }
+
+    @Test
+    public void resolvesFromTheLibraryOfTheSameAbi() throws IOException {
+        newLibrary().writeTo(new File(myDirectory, "obj/arm64-v8a/libgame.so"));
+        new TestElfBuilder().addFunction("arm32", 0x1000, 0x2000).writeTo(new File(myDirectory, "obj/armeabi-v7a/libgame.so"));
+        File cache = new File(myDirectory, "cache");
+        ElfSymbolizer symbolizer = new ElfSymbolizer(myDirectory, cache, name -> name.equals("_Z4drawv") ? "draw()" : name);
+
+        String[] names = symbolizer.resolve("/data/app/com.example.game-1/lib/arm64/libgame.so", new long[]{0x500, 0x1000, 0x1010, 0x1800});
+        assertArrayEquals(new String[]{null, "draw()", "draw()", "update"}, names);
+        assertArrayEquals(new String[]{"arm32"}, symbolizer.resolve("/data/app/com.example.game-1/lib/arm/libgame.so", new long[]{0x1000}));
+        assertNull(symbolizer.resolve("/system/lib64/libc.so", new long[]{0x1000}));
+
+        // The table is cached by build id, and the cache is used by other symbolizers.
+        assertTrue(new File(cache, "cafe0102.symbols").isFile());
+        ElfSymbolizer cached = new ElfSymbolizer(myDirectory, cache);
+        assertArrayEquals(new String[]{"main"}, cached.resolve("/data/app/com.example.game-1/lib/arm64/libgame.so", new long[]{0x2000}));
+    }
+
+    private static TestElfBuilder newLibrary() {
+        return new TestElfBuilder()
+                .addFunction("_Z4drawv", 0x1000, 0x100)
+                .addFunction("update", 0x1100, 0)
+                .addFunction("main", 0x2000, 0x10)
+                .addBuildId(BUILD_ID);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KallsymsResolverTest {
+
+    private static final String KALLSYMS = "ffffffc010080000 T _text\n" +
+                                           "ffffffc010081000 T _stext\n" +
+                                           "ffffffc010081000 t __do_softirq\n" +
+                                           "ffffffc010082000 T el0_svc\n" +
+                                           "ffffffc010082400 d data_after_el0_svc\n" +
+                                           "ffffffc010083000 W do_sys_open\n" +
+                                           "ffffffc010084000 T _etext\n" +
+                                           "ffffffc008001000 t ext4_read\t[ext4]\n" +
+                                           "ffffffc008002000 t ext4_write\t[ext4]\n" +
+                                           "ffffffc008003000 r ext4_ops\t[ext4]\n";
+
+    @Test
+    public void resolvesKernelAddresses() throws IOException {
+        KallsymsResolver resolver = KallsymsResolver.parse(KALLSYMS.getBytes(StandardCharsets.UTF_8));
+        // Aliases are merged.
+        assertEquals(9, resolver.size());
+
+        long[] addresses = {0xffffffc008000000L, 0xffffffc008001010L, 0xffffffc008002fffL, 0xffffffc008003000L, 0xffffffc010081000L,
+                            0xffffffc010082100L, 0xffffffc010082500L, 0xffffffc010083ffcL, 0xffffffc010090000L};
+        assertArrayEquals(new String[]{null, "ext4_read", "ext4_write", null, "_stext", "el0_svc", null, "do_sys_open", null},
+                          resolver.resolve(KallsymsResolver.KERNEL_PATH, addresses));
+        assertNull(resolver.resolve("/system/lib64/libc.so", addresses));
+    }
+
+    @Test
+    public void overlappingRunsAreSorted() throws IOException {
+        KallsymsResolver resolver = KallsymsResolver.parse(("0000000000003000 T c\n" +
+                                                            "0000000000005000 T e\n" +
+                                                            "0000000000001000 T a\n" +
+                                                            "0000000000004000 T d\n" +
+                                                            "0000000000002000 t b\n" +
+                                                            "0000000000002000 T b_alias\n" +
+                                                            "0000000000006000 T end\n").getBytes(StandardCharsets.UTF_8));
+        assertEquals(6, resolver.size());
+        assertArrayEquals(new String[]{"a", "b", "c", "d", "e"},
+                          resolver.resolve(KallsymsResolver.KERNEL_PATH, new long[]{0x1000, 0x2000, 0x3000, 0x4000, 0x5000}));
+    }
+
+    @Test(expected = IOException.class)
+    public void hiddenAddressesAreReported() throws IOException {
+        KallsymsResolver.parse("0000000000000000 T _text\n0000000000000000 T _stext\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void combinedResolversFillEachOthersGaps() throws IOException {
+        KallsymsResolver kernel = KallsymsResolver.parse(KALLSYMS.getBytes(StandardCharsets.UTF_8));
+        SymbolResolver fallback = (path, vAddresses) -> {
+            String[] names = new String[vAddresses.length];
+            names[0] = "fallback";
+            names[1] = "ignored";
+            return names;
+        };
+        SymbolResolver resolver = SymbolResolver.firstOf(kernel, fallback);
+        assertArrayEquals(new String[]{"fallback", "el0_svc"},
+                          resolver.resolve(KallsymsResolver.KERNEL_PATH, new long[]{0x1000, 0xffffffc010082000L}));
+        assertArrayEquals(new String[]{"fallback", "ignored"}, resolver.resolve("libc.so", new long[]{0x1000, 0x2000}));
+        assertNull(SymbolResolver.firstOf(kernel).resolve("libc.so", new long[]{0x1000}));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProguardMappingTest {
+
+    private static final String MAPPING = "# compiler: R8\n" +
+                                          "# pg_map_id: 1234567\n" +
+                                          "com.example.Renderer -> a.b:\n" +
+                                          "# {\"id\":\"sourceFile\",\"fileName\":\"Renderer.java\"}\n" +
+                                          "    int frameCount -> a\n" +
+                                          "    1:1:void <init>():10:10 -> <init>\n" +
+                                          "    1:4:void drawShadow(int):40:43 -> a\n" +
+                                          "    1:4:void drawLayer(int):30 -> a\n" +
+                                          "    5:9:void draw():20:24 -> a\n" +
+                                          "    1:2:int com.example.Util.clamp(int):5:6 -> b\n" +
+                                          "    1:2:void update(long):50:51 -> b\n" +
+                                          "    void reset() -> c\n" +
+                                          "    void clear() -> c\n" +
+                                          "    1:1:long com.example.Util.now():8:8 -> d\n" +
+                                          "com.example.Renderer$Layer -> a.b$a:\n" +
+                                          "    void paint() -> a\n";
+
+    private File myDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        myDirectory = Files.createTempDirectory("mapping").toFile();
+    }
+
+    @Test
+    public void obfuscatedNamesAreMappedToTheOutermostMethod() throws IOException {
+        ProguardMapping mapping = ProguardMapping.load(writeMapping(MAPPING), null);
+        assertEquals(8, mapping.size());
+
+        assertEquals("com.example.Renderer", mapping.getOriginalClassName("a.b"));
+        assertEquals("com.example.Renderer$Layer", mapping.getOriginalClassName("a.b$a"));
+        assertNull(mapping.getOriginalClassName("a.c"));
+
+        // drawShadow was inlined into drawLayer, and the range 5:9 is draw itself.
+        assertEquals("com.example.Renderer.drawLayer|draw", mapping.getOriginalMethodName("a.b", "a"));
+        assertEquals("com.example.Renderer.update", mapping.getOriginalMethodName("a.b", "b"));
+        assertEquals("com.example.Renderer.reset|clear", mapping.getOriginalMethodName("a.b", "c"));
+        // Methods of other classes only inlined into this one keep their class.
+        assertEquals("com.example.Util.now", mapping.getOriginalMethodName("a.b", "d"));
+        assertEquals("com.example.Renderer.<init>", mapping.getOriginalMethodName("a.b", "<init>"));
+        assertEquals("com.example.Renderer$Layer.paint", mapping.getOriginalMethodName("a.b$a", "a"));
+        // Fields aren't methods, and methods kept with their name aren't in the mapping.
+        assertEquals("com.example.Renderer.toString", mapping.getOriginalMethodName("a.b", "toString"));
+        assertNull(mapping.getOriginalMethodName("java.lang.Thread", "run"));
+    }
+
+    @Test
+    public void cachedIndexIsReusedUntilTheMappingChanges() throws IOException {
+        File mappingFile = writeMapping(MAPPING);
+        File cacheDirectory = new File(myDirectory, "cache");
+        assertEquals(8, ProguardMapping.load(mappingFile, cacheDirectory).size());
+        File[] indices = cacheDirectory.listFiles();
+        assertNotNull(indices);
+        assertEquals(1, indices.length);
+        long indexModified = indices[0].lastModified();
+
+        ProguardMapping cached = ProguardMapping.load(mappingFile, cacheDirectory);
+        assertEquals("com.example.Renderer.update", cached.getOriginalMethodName("a.b", "b"));
+        assertEquals(indexModified, indices[0].lastModified());
+
+        Files.write(mappingFile.toPath(), "com.example.Main -> a:\n    void main() -> a\n".getBytes(StandardCharsets.UTF_8));
+        ProguardMapping updated = ProguardMapping.load(mappingFile, cacheDirectory);
+        assertEquals(2, updated.size());
+        assertEquals("com.example.Main.main", updated.getOriginalMethodName("a", "a"));
+        assertEquals(1, cacheDirectory.listFiles().length);
+    }
+
+    private File writeMapping(String mapping) throws IOException {
+        File file = new File(myDirectory, "mapping.txt");
+        Files.write(file.toPath(), mapping.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
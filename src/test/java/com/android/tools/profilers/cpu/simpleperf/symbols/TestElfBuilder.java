@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf.symbols;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes minimal 64-bit little-endian ELF files with arbitrary sections, for tests.
+ */
+final class TestElfBuilder {
+
+    private static final int HEADER_SIZE = 64;
+    private static final int SECTION_HEADER_SIZE = 64;
+
+    private static final class Section {
+        final String name;
+        final int type;
+        final byte[] data;
+        final int link;
+        final int entrySize;
+
+        Section(String name, int type, byte[] data, int link, int entrySize) {
+            this.name = name;
+            this.type = type;
+            this.data = data;
+            this.link = link;
+            this.entrySize = entrySize;
+        }
+    }
+
+    private final List<Section> mySections = new ArrayList<>();
+    private final ByteArrayOutputStream mySymbols = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream myStrings = new ByteArrayOutputStream();
+
+    TestElfBuilder() {
+        myStrings.write(0);
+        // The first symbol is the undefined one.
+        mySymbols.write(new byte[24], 0, 24);
+    }
+
+    /**
+     * Adds a function to the {@code .symtab} section.
+     */
+    TestElfBuilder addFunction(String name, long address, long size) {
+        ByteBuffer symbol = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        symbol.putInt(myStrings.size());
+        // Global function, defined in section 1.
+        symbol.put((byte)(1 << 4 | 2));
+        symbol.put((byte)0);
+        symbol.putShort((short)1);
+        symbol.putLong(address);
+        symbol.putLong(size);
+        mySymbols.write(symbol.array(), 0, 24);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        myStrings.write(nameBytes, 0, nameBytes.length);
+        myStrings.write(0);
+        return this;
+    }
+
+    TestElfBuilder addBuildId(byte[] buildId) {
+        ByteBuffer note = ByteBuffer.allocate(16 + buildId.length).order(ByteOrder.LITTLE_ENDIAN);
+        note.putInt(4).putInt(buildId.length).putInt(3).put("GNU\0".getBytes(StandardCharsets.US_ASCII)).put(buildId);
+        return addSection(".note.gnu.build-id", ElfFile.SHT_NOTE, note.array());
+    }
+
+    TestElfBuilder addSection(String name, int type, byte[] data) {
+        mySections.add(new Section(name, type, data, 0, 0));
+        return this;
+    }
+
+    byte[] build() {
+        List<Section> sections = new ArrayList<>();
+        sections.add(new Section("", 0, new byte[0], 0, 0));
+        sections.add(new Section(".text", 1, new byte[16], 0, 0));
+        int stringsIndex = sections.size() + 1;
+        sections.add(new Section(".symtab", ElfFile.SHT_SYMTAB, mySymbols.toByteArray(), stringsIndex, 24));
+        sections.add(new Section(".strtab", ElfFile.SHT_STRTAB, myStrings.toByteArray(), 0, 0));
+        sections.addAll(mySections);
+
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        names.write(0);
+        int[] nameOffsets = new int[sections.size() + 1];
+        for (int i = 0; i < sections.size(); i++) {
+            nameOffsets[i] = writeName(names, sections.get(i).name);
+        }
+        nameOffsets[sections.size()] = writeName(names, ".shstrtab");
+        sections.add(new Section(".shstrtab", ElfFile.SHT_STRTAB, names.toByteArray(), 0, 0));
+
+        int dataSize = 0;
+        for (Section section : sections) {
+            dataSize += section.data.length;
+        }
+        int sectionHeadersOffset = HEADER_SIZE + dataSize;
+        ByteBuffer elf = ByteBuffer.allocate(sectionHeadersOffset + sections.size() * SECTION_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        elf.put(new byte[]{0x7F, 'E', 'L', 'F', 2, 1, 1});
+        elf.putShort(0x10, (short)3);
+        elf.putShort(0x12, (short)183);
+        elf.putLong(0x28, sectionHeadersOffset);
+        elf.putShort(0x34, (short)HEADER_SIZE);
+        elf.putShort(0x3A, (short)SECTION_HEADER_SIZE);
+        elf.putShort(0x3C, (short)sections.size());
+        elf.putShort(0x3E, (short)(sections.size() - 1));
+
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < sections.size(); i++) {
+            Section section = sections.get(i);
+            elf.position(offset);
+            elf.put(section.data);
+            int header = sectionHeadersOffset + i * SECTION_HEADER_SIZE;
+            elf.putInt(header, nameOffsets[i]);
+            elf.putInt(header + 4, section.type);
+            elf.putLong(header + 0x18, offset);
+            elf.putLong(header + 0x20, section.data.length);
+            elf.putInt(header + 0x28, section.link);
+            elf.putLong(header + 0x38, section.entrySize);
+            offset += section.data.length;
+        }
+        return elf.array();
+    }
+
+    File writeTo(File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), build());
+        return file;
+    }
+
+    private static int writeName(ByteArrayOutputStream names, String name) {
+        if (name.isEmpty()) {
+            return 0;
+        }
+        int offset = names.size();
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        names.write(bytes, 0, bytes.length);
+        names.write(0);
+        return offset;
+    }
+}